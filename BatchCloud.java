@@ -0,0 +1,363 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Generates a tag cloud for every file of a directory, or every path listed in
+ * a manifest file, in one JVM run. Files are processed concurrently on a
+ * bounded pool; one HTML file, or SVG or JSON with {@code --format}, is
+ * written per input plus a {@code summary.tsv} of timings. With
+ * {@code --tfidf INDEX} each cloud keeps the tags that set its input apart
+ * from the others, ranked by TF-IDF against the document frequencies of all
+ * the inputs; the index is built in parallel and saved in INDEX, or read from
+ * it if it already exists.
+ *
+ * @author Ben Elleman
+ *
+ */
+public final class BatchCloud {
+
+    /**
+     * Private constructor so this utility class cannot be instantiated.
+     */
+    private BatchCloud() {
+    }
+
+    /**
+     * Name of the timing summary written to the output directory.
+     */
+    static final String SUMMARY = "summary.tsv";
+
+    /**
+     * Outcome of generating one cloud.
+     */
+    private static final class Result {
+
+        /**
+         * The input file.
+         */
+        private final Path input;
+
+        /**
+         * The cloud written.
+         */
+        private final Path output;
+
+        /**
+         * Size of the input in bytes.
+         */
+        private long bytes;
+
+        /**
+         * Number of distinct tags in the input.
+         */
+        private int distinct;
+
+        /**
+         * Time taken in nanoseconds.
+         */
+        private long nanos;
+
+        /**
+         * Why the cloud failed, or null if it did not.
+         */
+        private String error;
+
+        /**
+         * Creates a result for {@code input}.
+         *
+         * @param input
+         *            The input file
+         * @param output
+         *            The cloud to write
+         */
+        Result(Path input, Path output) {
+            this.input = input;
+            this.output = output;
+        }
+    }
+
+    /**
+     * Main method.
+     *
+     * @param args
+     *            A directory or manifest of inputs, an output directory and a
+     *            cloud size, optionally followed by {@code --threads N},
+     *            {@code --tfidf INDEX}, {@code --scale MODE} and
+     *            {@code --format FORMAT}
+     */
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.out.println("Usage: BatchCloud <input directory|manifest> "
+                    + "<output directory> <cloud size> [--threads N] "
+                    + "[--tfidf INDEX] [--scale MODE] [--format FORMAT]");
+            return;
+        }
+        int workers = Runtime.getRuntime().availableProcessors();
+        String index = null;
+        FontScale.Mode scale = FontScale.Mode.LINEAR;
+        CloudFormats.Format format = CloudFormats.Format.HTML;
+        for (int i = 3; i < args.length; i++) {
+            if (args[i].equals("--threads") && i + 1 < args.length) {
+                i++;
+                workers = Integer.parseInt(args[i]);
+            } else if (args[i].equals("--tfidf") && i + 1 < args.length) {
+                i++;
+                index = args[i];
+            } else if (args[i].equals("--scale") && i + 1 < args.length) {
+                i++;
+                try {
+                    scale = FontScale.Mode.of(args[i]);
+                } catch (IllegalArgumentException e) {
+                    System.out.println(e.getMessage());
+                    return;
+                }
+            } else if (args[i].equals("--format") && i + 1 < args.length) {
+                i++;
+                try {
+                    format = CloudFormats.Format.of(args[i]);
+                } catch (IllegalArgumentException e) {
+                    System.out.println(e.getMessage());
+                    return;
+                }
+            }
+        }
+        try {
+            Path outputDir = Paths.get(args[1]);
+            int cloudSize = Integer.parseInt(args[2]);
+            List<Path> inputs = inputs(Paths.get(args[0]));
+            Files.createDirectories(outputDir);
+            long start = System.nanoTime();
+            DocumentFrequencies idf = null;
+            if (index != null && Files.exists(Paths.get(index))) {
+                idf = DocumentFrequencies.open(Paths.get(index));
+            } else if (index != null) {
+                idf = DocumentFrequencies.build(inputs,
+                        Charset.defaultCharset(), new Tokenizer(), workers,
+                        Paths.get(index));
+                System.out.println("Indexed " + idf.documents()
+                        + " documents in "
+                        + (System.nanoTime() - start) / 1_000_000 + " ms");
+            }
+            List<Result> results = run(inputs, outputDir, cloudSize, workers,
+                    idf, scale, format);
+            long nanos = System.nanoTime() - start;
+            writeSummary(outputDir.resolve(SUMMARY), results, nanos);
+            //Confirmation message
+            System.out.println(results.size() + " files processed in "
+                    + nanos / 1_000_000 + " ms, summary in "
+                    + outputDir.resolve(SUMMARY));
+        } catch (NumberFormatException e) {
+            System.out.println("You must provide a valid number.");
+        } catch (IOException e) {
+            System.out.println("Not a valid input/output.");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Lists the inputs named by {@code source}: the regular files of a
+     * directory, or the non-blank lines of a manifest file, resolved against
+     * the manifest's directory.
+     *
+     * @param source
+     *            A directory or manifest file
+     * @return The input files, in a stable order
+     * @throws IOException
+     *             If {@code source} cannot be read
+     */
+    static List<Path> inputs(Path source) throws IOException {
+        List<Path> inputs = new ArrayList<>();
+        if (Files.isDirectory(source)) {
+            try (DirectoryStream<Path> dir = Files.newDirectoryStream(source)) {
+                for (Path p : dir) {
+                    if (Files.isRegularFile(p)) {
+                        inputs.add(p);
+                    }
+                }
+            }
+            inputs.sort(null);
+        } else {
+            Path base = source.toAbsolutePath().getParent();
+            for (String line : Files.readAllLines(source,
+                    Charset.defaultCharset())) {
+                String name = line.trim();
+                if (!name.isEmpty()) {
+                    inputs.add(base.resolve(name));
+                }
+            }
+        }
+        return inputs;
+    }
+
+    /**
+     * Generates the clouds of {@code inputs} on {@code workers} threads.
+     *
+     * @param inputs
+     *            The input files
+     * @param outputDir
+     *            Where to write the clouds
+     * @param cloudSize
+     *            Number of tags per cloud
+     * @param workers
+     *            Number of threads
+     * @param idf
+     *            Document frequencies to rank tags by TF-IDF with, or null
+     *            to rank them by count
+     * @param scale
+     *            How counts become font sizes
+     * @param format
+     *            The format of the clouds
+     * @return The result of every input, in the order of {@code inputs}
+     */
+    static List<Result> run(List<Path> inputs, Path outputDir, int cloudSize,
+            int workers, DocumentFrequencies idf, FontScale.Mode scale,
+            CloudFormats.Format format) {
+        List<Result> results = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        for (Path input : inputs) {
+            String name = input.getFileName() + "." + format.extension();
+            for (int n = 2; !names.add(name); n++) {
+                name = input.getFileName() + "-" + n + "."
+                        + format.extension();
+            }
+            results.add(new Result(input, outputDir.resolve(name)));
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<?>> pending = new ArrayList<>();
+            for (Result r : results) {
+                pending.add(pool.submit(
+                        () -> generate(r, cloudSize, idf, scale, format)));
+            }
+            for (int i = 0; i < pending.size(); i++) {
+                try {
+                    pending.get(i).get();
+                } catch (ExecutionException e) {
+                    //An Error in one cloud is reported with that cloud
+                    results.get(i).error = e.getCause().toString();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return results;
+    }
+
+    /**
+     * Generates one cloud, recording the outcome in {@code r}.
+     *
+     * @param r
+     *            The input and output, and where the outcome goes
+     * @param cloudSize
+     *            Number of tags in the cloud
+     * @param idf
+     *            Document frequencies to rank tags by TF-IDF with, or null
+     * @param scale
+     *            How counts become font sizes
+     * @param format
+     *            The format of the cloud
+     */
+    private static void generate(Result r, int cloudSize,
+            DocumentFrequencies idf, FontScale.Mode scale,
+            CloudFormats.Format format) {
+        long start = System.nanoTime();
+        //Malformed input is replaced, as when TCS2 counts it
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                Files.newInputStream(r.input), Charset.defaultCharset()));
+                PrintWriter output = new PrintWriter(new BufferedWriter(
+                        new OutputStreamWriter(Files.newOutputStream(r.output),
+                                format.charset()),
+                        TCS2.OUTPUT_BUFFER))) {
+            r.bytes = Files.size(r.input);
+            Map<String, Integer> counts = CloudPipeline.count(
+                    new ReaderLineSource(in));
+            r.distinct = counts.size();
+            CloudPipeline.Cloud cloud;
+            if (idf != null) {
+                cloud = CloudPipeline.reduce(counts, cloudSize, idf);
+            } else {
+                cloud = CloudPipeline.reduce(counts, cloudSize);
+            }
+            CloudPipeline.render(output, r.input.getFileName().toString(),
+                    cloudSize, cloud, scale, format);
+        } catch (IOException | RuntimeException e) {
+            //One bad input must not stop the batch
+            r.error = e.toString();
+        }
+        r.nanos = System.nanoTime() - start;
+    }
+
+    /**
+     * Writes the timing of every cloud, and the totals, as tab-separated
+     * values.
+     *
+     * @param summary
+     *            The file to write
+     * @param results
+     *            The result of every input
+     * @param nanos
+     *            Wall time of the whole batch in nanoseconds
+     * @throws IOException
+     *             If the summary cannot be written
+     */
+    private static void writeSummary(Path summary, List<Result> results,
+            long nanos) throws IOException {
+        try (PrintWriter out = new PrintWriter(
+                Files.newBufferedWriter(summary, Charset.defaultCharset()))) {
+            out.println("input\toutput\tbytes\tdistinct\tms\tMB/s\terror");
+            long bytes = 0;
+            int failed = 0;
+            for (Result r : results) {
+                bytes += r.bytes;
+                if (r.error != null) {
+                    failed++;
+                }
+                out.println(r.input + "\t" + r.output.getFileName() + "\t"
+                        + r.bytes + "\t" + r.distinct + "\t"
+                        + r.nanos / 1_000_000 + "\t"
+                        + rate(r.bytes, r.nanos) + "\t"
+                        + (r.error == null ? "" : r.error));
+            }
+            out.println("total\t" + results.size() + " files, " + failed
+                    + " failed\t" + bytes + "\t\t" + nanos / 1_000_000 + "\t"
+                    + rate(bytes, nanos) + "\t");
+        }
+    }
+
+    /**
+     * Formats a throughput in MB/s.
+     *
+     * @param bytes
+     *            Bytes processed
+     * @param nanos
+     *            Time taken in nanoseconds
+     * @return The throughput, to one decimal place
+     */
+    private static String rate(long bytes, long nanos) {
+        double mbPerSecond = bytes / (double) (1 << 20)
+                / Math.max(nanos / 1e9, 1e-9);
+        return String.format(Locale.ROOT, "%.1f", mbPerSecond);
+    }
+}
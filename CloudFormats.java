@@ -0,0 +1,252 @@
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Writes a cloud in formats other than the HTML list of {@code TCS2}: an SVG
+ * picture with the tags laid out by {@link CloudLayout}, and JSON holding the
+ * tags, counts and font sizes for other programs to draw. Both are written
+ * from the same alphabetized tags and {@link FontScale} as the HTML.
+ *
+ * @author Ben Elleman
+ *
+ */
+public final class CloudFormats {
+
+    /**
+     * Private constructor so this utility class cannot be instantiated.
+     */
+    private CloudFormats() {
+    }
+
+    /**
+     * The formats a cloud can be written in.
+     */
+    public enum Format {
+
+        /**
+         * A page of {@code <span>}s styled by the cloud stylesheet.
+         */
+        HTML("html", "text/html; charset=utf-8"),
+
+        /**
+         * A picture of the tags laid out on a spiral.
+         */
+        SVG("svg", "image/svg+xml; charset=utf-8"),
+
+        /**
+         * The tags, counts and font sizes as data.
+         */
+        JSON("json", "application/json; charset=utf-8");
+
+        /**
+         * Extension of files in this format.
+         */
+        private final String extension;
+
+        /**
+         * Media type of this format.
+         */
+        private final String mediaType;
+
+        /**
+         * Creates a format.
+         *
+         * @param extension
+         *            Extension of files in this format
+         * @param mediaType
+         *            Media type of this format
+         */
+        Format(String extension, String mediaType) {
+            this.extension = extension;
+            this.mediaType = mediaType;
+        }
+
+        /**
+         * Returns the extension of files in this format.
+         *
+         * @return The extension, without a dot
+         */
+        public String extension() {
+            return this.extension;
+        }
+
+        /**
+         * Returns the media type of this format.
+         *
+         * @return The media type, with its charset
+         */
+        public String mediaType() {
+            return this.mediaType;
+        }
+
+        /**
+         * Returns the charset of files written in this format: UTF-8, which
+         * the SVG header declares and JSON requires, except for HTML pages,
+         * which are written in the platform default as they always were.
+         *
+         * @return The charset
+         */
+        public Charset charset() {
+            if (this == HTML) {
+                return Charset.defaultCharset();
+            }
+            return StandardCharsets.UTF_8;
+        }
+
+        /**
+         * Returns the format named {@code name}, ignoring case.
+         *
+         * @param name
+         *            The name of a format
+         * @return The format
+         * @throws IllegalArgumentException
+         *             If no format has that name
+         */
+        public static Format of(String name) {
+            try {
+                return valueOf(name.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown format: " + name
+                        + " (use html, svg or json)", e);
+            }
+        }
+    }
+
+    /**
+     * Writes the tags as an SVG picture, each laid out at its own place and
+     * titled with its count.
+     *
+     * @param output
+     *            The SVG document to write on
+     * @param name
+     *            Name of the input, shown in the title
+     * @param cloudSize
+     *            The requested number of tags, shown in the title
+     * @param sorted
+     *            Alphabetized tags
+     * @param scale
+     *            Font sizes of the counts in {@code sorted}
+     */
+    public static void svg(PrintWriter output, String name, int cloudSize,
+            List<Entry<String, Integer>> sorted, FontScale scale) {
+        CloudLayout layout = new CloudLayout(sorted, scale);
+        output.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        output.println("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\""
+                + layout.width() + "\" height=\"" + layout.height()
+                + "\" viewBox=\"0 0 " + layout.width() + " "
+                + layout.height() + "\" font-family=\"monospace\">");
+        output.println("<title>" + escape("Top " + cloudSize + " words in "
+                + name) + "</title>");
+        StringBuilder text = new StringBuilder(128);
+        int i = 0;
+        for (Entry<String, Integer> pair : sorted) {
+            text.setLength(0);
+            text.append("<text x=\"").append(layout.left(i))
+                    .append("\" y=\"").append(layout.baseline(i))
+                    .append("\" font-size=\"").append(layout.font(i))
+                    .append("\" class=\"f").append(layout.font(i))
+                    .append("\"><title>count: ").append(pair.getValue())
+                    .append("</title>").append(escape(pair.getKey()))
+                    .append("</text>");
+            output.append(text);
+            output.println();
+            i++;
+        }
+        output.println("</svg>");
+    }
+
+    /**
+     * Writes the tags as JSON: the input and its bounds, then each tag with
+     * its count, font size and, if counts are estimated, largest error, in
+     * alphabetical order.
+     *
+     * @param output
+     *            The JSON document to write on
+     * @param name
+     *            Name of the input
+     * @param cloudSize
+     *            The requested number of tags
+     * @param sorted
+     *            Alphabetized tags
+     * @param scale
+     *            Font sizes of the counts in {@code sorted}
+     * @param minCount
+     *            The smallest count in {@code sorted}
+     * @param maxCount
+     *            The largest count in {@code sorted}
+     * @param errors
+     *            Largest error of each tag's count, or null if counts are
+     *            exact
+     */
+    public static void json(PrintWriter output, String name, int cloudSize,
+            List<Entry<String, Integer>> sorted, FontScale scale,
+            int minCount, int maxCount, Map<String, Integer> errors) {
+        output.println("{");
+        output.println("  \"input\": " + Metrics.quote(name) + ",");
+        output.println("  \"cloudSize\": " + cloudSize + ",");
+        output.println("  \"minCount\": " + minCount + ",");
+        output.println("  \"maxCount\": " + maxCount + ",");
+        output.println("  \"tags\": [");
+        StringBuilder tag = new StringBuilder(128);
+        int i = 0;
+        for (Entry<String, Integer> pair : sorted) {
+            tag.setLength(0);
+            tag.append("    {\"tag\": ").append(Metrics.quote(pair.getKey()))
+                    .append(", \"count\": ").append(pair.getValue())
+                    .append(", \"font\": ")
+                    .append(scale.font(pair.getValue()));
+            if (errors != null) {
+                tag.append(", \"error\": ").append(errors.get(pair.getKey()));
+            }
+            tag.append(++i < sorted.size() ? "}," : "}");
+            output.append(tag);
+            output.println();
+        }
+        output.println("  ]");
+        output.println("}");
+    }
+
+    /**
+     * Escapes the characters of {@code s} that are markup in XML, and
+     * replaces the control characters XML cannot hold.
+     *
+     * @param s
+     *            The text
+     * @return The text, safe in an element or attribute
+     */
+    static String escape(String s) {
+        StringBuilder b = null;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            String entity = null;
+            if (c == '&') {
+                entity = "&amp;";
+            } else if (c == '<') {
+                entity = "&lt;";
+            } else if (c == '>') {
+                entity = "&gt;";
+            } else if (c == '"') {
+                entity = "&quot;";
+            } else if (c < 0x20 && c != '\t' && c != '\n' && c != '\r') {
+                //Not allowed in XML at all
+                entity = "\ufffd";
+            }
+            if (entity != null && b == null) {
+                b = new StringBuilder(s.length() + 8).append(s, 0, i);
+            }
+            if (b != null) {
+                if (entity != null) {
+                    b.append(entity);
+                } else {
+                    b.append(c);
+                }
+            }
+        }
+        return b == null ? s : b.toString();
+    }
+}
@@ -0,0 +1,677 @@
+import java.lang.Character.UnicodeScript;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map.Entry;
+
+/**
+ * Places the tags of a cloud on a canvas without overlap, largest first,
+ * each at the first free point of a rectangular spiral out from the centre:
+ * rings of cells around the middle of the canvas, as wide as the canvas is
+ * wide for their height, so the cloud grows to the canvas's shape.
+ *
+ * <p>
+ * The canvas is covered by an occupancy grid of {@code CELL}-pixel cells, a
+ * bit per cell packed 64 to a {@code long}, so whether a tag fits is decided
+ * by testing a few words per row of its box instead of every tag placed
+ * before it. The spiral is made of straight runs of cells, and when a box
+ * overlaps an occupied cell, every box further along the run that would
+ * still cover that cell is skipped at once. Every tag walks the same spiral,
+ * and a box that overlaps at some point of it still overlaps there later, as
+ * does any box at least as wide and as tall; so the first step each size of
+ * box could still use is remembered, and a tag skips the steps a box inside
+ * its own already failed.
+ *
+ * <p>
+ * Boxes are estimated from the length of the tag, as if it were set in a
+ * monospace font, which is how the SVG output draws it.
+ *
+ * @author Ben Elleman
+ *
+ */
+public final class CloudLayout {
+
+    /**
+     * Size of a cell of the occupancy grid, in pixels.
+     */
+    static final int CELL = 4;
+
+    /**
+     * Width of a character of a monospace font, in ems.
+     */
+    static final double ADVANCE = 0.6;
+
+    /**
+     * Height of the baseline above the bottom of a tag's box, in ems.
+     */
+    static final double DESCENT = 0.25;
+
+    /**
+     * Height of a tag's box, in ems.
+     */
+    static final double LINE = 1.2;
+
+    /**
+     * Fraction of the canvas first expected to be covered by tags.
+     */
+    private static final double DENSITY = 0.4;
+
+    /**
+     * Width of the canvas over its height.
+     */
+    private static final double ASPECT = 1.6;
+
+    /**
+     * A run of the spiral going left to right.
+     */
+    private static final int RIGHT = 0;
+
+    /**
+     * A run of the spiral going right to left.
+     */
+    private static final int LEFT = 1;
+
+    /**
+     * A run of the spiral going top to bottom.
+     */
+    private static final int DOWN = 2;
+
+    /**
+     * A run of the spiral going bottom to top.
+     */
+    private static final int UP = 3;
+
+    /**
+     * Left edge of each tag's box, in pixels, by index in the cloud.
+     */
+    private final int[] left;
+
+    /**
+     * Top edge of each tag's box, in pixels, by index in the cloud.
+     */
+    private final int[] top;
+
+    /**
+     * Font size of each tag, by index in the cloud.
+     */
+    private final int[] fonts;
+
+    /**
+     * Width of each tag's box in cells, by index in the cloud.
+     */
+    private final int[] columns;
+
+    /**
+     * Height of each tag's box in cells, by index in the cloud.
+     */
+    private final int[] rows;
+
+    /**
+     * Number of columns of the grid.
+     */
+    private int gridColumns;
+
+    /**
+     * Number of rows of the grid.
+     */
+    private int gridRows;
+
+    /**
+     * Number of {@code long}s in a row of the grid.
+     */
+    private int stride;
+
+    /**
+     * The occupied cells, a bit per cell, row by row.
+     */
+    private long[] grid;
+
+    /**
+     * Column of the cell at each step of the spiral.
+     */
+    private int[] spiralX = new int[0];
+
+    /**
+     * Row of the cell at each step of the spiral.
+     */
+    private int[] spiralY = new int[0];
+
+    /**
+     * Run of each step of the spiral: the number of steps after it in the
+     * same run, shifted left by two, and the run's direction.
+     */
+    private int[] spiralRun = new int[0];
+
+    /**
+     * Number of steps of the spiral listed so far.
+     */
+    private int steps;
+
+    /**
+     * The next ring of the spiral to list.
+     */
+    private int ring;
+
+    /**
+     * First step of the spiral a box could still use, by its height and
+     * width in cells, or 0 if no box of that size has been placed.
+     */
+    private int[][] resume;
+
+    /**
+     * Lays out {@code tags}.
+     *
+     * @param tags
+     *            The tags of the cloud and their counts
+     * @param scale
+     *            Font sizes of the counts
+     */
+    public CloudLayout(List<Entry<String, Integer>> tags, FontScale scale) {
+        int n = tags.size();
+        this.left = new int[n];
+        this.top = new int[n];
+        this.fonts = new int[n];
+        this.columns = new int[n];
+        this.rows = new int[n];
+        Integer[] order = new Integer[n];
+        long area = 0;
+        int widest = 1;
+        int tallest = 1;
+        for (int i = 0; i < n; i++) {
+            Entry<String, Integer> tag = tags.get(i);
+            int font = Math.max(scale.font(tag.getValue()), 1);
+            this.fonts[i] = font;
+            this.columns[i] = cells(ADVANCE * font * widthOf(tag.getKey()));
+            this.rows[i] = cells(LINE * font);
+            area += (long) this.columns[i] * this.rows[i];
+            widest = Math.max(widest, this.columns[i]);
+            tallest = Math.max(tallest, this.rows[i]);
+            order[i] = i;
+        }
+        //Largest first, so the small tags fill the gaps between them
+        Arrays.sort(order, (a, b) -> {
+            int x = Integer.compare(this.fonts[b], this.fonts[a]);
+            return x != 0 ? x : Integer.compare(a, b);
+        });
+        double cells = Math.max(area / DENSITY, 1);
+        int gridColumns = Math.max(widest + 2,
+                (int) Math.ceil(Math.sqrt(cells * ASPECT)));
+        int gridRows = Math.max(tallest + 2,
+                (int) Math.ceil(cells / gridColumns));
+        while (!this.place(order, gridColumns, gridRows)) {
+            gridColumns += gridColumns / 4 + 1;
+            gridRows += gridRows / 4 + 1;
+        }
+    }
+
+    /**
+     * Measures {@code tag} in character widths of a monospace font, taking
+     * the ideographs and syllables of East Asian scripts as two.
+     *
+     * @param tag
+     *            A tag
+     * @return Its width in character widths
+     */
+    private static int widthOf(String tag) {
+        int width = 0;
+        for (int i = 0; i < tag.length();) {
+            int c = tag.codePointAt(i);
+            UnicodeScript script = UnicodeScript.of(c);
+            if (script == UnicodeScript.HAN || script == UnicodeScript.HANGUL
+                    || script == UnicodeScript.HIRAGANA
+                    || script == UnicodeScript.KATAKANA) {
+                width += 2;
+            } else if (Character.getType(c) != Character.NON_SPACING_MARK) {
+                width++;
+            }
+            i += Character.charCount(c);
+        }
+        return Math.max(width, 1);
+    }
+
+    /**
+     * Converts a length in pixels to whole cells, rounding up.
+     *
+     * @param pixels
+     *            A length in pixels
+     * @return The number of cells it covers
+     */
+    private static int cells(double pixels) {
+        return Math.max((int) Math.ceil(pixels / CELL), 1);
+    }
+
+    /**
+     * Places every tag on an empty grid of the given size.
+     *
+     * @param order
+     *            Indexes of the tags in the order to place them
+     * @param gridColumns
+     *            Number of columns of the grid
+     * @param gridRows
+     *            Number of rows of the grid
+     * @return false if some tag did not fit
+     */
+    private boolean place(Integer[] order, int gridColumns, int gridRows) {
+        this.gridColumns = gridColumns;
+        this.gridRows = gridRows;
+        this.stride = (gridColumns + 63) >>> 6;
+        this.grid = new long[this.stride * gridRows];
+        this.steps = 0;
+        this.ring = 0;
+        this.resume = new int[gridRows + 1][];
+        for (int i : order) {
+            int w = this.columns[i];
+            int h = this.rows[i];
+            int step = this.skip(w, h);
+            int x;
+            int y;
+            while (true) {
+                while (step >= this.steps) {
+                    if (!this.spiral()) {
+                        return false;
+                    }
+                }
+                x = this.spiralX[step] - w / 2;
+                y = this.spiralY[step] - h / 2;
+                long distance = this.distance(step, x, y, w, h);
+                if (distance == 0) {
+                    break;
+                }
+                step += (int) Math.min(distance,
+                        (this.spiralRun[step] >>> 2) + 1);
+            }
+            if (this.resume[h] == null) {
+                this.resume[h] = new int[gridColumns + 1];
+            }
+            this.resume[h][w] = step;
+            this.fill(x, y, w, h);
+            this.left[i] = x * CELL;
+            this.top[i] = y * CELL;
+        }
+        return true;
+    }
+
+    /**
+     * Finds the first step of the spiral a box of {@code w} by {@code h}
+     * cells could still use: the latest step recorded for any box that fits
+     * inside it.
+     *
+     * @param w
+     *            Width of the box in cells
+     * @param h
+     *            Height of the box in cells
+     * @return The first step worth testing
+     */
+    private int skip(int w, int h) {
+        int step = 0;
+        for (int r = 1; r <= h; r++) {
+            int[] widths = this.resume[r];
+            if (widths != null) {
+                for (int c = 1; c <= w; c++) {
+                    step = Math.max(step, widths[c]);
+                }
+            }
+        }
+        return step;
+    }
+
+    /**
+     * Tests a box centred on a step of the spiral, and if it does not fit,
+     * finds how far along the step's run the next box worth testing is.
+     *
+     * @param step
+     *            The step of the spiral
+     * @param x
+     *            Left column of the box
+     * @param y
+     *            Top row of the box
+     * @param w
+     *            Width of the box in cells
+     * @param h
+     *            Height of the box in cells
+     * @return 0 if the box fits, or else the number of steps to move on
+     */
+    private long distance(int step, int x, int y, int w, int h) {
+        int sx = this.spiralX[step];
+        int sy = this.spiralY[step];
+        int direction = this.spiralRun[step] & 3;
+        boolean across = direction == RIGHT || direction == LEFT;
+        boolean forward = direction == RIGHT || direction == DOWN;
+        int centre = across ? sx : sy;
+        int start = across ? x : y;
+        int size = across ? w : h;
+        int limit = across ? this.gridColumns : this.gridRows;
+        boolean outside = across ? y < 0 || y + h > this.gridRows
+                : x < 0 || x + w > this.gridColumns;
+        //Centre of the next box along the run that could fit
+        long next;
+        if (outside) {
+            next = forward ? Integer.MAX_VALUE : Integer.MIN_VALUE;
+        } else if (this.occupied(sx, sy)) {
+            //The middle of the box is the cell most likely taken
+            next = this.nextFree(sx, sy, direction);
+        } else if (start < 0) {
+            next = forward ? size / 2 : Integer.MIN_VALUE;
+        } else if (start + size > limit) {
+            next = forward ? Integer.MAX_VALUE : limit - size + size / 2;
+        } else {
+            int taken = this.taken(x, y, w, h, direction);
+            if (taken < 0) {
+                return 0;
+            }
+            //Every box along the run that still covers it overlaps
+            next = forward ? taken + 1 + size / 2 : taken - size + size / 2;
+        }
+        return Math.abs(next - centre);
+    }
+
+    /**
+     * Reports whether a cell is occupied.
+     *
+     * @param x
+     *            Column of the cell
+     * @param y
+     *            Row of the cell
+     * @return true if a tag covers it
+     */
+    private boolean occupied(int x, int y) {
+        return (this.grid[y * this.stride + (x >>> 6)] & 1L << x) != 0;
+    }
+
+    /**
+     * Finds the next free cell from an occupied one in a direction.
+     *
+     * @param x
+     *            Column of the cell
+     * @param y
+     *            Row of the cell
+     * @param direction
+     *            The direction to look in
+     * @return The column, or for {@code DOWN} and {@code UP} the row, of the
+     *         free cell, or one past the edge of the grid if there is none
+     */
+    private int nextFree(int x, int y, int direction) {
+        if (direction == DOWN) {
+            while (y < this.gridRows && this.occupied(x, y)) {
+                y++;
+            }
+            return y;
+        }
+        if (direction == UP) {
+            while (y >= 0 && this.occupied(x, y)) {
+                y--;
+            }
+            return y;
+        }
+        int base = y * this.stride;
+        int word = x >>> 6;
+        if (direction == RIGHT) {
+            long bits = ~this.grid[base + word] & -1L << x;
+            while (bits == 0 && ++word < this.stride) {
+                bits = ~this.grid[base + word];
+            }
+            if (bits == 0) {
+                return this.gridColumns;
+            }
+            return (word << 6) + Long.numberOfTrailingZeros(bits);
+        }
+        long bits = ~this.grid[base + word] & -1L >>> (63 - (x & 63));
+        while (bits == 0 && --word >= 0) {
+            bits = ~this.grid[base + word];
+        }
+        if (bits == 0) {
+            return -1;
+        }
+        return (word << 6) + 63 - Long.numberOfLeadingZeros(bits);
+    }
+
+    /**
+     * Finds an occupied cell inside a box on the grid, as far along the run
+     * as is cheaply found: the last occupied row of the box along a column,
+     * or along a row the last occupied cell of the first row found occupied,
+     * searching the middle, top and bottom rows, where a neighbour most often
+     * reaches in, first.
+     *
+     * @param x
+     *            Left column of the box
+     * @param y
+     *            Top row of the box
+     * @param w
+     *            Width of the box in cells
+     * @param h
+     *            Height of the box in cells
+     * @param direction
+     *            The direction of the run
+     * @return The column, or for {@code DOWN} and {@code UP} the row, of an
+     *         occupied cell, or -1 if the box is free
+     */
+    private int taken(int x, int y, int w, int h, int direction) {
+        int bottom = y + h - 1;
+        if (direction == DOWN) {
+            for (int row = bottom; row >= y; row--) {
+                if (this.taken(row, x, w, true) >= 0) {
+                    return row;
+                }
+            }
+            return -1;
+        }
+        if (direction == UP) {
+            for (int row = y; row <= bottom; row++) {
+                if (this.taken(row, x, w, true) >= 0) {
+                    return row;
+                }
+            }
+            return -1;
+        }
+        boolean leftmost = direction == LEFT;
+        int middle = y + h / 2;
+        int taken = this.taken(middle, x, w, leftmost);
+        if (taken < 0) {
+            taken = this.taken(y, x, w, leftmost);
+        }
+        if (taken < 0) {
+            taken = this.taken(bottom, x, w, leftmost);
+        }
+        for (int row = y + 1; taken < 0 && row < bottom; row++) {
+            if (row != middle) {
+                taken = this.taken(row, x, w, leftmost);
+            }
+        }
+        return taken;
+    }
+
+    /**
+     * Finds an occupied cell among {@code w} cells of a row, from column
+     * {@code x}.
+     *
+     * @param row
+     *            The row
+     * @param x
+     *            The first column
+     * @param w
+     *            Number of cells
+     * @param leftmost
+     *            Whether to report the leftmost occupied cell, or else the
+     *            rightmost
+     * @return The column of the cell, or -1 if none is occupied
+     */
+    private int taken(int row, int x, int w, boolean leftmost) {
+        int base = row * this.stride;
+        int first = x >>> 6;
+        int last = (x + w - 1) >>> 6;
+        long firstMask = -1L << x;
+        long lastMask = -1L >>> (63 - ((x + w - 1) & 63));
+        for (int i = 0; i <= last - first; i++) {
+            int word = leftmost ? first + i : last - i;
+            long bits = this.grid[base + word];
+            if (word == first) {
+                bits &= firstMask;
+            }
+            if (word == last) {
+                bits &= lastMask;
+            }
+            if (bits != 0) {
+                return (word << 6) + (leftmost
+                        ? Long.numberOfTrailingZeros(bits)
+                        : 63 - Long.numberOfLeadingZeros(bits));
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Marks the cells of a box as occupied.
+     *
+     * @param x
+     *            Left column of the box
+     * @param y
+     *            Top row of the box
+     * @param w
+     *            Width of the box in cells
+     * @param h
+     *            Height of the box in cells
+     */
+    private void fill(int x, int y, int w, int h) {
+        int first = x >>> 6;
+        int last = (x + w - 1) >>> 6;
+        long firstMask = -1L << x;
+        long lastMask = -1L >>> (63 - ((x + w - 1) & 63));
+        for (int row = y; row < y + h; row++) {
+            int base = row * this.stride;
+            for (int word = first; word <= last; word++) {
+                long mask = -1L;
+                if (word == first) {
+                    mask &= firstMask;
+                }
+                if (word == last) {
+                    mask &= lastMask;
+                }
+                this.grid[base + word] |= mask;
+            }
+        }
+    }
+
+    /**
+     * Lists the cells of the next ring of the spiral that lie on the grid:
+     * the border of a rectangle around the centre, less the rings inside it,
+     * as a run along the top left to right, runs down the columns of the
+     * right side, a run along the bottom right to left and runs up the
+     * columns of the left side.
+     *
+     * @return false if every cell of the grid is already listed
+     */
+    private boolean spiral() {
+        int cx = this.gridColumns / 2;
+        int cy = this.gridRows / 2;
+        double stretch = (double) this.gridColumns / this.gridRows;
+        int r = this.ring;
+        int half = (int) Math.round(r * stretch);
+        int inner = r == 0 ? -1 : (int) Math.round((r - 1) * stretch);
+        if (r > cy && inner >= cx) {
+            return false;
+        }
+        this.ring++;
+        this.run(cy - r, cx - half, cx + half, RIGHT);
+        for (int x = cx + inner + 1; x <= cx + half; x++) {
+            this.run(x, cy - r + 1, cy + r - 1, DOWN);
+        }
+        if (r > 0) {
+            this.run(cy + r, cx - half, cx + half, LEFT);
+        }
+        for (int x = cx - inner - 1; x >= cx - half; x--) {
+            this.run(x, cy - r + 1, cy + r - 1, UP);
+        }
+        return true;
+    }
+
+    /**
+     * Adds the cells of a straight run that lie on the grid to the spiral,
+     * growing its arrays as needed.
+     *
+     * @param line
+     *            The row of a run along a row, or else the column
+     * @param from
+     *            The first column or row of the run, the smaller
+     * @param to
+     *            The last column or row of the run, the larger
+     * @param direction
+     *            The direction of the run
+     */
+    private void run(int line, int from, int to, int direction) {
+        boolean across = direction == RIGHT || direction == LEFT;
+        if (line < 0 || line >= (across ? this.gridRows : this.gridColumns)) {
+            return;
+        }
+        from = Math.max(from, 0);
+        to = Math.min(to, (across ? this.gridColumns : this.gridRows) - 1);
+        int n = to - from + 1;
+        if (n <= 0) {
+            return;
+        }
+        if (this.steps + n > this.spiralX.length) {
+            int capacity = Math.max(this.steps + n, 2 * this.spiralX.length);
+            this.spiralX = Arrays.copyOf(this.spiralX, capacity);
+            this.spiralY = Arrays.copyOf(this.spiralY, capacity);
+            this.spiralRun = Arrays.copyOf(this.spiralRun, capacity);
+        }
+        boolean forward = direction == RIGHT || direction == DOWN;
+        for (int i = 0; i < n; i++) {
+            int at = forward ? from + i : to - i;
+            this.spiralX[this.steps] = across ? at : line;
+            this.spiralY[this.steps] = across ? line : at;
+            this.spiralRun[this.steps] = (n - 1 - i) << 2 | direction;
+            this.steps++;
+        }
+    }
+
+    /**
+     * Reports the width of the canvas.
+     *
+     * @return The width in pixels
+     */
+    public int width() {
+        return this.gridColumns * CELL;
+    }
+
+    /**
+     * Reports the height of the canvas.
+     *
+     * @return The height in pixels
+     */
+    public int height() {
+        return this.gridRows * CELL;
+    }
+
+    /**
+     * Reports the left edge of the {@code i}th tag's box.
+     *
+     * @param i
+     *            Index of the tag in the cloud
+     * @return The left edge in pixels
+     */
+    public int left(int i) {
+        return this.left[i];
+    }
+
+    /**
+     * Reports the baseline of the {@code i}th tag.
+     *
+     * @param i
+     *            Index of the tag in the cloud
+     * @return The baseline in pixels from the top of the canvas
+     */
+    public int baseline(int i) {
+        return this.top[i]
+                + (int) Math.round((LINE - DESCENT) * this.fonts[i]);
+    }
+
+    /**
+     * Reports the font size of the {@code i}th tag.
+     *
+     * @param i
+     *            Index of the tag in the cloud
+     * @return The font size in pixels
+     */
+    public int font(int i) {
+        return this.fonts[i];
+    }
+}
@@ -0,0 +1,283 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * The count, reduce and alphabetize stages of {@code TCS2} as an in-process
+ * API. The stages keep no shared state, so any number of threads may run them
+ * at once.
+ *
+ * @author Ben Elleman
+ *
+ */
+public final class CloudPipeline {
+
+    /**
+     * Private constructor so this utility class cannot be instantiated.
+     */
+    private CloudPipeline() {
+    }
+
+    /**
+     * The tags of a cloud in alphabetical order, with the smallest and
+     * largest of their counts.
+     */
+    public static final class Cloud {
+
+        /**
+         * The tags and their counts in alphabetical order.
+         */
+        private final List<Entry<String, Integer>> tags;
+
+        /**
+         * Smallest count in the cloud.
+         */
+        private final int minCount;
+
+        /**
+         * Largest count in the cloud.
+         */
+        private final int maxCount;
+
+        /**
+         * Creates a cloud.
+         *
+         * @param tags
+         *            The tags and their counts in alphabetical order
+         * @param minCount
+         *            Smallest count in {@code tags}
+         * @param maxCount
+         *            Largest count in {@code tags}
+         */
+        Cloud(List<Entry<String, Integer>> tags, int minCount, int maxCount) {
+            this.tags = tags;
+            this.minCount = minCount;
+            this.maxCount = maxCount;
+        }
+
+        /**
+         * Returns the tags and their counts in alphabetical order.
+         *
+         * @return The tags of the cloud
+         */
+        public List<Entry<String, Integer>> tags() {
+            return this.tags;
+        }
+
+        /**
+         * Returns the smallest count in the cloud, or -1 if it is empty.
+         *
+         * @return The smallest count
+         */
+        public int minCount() {
+            return this.minCount;
+        }
+
+        /**
+         * Returns the largest count in the cloud, or -1 if it is empty.
+         *
+         * @return The largest count
+         */
+        public int maxCount() {
+            return this.maxCount;
+        }
+
+        /**
+         * Returns the font sizes of the cloud's counts.
+         *
+         * @param mode
+         *            How counts become font sizes
+         * @return The scale of the cloud
+         */
+        public FontScale scale(FontScale.Mode mode) {
+            return new FontScale(mode, this.minCount, this.maxCount);
+        }
+    }
+
+    /**
+     * Counts every tag of {@code source}.
+     *
+     * @param source
+     *            The lines to count
+     * @return A map of every tag and its count
+     * @throws IOException
+     *             If a line cannot be read
+     */
+    public static Map<String, Integer> count(LineSource source)
+            throws IOException {
+        return TCS2.mapGenerator(source);
+    }
+
+    /**
+     * Reduces {@code counts} to its {@code cloudSize} most common tags and
+     * sorts them alphabetically.
+     *
+     * @param counts
+     *            A map of tags and counts; not modified, so a cached table
+     *            can answer any number of cloud sizes
+     * @param cloudSize
+     *            Number of tags to keep
+     * @return The cloud
+     */
+    public static Cloud reduce(Map<String, Integer> counts, int cloudSize) {
+        return reduce(counts.entrySet(), cloudSize);
+    }
+
+    /**
+     * Reduces {@code counts}, the tags of one document, to the
+     * {@code cloudSize} tags with the highest TF-IDF scores and sorts them
+     * alphabetically.
+     *
+     * @param counts
+     *            A map of tags and counts; not modified
+     * @param cloudSize
+     *            Number of tags to keep
+     * @param idf
+     *            Document frequencies of the corpus
+     * @return The cloud
+     */
+    public static Cloud reduce(Map<String, Integer> counts, int cloudSize,
+            DocumentFrequencies idf) {
+        Map<String, Integer> kept = new HashMap<>();
+        int minCount = -1;
+        int maxCount = -1;
+        for (Entry<String, Integer> e : idf.topTags(counts.entrySet(),
+                cloudSize)) {
+            kept.put(e.getKey(), e.getValue());
+            if (minCount < 0 || e.getValue() < minCount) {
+                minCount = e.getValue();
+            }
+            maxCount = Math.max(maxCount, e.getValue());
+        }
+        return new Cloud(TCS2.alphabetize(kept), minCount, maxCount);
+    }
+
+    /**
+     * Reduces a saved count table to its {@code cloudSize} most common tags
+     * and sorts them alphabetically, without copying it into a map.
+     *
+     * @param table
+     *            A count table
+     * @param cloudSize
+     *            Number of tags to keep
+     * @return The cloud
+     */
+    public static Cloud reduce(CountTable table, int cloudSize) {
+        return reduce((Iterable<Entry<String, Integer>>) table, cloudSize);
+    }
+
+    /**
+     * Reduces {@code counts} to its {@code cloudSize} most common tags and
+     * sorts them alphabetically.
+     *
+     * @param counts
+     *            Tags and counts; not modified
+     * @param cloudSize
+     *            Number of tags to keep
+     * @return The cloud
+     */
+    static Cloud reduce(
+            Iterable<? extends Entry<String, Integer>> counts, int cloudSize) {
+        List<Entry<String, Integer>> top = TCS2.topTags(counts, cloudSize);
+        Map<String, Integer> kept = new HashMap<>();
+        for (Entry<String, Integer> e : top) {
+            kept.put(e.getKey(), e.getValue());
+        }
+        int minCount = -1;
+        int maxCount = -1;
+        if (!top.isEmpty()) {
+            //Most common first
+            minCount = top.get(top.size() - 1).getValue();
+            maxCount = top.get(0).getValue();
+        }
+        return new Cloud(TCS2.alphabetize(kept), minCount, maxCount);
+    }
+
+    /**
+     * Counts {@code source} and reduces it to its {@code cloudSize} most
+     * common tags.
+     *
+     * @param source
+     *            The lines to count
+     * @param cloudSize
+     *            Number of tags to keep
+     * @return The cloud
+     * @throws IOException
+     *             If a line cannot be read
+     */
+    public static Cloud build(LineSource source, int cloudSize)
+            throws IOException {
+        return reduce(count(source), cloudSize);
+    }
+
+    /**
+     * Writes {@code cloud} as an HTML page.
+     *
+     * @param output
+     *            The HTML document to write on
+     * @param name
+     *            Name of the input, shown in the title
+     * @param cloudSize
+     *            The requested number of tags, shown in the heading
+     * @param cloud
+     *            The cloud to render
+     */
+    public static void render(PrintWriter output, String name, int cloudSize,
+            Cloud cloud) {
+        render(output, name, cloudSize, cloud, FontScale.Mode.LINEAR);
+    }
+
+    /**
+     * Writes {@code cloud} as an HTML page, sized by {@code mode}.
+     *
+     * @param output
+     *            The HTML document to write on
+     * @param name
+     *            Name of the input, shown in the title
+     * @param cloudSize
+     *            The requested number of tags, shown in the heading
+     * @param cloud
+     *            The cloud to render
+     * @param mode
+     *            How counts become font sizes
+     */
+    public static void render(PrintWriter output, String name, int cloudSize,
+            Cloud cloud, FontScale.Mode mode) {
+        render(output, name, cloudSize, cloud, mode,
+                CloudFormats.Format.HTML);
+    }
+
+    /**
+     * Writes {@code cloud} in {@code format}, sized by {@code mode}.
+     *
+     * @param output
+     *            The document to write on
+     * @param name
+     *            Name of the input, shown in the title
+     * @param cloudSize
+     *            The requested number of tags, shown in the heading
+     * @param cloud
+     *            The cloud to render
+     * @param mode
+     *            How counts become font sizes
+     * @param format
+     *            The format to write
+     */
+    public static void render(PrintWriter output, String name, int cloudSize,
+            Cloud cloud, FontScale.Mode mode, CloudFormats.Format format) {
+        FontScale scale = cloud.scale(mode);
+        if (format == CloudFormats.Format.SVG) {
+            CloudFormats.svg(output, name, cloudSize, cloud.tags(), scale);
+        } else if (format == CloudFormats.Format.JSON) {
+            CloudFormats.json(output, name, cloudSize, cloud.tags(), scale,
+                    cloud.minCount(), cloud.maxCount(), null);
+        } else {
+            TCS2.htmlHeader(output, name, cloudSize);
+            TCS2.htmlBody(output, cloud.tags(), scale, null);
+            TCS2.htmlFooter(output);
+        }
+    }
+}
@@ -0,0 +1,521 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Embedded HTTP server that returns tag clouds, so each request costs a
+ * thread rather than a process.
+ * <ul>
+ * <li>{@code POST /cloud?size=N} counts the UTF-8 text of the request
+ * body.</li>
+ * <li>{@code GET /cloud?path=FILE&size=N} counts a UTF-8 file under the
+ * directory given by {@code --root}; without {@code --root} this form is
+ * refused. Counts are cached by content, in memory and, with
+ * {@code --cache DIR}, on disk.</li>
+ * <li>Either form takes {@code scale=MODE} to size the tags by another
+ * {@link FontScale.Mode} than {@code linear}, and {@code format=svg} or
+ * {@code format=json} to return the cloud as SVG or JSON.</li>
+ * <li>{@code GET /stats} reports the number of requests served, the cache
+ * hits and misses, and the latency percentiles of the most recent
+ * requests.</li>
+ * </ul>
+ * Requests run on virtual threads when the JVM has them, and on a fixed pool
+ * otherwise.
+ *
+ * @author Ben Elleman
+ *
+ */
+public final class CloudServer {
+
+    /**
+     * Private constructor so this utility class cannot be instantiated.
+     */
+    private CloudServer() {
+    }
+
+    /**
+     * Default port.
+     */
+    static final int DEFAULT_PORT = 8080;
+
+    /**
+     * Cloud size used when a request gives none.
+     */
+    static final int DEFAULT_SIZE = 100;
+
+    /**
+     * Largest request body accepted, in bytes.
+     */
+    static final long MAX_UPLOAD = 64L << 20;
+
+    /**
+     * Number of recent latencies kept for the percentiles.
+     */
+    static final int LATENCY_WINDOW = 1 << 14;
+
+    /**
+     * Byte budget of the in-memory count cache.
+     */
+    static final long CACHE_BUDGET = 256L << 20;
+
+    /**
+     * Latencies of the most recent requests in nanoseconds, used as a ring.
+     */
+    private static final long[] LATENCIES = new long[LATENCY_WINDOW];
+
+    /**
+     * Number of requests served.
+     */
+    private static long served;
+
+    /**
+     * Directory that {@code path} requests are confined to, or null.
+     */
+    private static Path root;
+
+    /**
+     * Counts of the files served by {@code path} requests.
+     */
+    private static CountCache cache;
+
+    /**
+     * Main method.
+     *
+     * @param args
+     *            Optionally {@code --port N}, {@code --root DIR} and
+     *            {@code --cache DIR}
+     */
+    public static void main(String[] args) {
+        int port = DEFAULT_PORT;
+        Path cacheDir = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--port") && i + 1 < args.length) {
+                i++;
+                port = Integer.parseInt(args[i]);
+            } else if (args[i].equals("--root") && i + 1 < args.length) {
+                i++;
+                try {
+                    root = Paths.get(args[i]).toRealPath();
+                } catch (IOException e) {
+                    System.out.println("Not a valid root directory.");
+                    return;
+                }
+            } else if (args[i].equals("--cache") && i + 1 < args.length) {
+                i++;
+                cacheDir = Paths.get(args[i]);
+            }
+        }
+        try {
+            cache = new CountCache(CACHE_BUDGET, cacheDir);
+            HttpServer server = HttpServer.create(new InetSocketAddress(port),
+                    0);
+            server.createContext("/cloud", CloudServer::cloud);
+            server.createContext("/stats", CloudServer::stats);
+            server.setExecutor(executor());
+            server.start();
+            System.out.println("Serving tag clouds on port "
+                    + server.getAddress().getPort());
+        } catch (IOException e) {
+            System.out.println("Could not start the server.");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Returns an executor that starts a virtual thread per task if this JVM
+     * has them, or a fixed pool sized for blocking I/O if it does not.
+     *
+     * @return The executor for requests
+     */
+    static ExecutorService executor() {
+        try {
+            //Looked up reflectively so the server still builds for Java 11
+            return (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(
+                    4 * Runtime.getRuntime().availableProcessors());
+        }
+    }
+
+    /**
+     * Handles {@code /cloud}.
+     *
+     * @param exchange
+     *            The request and response
+     * @throws IOException
+     *             If the response cannot be sent
+     */
+    private static void cloud(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        try {
+            Map<String, String> query = query(exchange);
+            int cloudSize = DEFAULT_SIZE;
+            if (query.containsKey("size")) {
+                try {
+                    cloudSize = Integer.parseInt(query.get("size"));
+                } catch (NumberFormatException e) {
+                    cloudSize = -1;
+                }
+            }
+            if (cloudSize < 0) {
+                send(exchange, 400, "You must provide a valid number.");
+                return;
+            }
+            FontScale.Mode scale = FontScale.Mode.LINEAR;
+            CloudFormats.Format format = CloudFormats.Format.HTML;
+            try {
+                if (query.containsKey("scale")) {
+                    scale = FontScale.Mode.of(query.get("scale"));
+                }
+                if (query.containsKey("format")) {
+                    format = CloudFormats.Format.of(query.get("format"));
+                }
+            } catch (IllegalArgumentException e) {
+                send(exchange, 400, e.getMessage());
+                return;
+            }
+            String method = exchange.getRequestMethod();
+            if (method.equals("POST")) {
+                if (length(exchange) > MAX_UPLOAD) {
+                    send(exchange, 413, "Upload too large.");
+                    return;
+                }
+                //A chunked body declares no length, so count what is read
+                LimitedInputStream body = new LimitedInputStream(
+                        exchange.getRequestBody(), MAX_UPLOAD);
+                BufferedReader in = new BufferedReader(new InputStreamReader(
+                        body, StandardCharsets.UTF_8));
+                CloudPipeline.Cloud cloud;
+                try {
+                    cloud = CloudPipeline.build(new ReaderLineSource(in),
+                            cloudSize);
+                } catch (IOException e) {
+                    if (body.exceeded) {
+                        send(exchange, 413, "Upload too large.");
+                        return;
+                    }
+                    throw e;
+                }
+                sendCloud(exchange, "upload", cloudSize, cloud, scale,
+                        format);
+            } else if (method.equals("GET") && query.containsKey("path")) {
+                Path file = resolve(query.get("path"));
+                if (file == null) {
+                    send(exchange, 403, "Path not allowed.");
+                    return;
+                }
+                CloudPipeline.Cloud cloud = CloudPipeline.reduce(
+                        cache.counts(file, StandardCharsets.UTF_8), cloudSize);
+                sendCloud(exchange, root.relativize(file).toString(),
+                        cloudSize, cloud, scale, format);
+            } else {
+                send(exchange, 405, "POST text or GET with a path.");
+            }
+        } finally {
+            exchange.close();
+            record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Handles {@code /stats}.
+     *
+     * @param exchange
+     *            The request and response
+     * @throws IOException
+     *             If the response cannot be sent
+     */
+    private static void stats(HttpExchange exchange) throws IOException {
+        try {
+            long count;
+            long[] recent;
+            synchronized (LATENCIES) {
+                count = served;
+                recent = Arrays.copyOf(LATENCIES,
+                        (int) Math.min(count, LATENCY_WINDOW));
+            }
+            Arrays.sort(recent);
+            long[] hits = cache.stats();
+            send(exchange, 200,
+                    "requests " + count + "\ncache_memory_hits " + hits[0]
+                            + "\ncache_disk_hits " + hits[1]
+                            + "\ncache_misses " + hits[2] + "\np50_ms "
+                            + percentile(recent, 0.50) + "\np99_ms "
+                            + percentile(recent, 0.99) + "\nmax_ms "
+                            + percentile(recent, 1.0) + "\n");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Records the latency of one request.
+     *
+     * @param nanos
+     *            Time taken in nanoseconds
+     */
+    private static void record(long nanos) {
+        synchronized (LATENCIES) {
+            LATENCIES[(int) (served % LATENCY_WINDOW)] = nanos;
+            served++;
+        }
+    }
+
+    /**
+     * Returns the {@code p} percentile of {@code sorted} in milliseconds.
+     *
+     * @param sorted
+     *            Latencies in nanoseconds, in increasing order
+     * @param p
+     *            The percentile, from 0 to 1
+     * @return The percentile to three decimal places, or 0 if there are none
+     */
+    private static String percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return "0";
+        }
+        int i = (int) Math.ceil(p * sorted.length) - 1;
+        return String.format(Locale.ROOT, "%.3f",
+                sorted[Math.max(i, 0)] / 1_000_000.0);
+    }
+
+    /**
+     * Resolves {@code name} against the root, refusing anything outside it.
+     *
+     * @param name
+     *            The requested path
+     * @return The file, or null if it is not a readable file under the root
+     */
+    private static Path resolve(String name) {
+        if (root == null) {
+            return null;
+        }
+        try {
+            Path file = root.resolve(name).toRealPath();
+            if (!file.startsWith(root) || !Files.isRegularFile(file)) {
+                return null;
+            }
+            return file;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the declared length of the request body, so a body declared
+     * too large is refused before any of it is read.
+     *
+     * @param exchange
+     *            The request
+     * @return The Content-Length, 0 if there is none, or
+     *         {@code Long.MAX_VALUE} if it is not a number
+     */
+    private static long length(HttpExchange exchange) {
+        String length = exchange.getRequestHeaders()
+                .getFirst("Content-Length");
+        if (length == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(length.trim());
+        } catch (NumberFormatException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Parses the query string of {@code exchange}.
+     *
+     * @param exchange
+     *            The request
+     * @return The parameters and their values
+     */
+    private static Map<String, String> query(HttpExchange exchange) {
+        Map<String, String> query = new HashMap<>();
+        String raw = exchange.getRequestURI().getRawQuery();
+        if (raw != null) {
+            for (String pair : raw.split("&")) {
+                int eq = pair.indexOf('=');
+                if (eq > 0) {
+                    query.put(
+                            URLDecoder.decode(pair.substring(0, eq),
+                                    StandardCharsets.UTF_8),
+                            URLDecoder.decode(pair.substring(eq + 1),
+                                    StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return query;
+    }
+
+    /**
+     * Sends {@code cloud} in {@code format}.
+     *
+     * @param exchange
+     *            The request and response
+     * @param name
+     *            Name of the input, shown in the page
+     * @param cloudSize
+     *            The requested number of tags
+     * @param cloud
+     *            The cloud to send
+     * @param scale
+     *            How counts become font sizes
+     * @param format
+     *            The format to send
+     * @throws IOException
+     *             If the response cannot be sent
+     */
+    private static void sendCloud(HttpExchange exchange, String name,
+            int cloudSize, CloudPipeline.Cloud cloud, FontScale.Mode scale,
+            CloudFormats.Format format) throws IOException {
+        ByteArrayOutputStream html = new ByteArrayOutputStream();
+        PrintWriter output = new PrintWriter(
+                new OutputStreamWriter(html, StandardCharsets.UTF_8));
+        CloudPipeline.render(output, name, cloudSize, cloud, scale, format);
+        output.flush();
+        //Tags are uploaded text, so never let the page run scripts
+        exchange.getResponseHeaders().set("Content-Security-Policy",
+                "script-src 'none'; object-src 'none'");
+        exchange.getResponseHeaders().set("Content-Type", format.mediaType());
+        exchange.sendResponseHeaders(200, html.size());
+        try (OutputStream body = exchange.getResponseBody()) {
+            html.writeTo(body);
+        }
+    }
+
+    /**
+     * Sends a plain text response.
+     *
+     * @param exchange
+     *            The request and response
+     * @param status
+     *            The HTTP status
+     * @param text
+     *            The response body
+     * @throws IOException
+     *             If the response cannot be sent
+     */
+    private static void send(HttpExchange exchange, int status, String text)
+            throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type",
+                "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream body = exchange.getResponseBody()) {
+            body.write(bytes);
+        }
+    }
+
+    /**
+     * Stream that fails once more than a limit of bytes has been read from
+     * it.
+     */
+    private static final class LimitedInputStream extends FilterInputStream {
+
+        /**
+         * Bytes that may still be read.
+         */
+        private long left;
+
+        /**
+         * Whether a read failed because the limit was passed.
+         */
+        private boolean exceeded;
+
+        /**
+         * Creates a stream reading at most {@code limit} bytes of
+         * {@code in}.
+         *
+         * @param in
+         *            The stream to read
+         * @param limit
+         *            Most bytes that may be read
+         */
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.left = limit;
+        }
+
+        /**
+         * Fails if {@code in} has any bytes past the limit.
+         *
+         * @throws IOException
+         *             If it does, or if it cannot be read
+         */
+        private void checkEnd() throws IOException {
+            if (this.in.read() >= 0) {
+                this.exceeded = true;
+                throw new IOException("Upload too large.");
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (this.left == 0) {
+                this.checkEnd();
+                return -1;
+            }
+            int b = this.in.read();
+            if (b >= 0) {
+                this.left--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (this.left == 0) {
+                this.checkEnd();
+                return -1;
+            }
+            int n = this.in.read(b, off, (int) Math.min(len, this.left));
+            if (n > 0) {
+                this.left -= n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = this.in.skip(Math.min(n, this.left));
+            this.left -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(this.in.available(), this.left);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
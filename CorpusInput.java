@@ -0,0 +1,298 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Opens the input of a run, which may be one file, a glob matching many files
+ * read as one corpus, and files compressed with gzip or, if a pure-Java codec
+ * is on the class path, Zstandard. Compression is detected from the first
+ * bytes of each file, not its name. Files that hold several gzip members one
+ * after another, as written by {@code cat a.gz b.gz} or parallel compressors,
+ * are read to the end.
+ * <p>
+ * Files are joined with a line break between them, so the last line of one
+ * file never runs into the first line of the next, and the joined bytes are
+ * decompressed on a separate thread through a {@link PrefetchInputStream},
+ * which overlaps decompression with tokenizing.
+ *
+ * @author Ben Elleman
+ *
+ */
+public final class CorpusInput {
+
+    /**
+     * Private constructor so this utility class cannot be instantiated.
+     */
+    private CorpusInput() {
+    }
+
+    /**
+     * First two bytes of a gzip member.
+     */
+    private static final int GZIP_MAGIC = 0x1F8B;
+
+    /**
+     * First four bytes of a Zstandard frame, as read big-endian.
+     */
+    private static final int ZSTD_MAGIC = 0x28B52FFD;
+
+    /**
+     * Pure-Java Zstandard decoder looked up at run time.
+     */
+    private static final String ZSTD_CODEC =
+            "io.airlift.compress.zstd.ZstdInputStream";
+
+    /**
+     * Size of the decompression buffers.
+     */
+    private static final int BUFFER = 1 << 16;
+
+    /**
+     * Returns the files {@code name} stands for: the files matching it, in
+     * order, if it has any of the glob characters {@code * ? [ {}, or else
+     * the file itself.
+     *
+     * @param name
+     *            A file name or glob
+     * @return The files
+     * @throws IOException
+     *             If a glob matches no file or its directory cannot be read
+     */
+    public static List<Path> expand(String name) throws IOException {
+        int glob = firstGlobChar(name);
+        if (glob < 0) {
+            return Collections.singletonList(Paths.get(name));
+        }
+        //Walk from the last directory before the first glob character
+        int slash = Math.max(name.lastIndexOf('/', glob),
+                name.lastIndexOf(File.separatorChar, glob));
+        Path root = Paths.get(slash < 0 ? "." : name.substring(0, slash + 1));
+        String pattern = slash < 0 ? name : name.substring(slash + 1);
+        PathMatcher matcher = FileSystems.getDefault()
+                .getPathMatcher("glob:" + pattern);
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(root)) {
+            Iterator<Path> it = walk.iterator();
+            while (it.hasNext()) {
+                Path file = it.next();
+                if (Files.isRegularFile(file)
+                        && matcher.matches(root.relativize(file))) {
+                    files.add(file);
+                }
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (files.isEmpty()) {
+            throw new IOException("No files match " + name);
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    /**
+     * Returns the index of the first glob character in {@code name}.
+     *
+     * @param name
+     *            A file name or glob
+     * @return The index, or -1 if there is none
+     */
+    private static int firstGlobChar(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == '*' || c == '?' || c == '[' || c == '{') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reports whether {@code files} is a single uncompressed file, which can
+     * be memory mapped, split by byte ranges or counted incrementally.
+     *
+     * @param files
+     *            The input files
+     * @return true if the input is one plain file
+     * @throws IOException
+     *             If the file cannot be read
+     */
+    public static boolean isPlain(List<Path> files) throws IOException {
+        if (files.size() != 1) {
+            return false;
+        }
+        try (InputStream in = new BufferedInputStream(
+                Files.newInputStream(files.get(0)))) {
+            int magic = magic(in);
+            return magic >>> 16 != GZIP_MAGIC && magic != ZSTD_MAGIC;
+        }
+    }
+
+    /**
+     * Opens {@code files} as one stream of uncompressed bytes, read ahead on
+     * a separate thread.
+     *
+     * @param files
+     *            The input files
+     * @return The joined contents
+     * @throws IOException
+     *             If the first file cannot be opened
+     */
+    public static InputStream open(List<Path> files) throws IOException {
+        InputStream first = open(files.get(0));
+        return new PrefetchInputStream(new SequenceInputStream(first,
+                new SequenceInputStream(new Parts(files))), BUFFER);
+    }
+
+    /**
+     * The files after the first, each opened when it is reached and preceded
+     * by a line break. A file that cannot be opened is reported as an
+     * {@code UncheckedIOException}.
+     */
+    private static final class Parts implements Enumeration<InputStream> {
+
+        /**
+         * All the input files.
+         */
+        private final List<Path> files;
+
+        /**
+         * Index of the next file to open.
+         */
+        private int next = 1;
+
+        /**
+         * Whether a line break comes before the next file.
+         */
+        private boolean separator = true;
+
+        /**
+         * Creates the parts after the first of {@code files}.
+         *
+         * @param files
+         *            The input files
+         */
+        Parts(List<Path> files) {
+            this.files = files;
+        }
+
+        @Override
+        public boolean hasMoreElements() {
+            return this.next < this.files.size();
+        }
+
+        @Override
+        public InputStream nextElement() {
+            if (this.separator) {
+                this.separator = false;
+                return new ByteArrayInputStream(new byte[] { '\n' });
+            }
+            this.separator = true;
+            try {
+                return open(this.files.get(this.next++));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Opens one file, decompressing it if it starts with a gzip or Zstandard
+     * header.
+     *
+     * @param file
+     *            The file
+     * @return The uncompressed contents
+     * @throws IOException
+     *             If the file cannot be opened, or is Zstandard and no codec
+     *             is available
+     */
+    static InputStream open(Path file) throws IOException {
+        InputStream in = new BufferedInputStream(Files.newInputStream(file),
+                BUFFER);
+        try {
+            int magic = magic(in);
+            if (magic >>> 16 == GZIP_MAGIC) {
+                return new GZIPInputStream(in, BUFFER);
+            }
+            if (magic == ZSTD_MAGIC) {
+                return zstd(in, file);
+            }
+            return in;
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Peeks at the first four bytes of {@code in} as a big-endian number,
+     * leaving the stream where it was. No compressed file is shorter.
+     *
+     * @param in
+     *            A stream that supports {@code mark}
+     * @return The number, or -1 if the stream is shorter
+     * @throws IOException
+     *             If the stream cannot be read
+     */
+    private static int magic(InputStream in) throws IOException {
+        in.mark(4);
+        int value = 0;
+        try {
+            for (int i = 0; i < 4; i++) {
+                int b = in.read();
+                if (b < 0) {
+                    return -1;
+                }
+                value = value << 8 | b;
+            }
+        } finally {
+            in.reset();
+        }
+        return value;
+    }
+
+    /**
+     * Wraps {@code in} in the pure-Java Zstandard decoder, if it is on the
+     * class path.
+     *
+     * @param in
+     *            The compressed stream
+     * @param file
+     *            The file it was opened from, for the error message
+     * @return The uncompressed stream
+     * @throws IOException
+     *             If no codec is available or it cannot be created
+     */
+    private static InputStream zstd(InputStream in, Path file)
+            throws IOException {
+        try {
+            return (InputStream) Class.forName(ZSTD_CODEC)
+                    .getConstructor(InputStream.class).newInstance(in);
+        } catch (ClassNotFoundException e) {
+            throw new IOException(file + " is Zstandard compressed, but "
+                    + ZSTD_CODEC + " is not on the class path", e);
+        } catch (InvocationTargetException e) {
+            throw new IOException("Cannot read " + file, e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new IOException("Cannot read " + file, e);
+        }
+    }
+}
@@ -0,0 +1,342 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Cache of complete word-count tables keyed by a SHA-256 hash of the file
+ * content, the tokenizer settings and the default locale, which lowercasing
+ * and word boundaries depend on, so a document seen before is answered
+ * with only the top-K step whatever the cloud size. Tables are kept in an LRU
+ * memory tier limited to a byte budget and, optionally, in a directory that
+ * survives restarts. A table is cached only once its file has been counted
+ * to the end, under the hash of the bytes it was counted from; a file that
+ * cannot be read is reported and never cached.
+ *
+ * @author Ben Elleman
+ *
+ */
+public final class CountCache {
+
+    /**
+     * Size of the buffer used to hash files.
+     */
+    private static final int HASH_BUFFER = 1 << 16;
+
+    /**
+     * Estimated bytes of one table entry beside its characters: the
+     * {@code String}, its array, the map node and the {@code Integer}.
+     */
+    private static final long ENTRY_OVERHEAD = 96;
+
+    /**
+     * Version of the way tables are counted, part of every key so tables
+     * counted differently before are never served.
+     */
+    private static final String VERSION = "2";
+
+    /**
+     * Tables in least recently used order.
+     */
+    private final LinkedHashMap<String, Map<String, Integer>> memory;
+
+    /**
+     * Estimated bytes of the tables in {@code memory}.
+     */
+    private final Map<String, Long> sizes;
+
+    /**
+     * Most bytes the memory tier may hold.
+     */
+    private final long budget;
+
+    /**
+     * Directory of the disk tier, or null for none.
+     */
+    private final Path directory;
+
+    /**
+     * Estimated bytes in the memory tier.
+     */
+    private long used;
+
+    /**
+     * Number of lookups answered from memory.
+     */
+    private long memoryHits;
+
+    /**
+     * Number of lookups answered from disk.
+     */
+    private long diskHits;
+
+    /**
+     * Number of lookups answered by counting the file.
+     */
+    private long misses;
+
+    /**
+     * Creates a cache.
+     *
+     * @param budget
+     *            Most bytes the memory tier may hold
+     * @param directory
+     *            Directory of the disk tier, or null for memory only
+     * @throws IOException
+     *             If {@code directory} cannot be created
+     */
+    public CountCache(long budget, Path directory) throws IOException {
+        this.memory = new LinkedHashMap<>(16, 0.75f, true);
+        this.sizes = new HashMap<>();
+        this.budget = budget;
+        this.directory = directory;
+        if (directory != null) {
+            Files.createDirectories(directory);
+        }
+    }
+
+    /**
+     * Returns the count of every tag of {@code file}, from the cache if its
+     * content has been counted before.
+     *
+     * @param file
+     *            The file to count
+     * @param charset
+     *            Encoding of the file
+     * @return An unmodifiable map of every tag and its count
+     * @throws IOException
+     *             If the file cannot be read
+     */
+    public Map<String, Integer> counts(Path file, Charset charset)
+            throws IOException {
+        return this.counts(file, charset, new Tokenizer());
+    }
+
+    /**
+     * Returns the count of every tag of {@code file} as split by
+     * {@code tokenizer}, from the cache if its content has been counted
+     * before with the same tokenizer.
+     *
+     * @param file
+     *            The file to count
+     * @param charset
+     *            Encoding of the file
+     * @param tokenizer
+     *            Splitter of lines into tags
+     * @return An unmodifiable map of every tag and its count
+     * @throws IOException
+     *             If the file cannot be read
+     */
+    public Map<String, Integer> counts(Path file, Charset charset,
+            Tokenizer tokenizer) throws IOException {
+        String key = key(file, charset, tokenizer);
+        Map<String, Integer> counts = this.fromMemory(key);
+        if (counts != null) {
+            return counts;
+        }
+        counts = this.fromDisk(key);
+        if (counts == null) {
+            //Hashed as it is counted, in case it changed since it was keyed
+            MessageDigest digest = header(charset, tokenizer);
+            //Malformed input is replaced, as when TCS2 counts uncached
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                    new DigestInputStream(Files.newInputStream(file), digest),
+                    charset))) {
+                counts = Collections.unmodifiableMap(TCS2.mapGenerator(
+                        new ReaderLineSource(in), tokenizer, null, null));
+            }
+            key = hex(digest.digest());
+            this.toDisk(key, counts);
+            synchronized (this) {
+                this.misses++;
+            }
+        }
+        this.toMemory(key, counts);
+        return counts;
+    }
+
+    /**
+     * Returns the number of lookups answered from memory, from disk, and by
+     * counting, in that order.
+     *
+     * @return The hit and miss counts
+     */
+    public synchronized long[] stats() {
+        return new long[] { this.memoryHits, this.diskHits, this.misses };
+    }
+
+    /**
+     * Returns the cache key of {@code file}: a hash of the counting version,
+     * the tokenizer settings, the default locale, the encoding and the
+     * content.
+     *
+     * @param file
+     *            The file to hash
+     * @param charset
+     *            Encoding of the file
+     * @param tokenizer
+     *            Splitter of lines into tags
+     * @return The key as hexadecimal
+     * @throws IOException
+     *             If the file cannot be read
+     */
+    static String key(Path file, Charset charset, Tokenizer tokenizer)
+            throws IOException {
+        MessageDigest digest = header(charset, tokenizer);
+        byte[] buffer = new byte[HASH_BUFFER];
+        try (InputStream in = Files.newInputStream(file)) {
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        return hex(digest.digest());
+    }
+
+    /**
+     * Starts the hash of a key with everything but the content.
+     *
+     * @param charset
+     *            Encoding of the file
+     * @param tokenizer
+     *            Splitter of lines into tags
+     * @return A digest ready for the content
+     */
+    private static MessageDigest header(Charset charset,
+            Tokenizer tokenizer) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        //Tags are split by the tokenizer and lowercased in the locale
+        digest.update((VERSION + "\0lower\0" + tokenizer.spec() + "\0"
+                + Locale.getDefault().toLanguageTag() + "\0" + charset.name()
+                + "\0").getBytes(StandardCharsets.UTF_8));
+        return digest;
+    }
+
+    /**
+     * Writes a hash as hexadecimal.
+     *
+     * @param hash
+     *            The hash
+     * @return The hash as hexadecimal
+     */
+    private static String hex(byte[] hash) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : hash) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+            hex.append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Looks {@code key} up in the memory tier.
+     *
+     * @param key
+     *            The cache key
+     * @return The table, or null if it is not in memory
+     */
+    private synchronized Map<String, Integer> fromMemory(String key) {
+        Map<String, Integer> counts = this.memory.get(key);
+        if (counts != null) {
+            this.memoryHits++;
+        }
+        return counts;
+    }
+
+    /**
+     * Adds a table to the memory tier, evicting the least recently used
+     * tables to stay within the budget. A table larger than the whole budget
+     * is not kept.
+     *
+     * @param key
+     *            The cache key
+     * @param counts
+     *            The table
+     */
+    private synchronized void toMemory(String key,
+            Map<String, Integer> counts) {
+        long size = 0;
+        for (String tag : counts.keySet()) {
+            size += ENTRY_OVERHEAD + 2L * tag.length();
+        }
+        if (size > this.budget || this.memory.containsKey(key)) {
+            return;
+        }
+        Iterator<Entry<String, Map<String, Integer>>> eldest = this.memory
+                .entrySet().iterator();
+        while (this.used + size > this.budget && eldest.hasNext()) {
+            String evicted = eldest.next().getKey();
+            eldest.remove();
+            this.used -= this.sizes.remove(evicted);
+        }
+        this.memory.put(key, counts);
+        this.sizes.put(key, size);
+        this.used += size;
+    }
+
+    /**
+     * Reads a table from the disk tier. A missing or unreadable file is a
+     * miss.
+     *
+     * @param key
+     *            The cache key
+     * @return The table, or null if it is not on disk
+     */
+    private Map<String, Integer> fromDisk(String key) {
+        if (this.directory == null) {
+            return null;
+        }
+        Path file = this.directory.resolve(key + ".counts");
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try {
+            Map<String, Integer> counts = CountTable.open(file).toMap();
+            synchronized (this) {
+                this.diskHits++;
+            }
+            return Collections.unmodifiableMap(counts);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes a table to the disk tier as a {@link CountTable}. Failures only
+     * lose the cache entry.
+     *
+     * @param key
+     *            The cache key
+     * @param counts
+     *            The table
+     */
+    private void toDisk(String key, Map<String, Integer> counts) {
+        if (this.directory == null) {
+            return;
+        }
+        Path file = this.directory.resolve(key + ".counts");
+        try {
+            CountTable.write(counts, file);
+        } catch (IOException e) {
+            System.out.println("Could not write cache entry " + file);
+        }
+    }
+}
@@ -0,0 +1,679 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+
+/**
+ * A word-count table saved in a compact binary file and read back through a
+ * read-only memory mapping, so a cloud can be rendered again without the
+ * source text.
+ * <p>
+ * The file is a fixed header, the data, and a block index. The header holds
+ * the corpus statistics: the number of distinct tags, the total number of
+ * tags and the smallest and largest count. The data lists the tags in
+ * {@code String} order in blocks of {@link #BLOCK_SIZE}. The first tag of a
+ * block is stored whole and every other tag as the number of UTF-8 bytes it
+ * shares with the tag before it plus the remaining bytes; lengths and counts
+ * are unsigned LEB128 varints. The index holds the offset of every block, so
+ * single tags are found by binary search.
+ *
+ * @author Ben Elleman
+ *
+ */
+public final class CountTable implements Iterable<Entry<String, Integer>> {
+
+    /**
+     * Identifies a count table file.
+     */
+    static final int MAGIC = 0x57435431;
+
+    /**
+     * Version of the format written.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * Number of tags in a front-coded block.
+     */
+    static final int BLOCK_SIZE = 16;
+
+    /**
+     * Size of the header in bytes.
+     */
+    static final int HEADER = 40;
+
+    /**
+     * The mapped file.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * Number of distinct tags.
+     */
+    private final int size;
+
+    /**
+     * Total number of tags counted.
+     */
+    private final long total;
+
+    /**
+     * Smallest count, or 0 if the table is empty.
+     */
+    private final int minCount;
+
+    /**
+     * Largest count, or 0 if the table is empty.
+     */
+    private final int maxCount;
+
+    /**
+     * Offset of the block index.
+     */
+    private final int index;
+
+    /**
+     * Wraps a mapped table file.
+     *
+     * @param buffer
+     *            The file
+     * @throws IOException
+     *             If the buffer does not hold a count table
+     */
+    private CountTable(ByteBuffer buffer) throws IOException {
+        if (buffer.capacity() < HEADER || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a count table");
+        }
+        if (buffer.getInt(4) != VERSION || buffer.getInt(12) != BLOCK_SIZE) {
+            throw new IOException("Unsupported count table version");
+        }
+        this.buffer = buffer;
+        this.size = buffer.getInt(8);
+        this.total = buffer.getLong(16);
+        this.minCount = buffer.getInt(24);
+        this.maxCount = buffer.getInt(28);
+        long index = buffer.getLong(32);
+        int blocks = (this.size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        if (this.size < 0 || index < HEADER
+                || index + 4L * blocks > buffer.capacity()) {
+            throw new IOException("Truncated count table");
+        }
+        this.index = (int) index;
+    }
+
+    /**
+     * Maps the count table in {@code file}.
+     *
+     * @param file
+     *            The file to read
+     * @return The table
+     * @throws IOException
+     *             If the file cannot be mapped or is not a count table
+     */
+    public static CountTable open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Count table too large to map");
+            }
+            //The mapping stays valid after the channel is closed
+            return new CountTable(channel
+                    .map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Saves {@code counts} as a count table in {@code file}.
+     *
+     * @param counts
+     *            A map of tags and counts
+     * @param file
+     *            The file to write
+     * @throws IOException
+     *             If the file cannot be written
+     */
+    public static void write(Map<String, Integer> counts, Path file)
+            throws IOException {
+        String[] tags = counts.keySet().toArray(new String[0]);
+        Arrays.sort(tags);
+        try (Writer out = new Writer(file)) {
+            for (String tag : tags) {
+                out.add(tag, counts.get(tag));
+            }
+        }
+    }
+
+    /**
+     * Returns the number of distinct tags.
+     *
+     * @return The number of tags in the table
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Returns the total number of tags counted.
+     *
+     * @return The sum of the counts
+     */
+    public long total() {
+        return this.total;
+    }
+
+    /**
+     * Returns the smallest count, or 0 if the table is empty.
+     *
+     * @return The smallest count
+     */
+    public int minCount() {
+        return this.minCount;
+    }
+
+    /**
+     * Returns the largest count, or 0 if the table is empty.
+     *
+     * @return The largest count
+     */
+    public int maxCount() {
+        return this.maxCount;
+    }
+
+    /**
+     * Returns the count of {@code tag}.
+     *
+     * @param tag
+     *            The tag to look up
+     * @return How many times {@code tag} was counted, or 0
+     */
+    public int count(String tag) {
+        //Last block whose first tag is not after tag
+        int lo = 0;
+        int hi = (this.size + BLOCK_SIZE - 1) / BLOCK_SIZE - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            Cursor c = this.cursor(mid);
+            c.next();
+            if (c.tag().compareTo(tag) <= 0) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        if (hi < 0) {
+            return 0;
+        }
+        Cursor c = this.cursor(lo);
+        for (int i = 0; i < BLOCK_SIZE && c.next(); i++) {
+            int x = c.tag().compareTo(tag);
+            if (x == 0) {
+                return c.count();
+            } else if (x > 0) {
+                break;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns a cursor over the tags in {@code String} order.
+     *
+     * @return A cursor before the first tag
+     */
+    public Cursor cursor() {
+        return this.cursor(0);
+    }
+
+    /**
+     * Returns a cursor before the first tag of {@code block}.
+     *
+     * @param block
+     *            Index of the block
+     * @return The cursor
+     */
+    private Cursor cursor(int block) {
+        int offset = HEADER;
+        if (block > 0) {
+            offset = this.buffer.getInt(this.index + 4 * block);
+        }
+        return new Cursor(this.buffer.duplicate(), offset,
+                this.size - block * BLOCK_SIZE);
+    }
+
+    /**
+     * Copies the table into a map.
+     *
+     * @return A map of every tag and its count
+     */
+    public Map<String, Integer> toMap() {
+        Map<String, Integer> counts = new HashMap<>(
+                Math.max(16, (int) (this.size / 0.75f) + 1));
+        Cursor c = this.cursor();
+        while (c.next()) {
+            counts.put(c.tag(), c.count());
+        }
+        return counts;
+    }
+
+    /**
+     * Returns the tags of the table that {@code filter} accepts, in order,
+     * so that rejected tags are dropped as they leave the mapping.
+     *
+     * @param filter
+     *            The filter of the tags
+     * @return The accepted tags and their counts
+     */
+    public Iterable<Entry<String, Integer>> accepted(TagFilter filter) {
+        return () -> this.iterator(filter);
+    }
+
+    @Override
+    public Iterator<Entry<String, Integer>> iterator() {
+        return this.iterator(null);
+    }
+
+    /**
+     * Iterates over the tags of the table that {@code filter} accepts.
+     *
+     * @param filter
+     *            The filter of the tags, or null to keep every tag
+     * @return An iterator over the accepted tags and their counts
+     */
+    private Iterator<Entry<String, Integer>> iterator(TagFilter filter) {
+        Cursor c = this.cursor();
+        return new Iterator<Entry<String, Integer>>() {
+            private String tag;
+
+            private boolean ready = this.advance();
+
+            /**
+             * Moves the cursor to the next accepted tag.
+             *
+             * @return Whether there is one
+             */
+            private boolean advance() {
+                while (c.next()) {
+                    this.tag = c.tag();
+                    if (filter == null || filter.accepts(this.tag)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return this.ready;
+            }
+
+            @Override
+            public Entry<String, Integer> next() {
+                if (!this.ready) {
+                    throw new NoSuchElementException();
+                }
+                Entry<String, Integer> e = new SimpleImmutableEntry<>(
+                        this.tag, c.count());
+                this.ready = this.advance();
+                return e;
+            }
+        };
+    }
+
+    /**
+     * Reads the tags of a table in order.
+     */
+    public static final class Cursor {
+
+        /**
+         * The mapped file, positioned at the next tag.
+         */
+        private final ByteBuffer in;
+
+        /**
+         * Number of tags left to read.
+         */
+        private int remaining;
+
+        /**
+         * Index of the current tag within its block.
+         */
+        private int inBlock;
+
+        /**
+         * UTF-8 bytes of the current tag.
+         */
+        private byte[] bytes;
+
+        /**
+         * Number of bytes in {@code bytes}.
+         */
+        private int length;
+
+        /**
+         * Count of the current tag.
+         */
+        private int count;
+
+        /**
+         * Creates a cursor.
+         *
+         * @param in
+         *            The mapped file
+         * @param offset
+         *            Start of a block
+         * @param remaining
+         *            Number of tags from that block to the end
+         */
+        Cursor(ByteBuffer in, int offset, int remaining) {
+            this.in = in;
+            this.in.position(offset);
+            this.remaining = remaining;
+            this.inBlock = -1;
+            this.bytes = new byte[32];
+        }
+
+        /**
+         * Moves to the next tag.
+         *
+         * @return false if there are no more tags
+         */
+        public boolean next() {
+            if (this.remaining <= 0) {
+                return false;
+            }
+            this.remaining--;
+            this.inBlock = (this.inBlock + 1) % BLOCK_SIZE;
+            int shared = 0;
+            if (this.inBlock > 0) {
+                shared = readVarint(this.in);
+            }
+            int suffix = readVarint(this.in);
+            if (shared + suffix > this.bytes.length) {
+                this.bytes = Arrays.copyOf(this.bytes,
+                        Math.max(shared + suffix, 2 * this.bytes.length));
+            }
+            this.in.get(this.bytes, shared, suffix);
+            this.length = shared + suffix;
+            this.count = readVarint(this.in);
+            return true;
+        }
+
+        /**
+         * Returns the current tag.
+         *
+         * @return The tag
+         */
+        public String tag() {
+            return new String(this.bytes, 0, this.length,
+                    StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Returns the count of the current tag.
+         *
+         * @return The count
+         */
+        public int count() {
+            return this.count;
+        }
+    }
+
+    /**
+     * Writes a count table from tags given in increasing {@code String}
+     * order. The file is written under a temporary name and moved into place
+     * when the writer is closed, so readers never see half a table.
+     */
+    public static final class Writer implements Closeable {
+
+        /**
+         * The final file.
+         */
+        private final Path file;
+
+        /**
+         * The file being written.
+         */
+        private final Path temp;
+
+        /**
+         * Channel of {@code temp}, used to write the header last.
+         */
+        private final FileChannel channel;
+
+        /**
+         * Buffered stream over {@code channel}.
+         */
+        private final OutputStream out;
+
+        /**
+         * Offset of every block.
+         */
+        private final List<Integer> blocks;
+
+        /**
+         * Bytes written after the header.
+         */
+        private long written;
+
+        /**
+         * The last tag added.
+         */
+        private String last;
+
+        /**
+         * UTF-8 bytes of the last tag added.
+         */
+        private byte[] lastBytes;
+
+        /**
+         * Number of tags added.
+         */
+        private int size;
+
+        /**
+         * Sum of the counts added.
+         */
+        private long total;
+
+        /**
+         * Smallest count added.
+         */
+        private int minCount;
+
+        /**
+         * Largest count added.
+         */
+        private int maxCount;
+
+        /**
+         * Whether the table has been finished.
+         */
+        private boolean closed;
+
+        /**
+         * Whether an {@code add} failed or the table was discarded.
+         */
+        private boolean failed;
+
+        /**
+         * Starts a count table in {@code file}.
+         *
+         * @param file
+         *            The file to write
+         * @throws IOException
+         *             If the file cannot be created
+         */
+        public Writer(Path file) throws IOException {
+            this.file = file;
+            Path dir = file.toAbsolutePath().getParent();
+            this.temp = Files.createTempFile(dir,
+                    file.getFileName().toString(), ".tmp");
+            this.channel = FileChannel.open(this.temp,
+                    StandardOpenOption.WRITE);
+            this.channel.position(HEADER);
+            this.out = new BufferedOutputStream(
+                    Channels.newOutputStream(this.channel), 1 << 16);
+            this.blocks = new ArrayList<>();
+            this.lastBytes = new byte[0];
+            this.minCount = Integer.MAX_VALUE;
+        }
+
+        /**
+         * Adds a tag.
+         *
+         * @param tag
+         *            The tag, after every tag added before
+         * @param count
+         *            Its count, which must be positive
+         * @throws IOException
+         *             If the file cannot be written
+         */
+        public void add(String tag, int count) throws IOException {
+            //Until this add succeeds, closing must not publish the table
+            this.failed = true;
+            if (this.last != null && this.last.compareTo(tag) >= 0) {
+                throw new IllegalArgumentException(
+                        "Tags out of order: " + tag);
+            }
+            if (count <= 0) {
+                throw new IllegalArgumentException("Count must be positive");
+            }
+            byte[] bytes = tag.getBytes(StandardCharsets.UTF_8);
+            int shared = 0;
+            if (this.size % BLOCK_SIZE == 0) {
+                this.blocks.add((int) (HEADER + this.written));
+            } else {
+                int max = Math.min(bytes.length, this.lastBytes.length);
+                while (shared < max
+                        && bytes[shared] == this.lastBytes[shared]) {
+                    shared++;
+                }
+                this.writeVarint(shared);
+            }
+            this.writeVarint(bytes.length - shared);
+            this.out.write(bytes, shared, bytes.length - shared);
+            this.written += bytes.length - shared;
+            this.writeVarint(count);
+            if (HEADER + this.written > Integer.MAX_VALUE) {
+                throw new IOException("Count table too large to map");
+            }
+            this.last = tag;
+            this.lastBytes = bytes;
+            this.size++;
+            this.total += count;
+            this.minCount = Math.min(this.minCount, count);
+            this.maxCount = Math.max(this.maxCount, count);
+            this.failed = false;
+        }
+
+        /**
+         * Abandons the table, so that closing the writer removes the file
+         * instead of moving it into place.
+         */
+        public void discard() {
+            this.failed = true;
+        }
+
+        /**
+         * Writes {@code value} as an unsigned LEB128 varint.
+         *
+         * @param value
+         *            A non-negative value
+         * @throws IOException
+         *             If the file cannot be written
+         */
+        private void writeVarint(int value) throws IOException {
+            while ((value & ~0x7F) != 0) {
+                this.out.write((value & 0x7F) | 0x80);
+                value >>>= 7;
+                this.written++;
+            }
+            this.out.write(value);
+            this.written++;
+        }
+
+        /**
+         * Writes the index and header and moves the table into place, or
+         * removes the file if an {@code add} failed or the table was
+         * discarded.
+         *
+         * @throws IOException
+         *             If the file cannot be written
+         */
+        @Override
+        public void close() throws IOException {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            boolean done = false;
+            try {
+                if (this.failed) {
+                    return;
+                }
+                long index = HEADER + this.written;
+                for (int offset : this.blocks) {
+                    for (int shift = 24; shift >= 0; shift -= 8) {
+                        this.out.write(offset >>> shift);
+                    }
+                }
+                this.out.flush();
+                ByteBuffer header = ByteBuffer.allocate(HEADER);
+                header.putInt(MAGIC).putInt(VERSION).putInt(this.size)
+                        .putInt(BLOCK_SIZE).putLong(this.total)
+                        .putInt(this.size == 0 ? 0 : this.minCount)
+                        .putInt(this.maxCount).putLong(index);
+                header.flip();
+                this.channel.position(0);
+                while (header.hasRemaining()) {
+                    this.channel.write(header);
+                }
+                this.channel.close();
+                Files.move(this.temp, this.file,
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                done = true;
+            } finally {
+                this.channel.close();
+                if (!done) {
+                    Files.deleteIfExists(this.temp);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads an unsigned LEB128 varint.
+     *
+     * @param in
+     *            The buffer to read from
+     * @return The value
+     */
+    private static int readVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0;; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+}
@@ -0,0 +1,339 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The number of documents of a corpus that hold each tag, used to rank the
+ * tags of one document by TF-IDF instead of by raw count, so that words
+ * common to every document stop crowding out the ones that set it apart.
+ * <p>
+ * The index is a {@link CountTable}, so it is stored front-coded and read
+ * through a memory mapping, and a lookup is a binary search that loads only
+ * the pages it touches. The empty tag, which no tokenizer produces, holds the
+ * number of documents. Because every part of an index keeps its own document
+ * count under that tag, indexes built on separate threads are combined by the
+ * k-way merge of {@link ShardCounter} like any other count tables.
+ *
+ * @author Ben Elleman
+ *
+ */
+public final class DocumentFrequencies {
+
+    /**
+     * Tag holding the number of documents.
+     */
+    static final String DOCUMENTS = "";
+
+    /**
+     * The mapped index.
+     */
+    private final CountTable table;
+
+    /**
+     * Number of documents in the corpus.
+     */
+    private final int documents;
+
+    /**
+     * Wraps a mapped index.
+     *
+     * @param table
+     *            The index
+     */
+    private DocumentFrequencies(CountTable table) {
+        this.table = table;
+        this.documents = table.count(DOCUMENTS);
+    }
+
+    /**
+     * Maps the index in {@code file}.
+     *
+     * @param file
+     *            The file to read
+     * @return The index
+     * @throws IOException
+     *             If the file cannot be mapped or is not a count table
+     */
+    public static DocumentFrequencies open(Path file) throws IOException {
+        return new DocumentFrequencies(CountTable.open(file));
+    }
+
+    /**
+     * Counts the documents of part of a corpus on one thread.
+     */
+    public static final class Builder {
+
+        /**
+         * Number of documents holding each tag.
+         */
+        private final WordCounter frequencies = new WordCounter();
+
+        /**
+         * Tags of the document being added.
+         */
+        private final WordCounter document = new WordCounter();
+
+        /**
+         * Lowercases the tags of the document being added.
+         */
+        private final Normalizer counter = new Normalizer(this.document);
+
+        /**
+         * Splitter of lines into tags.
+         */
+        private final Tokenizer tokenizer;
+
+        /**
+         * Number of documents added.
+         */
+        private int documents;
+
+        /**
+         * Creates an empty builder.
+         *
+         * @param tokenizer
+         *            Splitter of lines into tags
+         */
+        public Builder(Tokenizer tokenizer) {
+            this.tokenizer = tokenizer;
+        }
+
+        /**
+         * Adds one document.
+         *
+         * @param lines
+         *            The lines of the document
+         * @throws IOException
+         *             If the document cannot be read
+         */
+        public void add(LineSource lines) throws IOException {
+            CharSequence line = lines.nextLine();
+            while (line != null) {
+                this.tokenizer.tokenize(line, this.counter);
+                line = lines.nextLine();
+            }
+            this.frequencies.addKeys(this.document);
+            this.document.clear();
+            this.documents++;
+        }
+
+        /**
+         * Reports the number of documents added.
+         *
+         * @return The number of documents
+         */
+        public int documents() {
+            return this.documents;
+        }
+    }
+
+    /**
+     * Saves the documents counted by {@code parts} as one index. The
+     * builders cannot be written again.
+     *
+     * @param parts
+     *            Builders of parts of the corpus
+     * @param file
+     *            The file to write
+     * @throws IOException
+     *             If the index cannot be written
+     */
+    public static void write(List<Builder> parts, Path file)
+            throws IOException {
+        Path dir = file.toAbsolutePath().getParent();
+        List<Path> runs = new ArrayList<>();
+        try {
+            for (Builder part : parts) {
+                if (part.documents == 0) {
+                    continue;
+                }
+                part.frequencies.add(DOCUMENTS, 0, 0, part.documents);
+                Path run = Files.createTempFile(dir,
+                        file.getFileName().toString(), ".run");
+                runs.add(run);
+                SpillingCounter.spill(part.frequencies, run);
+            }
+            List<CountTable> tables = new ArrayList<>();
+            for (Path run : runs) {
+                tables.add(CountTable.open(run));
+            }
+            ShardCounter.merge(tables, file);
+        } finally {
+            for (Path run : runs) {
+                Files.deleteIfExists(run);
+            }
+        }
+    }
+
+    /**
+     * Builds the index of {@code files}, one document per file, on
+     * {@code workers} threads and saves it in {@code file}.
+     *
+     * @param files
+     *            The documents
+     * @param charset
+     *            The charset of the documents
+     * @param tokenizer
+     *            Splitter of lines into tags
+     * @param workers
+     *            Number of threads
+     * @param file
+     *            The file to write
+     * @return The index
+     * @throws IOException
+     *             If a document cannot be read or the index cannot be
+     *             written
+     */
+    public static DocumentFrequencies build(List<Path> files,
+            Charset charset, Tokenizer tokenizer, int workers, Path file)
+            throws IOException {
+        List<Builder> parts = new ArrayList<>();
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<?>> pending = new ArrayList<>();
+            for (int w = 0; w < workers; w++) {
+                Builder part = new Builder(tokenizer);
+                parts.add(part);
+                pending.add(pool.submit(() -> {
+                    for (int i = next.getAndIncrement(); i < files.size();
+                            i = next.getAndIncrement()) {
+                        try (BufferedReader in = new BufferedReader(
+                                new InputStreamReader(
+                                        Files.newInputStream(files.get(i)),
+                                        charset))) {
+                            part.add(new ReaderLineSource(in));
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> f : pending) {
+                try {
+                    f.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof UncheckedIOException) {
+                        throw ((UncheckedIOException) e.getCause()).getCause();
+                    }
+                    throw new IllegalStateException(e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted", e);
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        write(parts, file);
+        return open(file);
+    }
+
+    /**
+     * Reports the number of documents in the corpus.
+     *
+     * @return The number of documents
+     */
+    public int documents() {
+        return this.documents;
+    }
+
+    /**
+     * Reports the number of documents holding {@code tag}.
+     *
+     * @param tag
+     *            A lowercased tag
+     * @return The number of documents, or 0
+     */
+    public int frequency(String tag) {
+        return this.table.count(tag);
+    }
+
+    /**
+     * Returns the inverse document frequency of {@code tag}, smoothed as if
+     * one more document held every tag, so a tag the corpus never saw gets
+     * the largest weight and one in every document still counts a little.
+     *
+     * @param tag
+     *            A lowercased tag
+     * @return The weight of the tag
+     */
+    public double idf(String tag) {
+        return Math.log((1.0 + this.documents) / (1.0 + this.frequency(tag)))
+                + 1;
+    }
+
+    /**
+     * A tag of a document and its TF-IDF score.
+     */
+    private static final class Scored {
+
+        /**
+         * The tag and its count in the document.
+         */
+        private final Entry<String, Integer> tag;
+
+        /**
+         * The count times the tag's inverse document frequency.
+         */
+        private final double score;
+
+        /**
+         * Scores a tag.
+         *
+         * @param tag
+         *            The tag and its count
+         * @param score
+         *            Its TF-IDF score
+         */
+        Scored(Entry<String, Integer> tag, double score) {
+            this.tag = tag;
+            this.score = score;
+        }
+    }
+
+    /**
+     * Finds the {@code cloudSize} tags of a document with the highest TF-IDF
+     * scores, ties broken alphabetically, without modifying the counts. Once
+     * {@code cloudSize} tags are kept, a tag whose count could not beat the
+     * worst of them even with the largest weight is not looked up.
+     *
+     * @param counts
+     *            Tags of the document and the amount of times they occur
+     * @param cloudSize
+     *            The amount of tags to return
+     * @return The best tags with their counts, best first
+     */
+    public List<Entry<String, Integer>> topTags(
+            Iterable<? extends Entry<String, Integer>> counts, int cloudSize) {
+        TopK<Scored> top = new TopK<>(cloudSize, (a, b) -> {
+            int x = Double.compare(b.score, a.score);
+            return x != 0 ? x : a.tag.getKey().compareTo(b.tag.getKey());
+        });
+        double maxIdf = Math.log(1.0 + this.documents) + 1;
+        for (Entry<String, Integer> e : counts) {
+            Scored worst = top.size() < cloudSize ? null : top.worst();
+            if (worst == null || e.getValue() * maxIdf >= worst.score) {
+                top.offer(new Scored(e, e.getValue() * this.idf(e.getKey())));
+            }
+        }
+        List<Entry<String, Integer>> best = new ArrayList<>();
+        for (Scored s : top.toList()) {
+            best.add(new SimpleImmutableEntry<>(s.tag));
+        }
+        return best;
+    }
+}
@@ -0,0 +1,203 @@
+import java.util.Locale;
+
+/**
+ * Maps the counts of one cloud to font sizes. A scale is built once per
+ * cloud from its smallest and largest counts, and remembers the font of each
+ * count it has seen in a table indexed by the count's distance from the
+ * smallest, so a cloud costs one evaluation of the scaling function per
+ * distinct count and one array load per tag, however many font sizes there
+ * are. Most tags of a cloud sit just above its smallest count; the rare
+ * counts beyond the table are computed each time.
+ *
+ * <p>
+ * Besides linear, logarithmic and square-root scaling, the formulas of the
+ * earlier programs are kept as modes, so their clouds can be reproduced.
+ *
+ * @author Ben Elleman
+ *
+ */
+public final class FontScale {
+
+    /**
+     * Minimum font size.
+     */
+    static final int FONT_MIN = 11;
+
+    /**
+     * Maximum font size.
+     */
+    static final int FONT_MAX = 48;
+
+    /**
+     * Smallest count of the fixed range of {@code FIXED}.
+     */
+    static final int FIXED_MIN_COUNT = 1;
+
+    /**
+     * Largest count of the fixed range of {@code FIXED}.
+     */
+    static final int FIXED_MAX_COUNT = 1000;
+
+    /**
+     * Font of {@code FIXED_MAX_COUNT} in {@code FIXED}.
+     */
+    static final int FIXED_FONT_MAX = 78;
+
+    /**
+     * Largest number of counts remembered.
+     */
+    private static final int TABLE_SIZE = 1024;
+
+    /**
+     * How counts become font sizes.
+     */
+    public enum Mode {
+
+        /**
+         * From {@code FONT_MIN} for the smallest count to {@code FONT_MAX}
+         * for the largest, in proportion to the count, as {@code TCS2} has
+         * always drawn.
+         */
+        LINEAR,
+
+        /**
+         * In proportion to the logarithm of the count's distance from the
+         * smallest, so a few very common tags do not shrink the rest to the
+         * smallest font.
+         */
+        LOG,
+
+        /**
+         * In proportion to the square root of the count's distance from the
+         * smallest, between {@code LINEAR} and {@code LOG}.
+         */
+        SQRT,
+
+        /**
+         * {@code TagCloud2}'s integer formula: from 0 to {@code FONT_MAX} in
+         * proportion to the count, except that the smallest count gets
+         * {@code FONT_MIN}.
+         */
+        TRUNCATED,
+
+        /**
+         * {@code TagCloud}'s formula: {@code TRUNCATED} over the fixed range
+         * of counts {@code FIXED_MIN_COUNT} to {@code FIXED_MAX_COUNT} and
+         * up to {@code FIXED_FONT_MAX}, whatever the counts of the cloud.
+         */
+        FIXED;
+
+        /**
+         * Returns the mode named {@code name}, ignoring case.
+         *
+         * @param name
+         *            The name of a mode
+         * @return The mode
+         * @throws IllegalArgumentException
+         *             If no mode has that name
+         */
+        public static Mode of(String name) {
+            try {
+                return valueOf(name.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown font scale: "
+                        + name + " (use linear, log, sqrt, truncated or "
+                        + "fixed)", e);
+            }
+        }
+    }
+
+    /**
+     * How counts become font sizes.
+     */
+    private final Mode mode;
+
+    /**
+     * Smallest count in the cloud.
+     */
+    private final int minCount;
+
+    /**
+     * Distance from the smallest count to the largest, at least 1.
+     */
+    private final int range;
+
+    /**
+     * One more than the font of each count by its distance from
+     * {@code minCount}, or 0 if it has not been computed.
+     */
+    private final int[] fonts;
+
+    /**
+     * Creates the scale of a cloud.
+     *
+     * @param mode
+     *            How counts become font sizes
+     * @param minCount
+     *            The smallest count in the cloud
+     * @param maxCount
+     *            The largest count in the cloud
+     */
+    public FontScale(Mode mode, int minCount, int maxCount) {
+        this.mode = mode;
+        this.minCount = minCount;
+        this.range = Math.max(maxCount - minCount, 1);
+        this.fonts = new int[Math.min(this.range, TABLE_SIZE - 1) + 1];
+    }
+
+    /**
+     * Returns the font size of {@code count}.
+     *
+     * @param count
+     *            A count in the cloud
+     * @return The font size
+     */
+    public int font(int count) {
+        long offset = (long) count - this.minCount;
+        if (offset < 0 || offset >= this.fonts.length) {
+            return this.compute(count);
+        }
+        int font = this.fonts[(int) offset];
+        if (font == 0) {
+            font = this.compute(count) + 1;
+            this.fonts[(int) offset] = font;
+        }
+        return font - 1;
+    }
+
+    /**
+     * Computes the font size of {@code count}.
+     *
+     * @param count
+     *            A count in the cloud
+     * @return The font size
+     */
+    private int compute(int count) {
+        long offset = (long) count - this.minCount;
+        if (this.mode == Mode.FIXED) {
+            if (count <= FIXED_MIN_COUNT) {
+                return FONT_MIN;
+            }
+            return (int) ((long) FIXED_FONT_MAX * (count - FIXED_MIN_COUNT)
+                    / (FIXED_MAX_COUNT - FIXED_MIN_COUNT));
+        }
+        if (offset <= 0) {
+            return FONT_MIN;
+        }
+        double fraction;
+        switch (this.mode) {
+            case TRUNCATED:
+                return (int) (FONT_MAX * offset / this.range);
+            case LOG:
+                fraction = Math.log1p(offset) / Math.log1p(this.range);
+                break;
+            case SQRT:
+                fraction = Math.sqrt(offset) / Math.sqrt(this.range);
+                break;
+            default:
+                return FONT_MIN + (int) ((double) (FONT_MAX - FONT_MIN)
+                        * offset / this.range);
+        }
+        return FONT_MIN + (int) ((FONT_MAX - FONT_MIN) * fraction);
+    }
+}
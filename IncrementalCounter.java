@@ -0,0 +1,480 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.zip.CRC32;
+
+/**
+ * Counts a growing file by reading only the bytes appended since the last
+ * run. The counts of every complete line read so far are kept in a state
+ * directory as a {@link CountTable}, together with the offset after the last
+ * complete line. A trailing line with no line break yet is counted on every
+ * run but never saved, so a word split across the old end of the file is
+ * counted once, whole, when the rest of it arrives.
+ * <p>
+ * Each run counts the appended lines into a {@link WordCounter} and merges
+ * them with the saved table in one sequential pass, as
+ * {@link ShardCounter} merges its shards, so no run holds the whole
+ * vocabulary in memory. The most common tags are saved beside the table;
+ * counts only grow, so the next run re-ranks just those tags and the ones
+ * whose counts changed.
+ * <p>
+ * If the file has become shorter than the saved offset, or the bytes before
+ * that offset have changed, the file is taken to have been replaced and is
+ * counted again from the start, as it is if the tokenizer has changed. Like
+ * {@link ParallelCounter}, this needs a charset that encodes {@code '\n'} as
+ * a single byte no other character uses.
+ *
+ * @author Ben Elleman
+ *
+ */
+public final class IncrementalCounter {
+
+    /**
+     * Private constructor so this utility class cannot be instantiated.
+     */
+    private IncrementalCounter() {
+    }
+
+    /**
+     * Name of the state file in the state directory.
+     */
+    static final String STATE = "state.properties";
+
+    /**
+     * Number of bytes before the saved offset checked to detect a replaced
+     * file.
+     */
+    static final int FINGERPRINT = 4096;
+
+    /**
+     * Size of the buffer used to search for the last line break.
+     */
+    private static final int SCAN_BUFFER = 1 << 16;
+
+    /**
+     * Returns the count of every tag of {@code file}, reading only what was
+     * appended since the last call with the same {@code stateDir}, and saves
+     * the new state.
+     *
+     * @param file
+     *            The file to count
+     * @param charset
+     *            The charset of the file
+     * @param stateDir
+     *            Directory holding the state between runs
+     * @return A map of every tag of the file and its count
+     * @throws IOException
+     *             If the file or the state cannot be read or written
+     */
+    public static Map<String, Integer> count(Path file, Charset charset,
+            Path stateDir) throws IOException {
+        return count(file, charset, stateDir, new Tokenizer());
+    }
+
+    /**
+     * Returns the count of every tag of {@code file} as split by
+     * {@code tokenizer}, reading only what was appended since the last call
+     * with the same {@code stateDir} and tokenizer, and saves the new state.
+     * The map holds the whole vocabulary; {@link #top} does not.
+     *
+     * @param file
+     *            The file to count
+     * @param charset
+     *            The charset of the file
+     * @param stateDir
+     *            Directory holding the state between runs
+     * @param tokenizer
+     *            Splitter of lines into tags
+     * @return A map of every tag of the file and its count
+     * @throws IOException
+     *             If the file or the state cannot be read or written
+     */
+    public static Map<String, Integer> count(Path file, Charset charset,
+            Path stateDir, Tokenizer tokenizer) throws IOException {
+        Files.createDirectories(stateDir);
+        Path stateFile = stateDir.resolve(STATE);
+        Properties state = load(stateFile);
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.READ)) {
+            long size = channel.size();
+            CountTable table = resume(channel, stateDir, state, tokenizer);
+            long offset = table == null ? 0
+                    : Long.parseLong(state.getProperty("offset"));
+            long end = lastLineEnd(channel, offset, size);
+            if (end > offset) {
+                String name = tableName(end);
+                append(channel, charset, tokenizer, table, offset, end,
+                        stateDir.resolve(name));
+                table = CountTable.open(stateDir.resolve(name));
+                save(stateDir, state, tokenizer, name, end,
+                        fingerprint(channel, end), null, null);
+            }
+            Map<String, Integer> counts;
+            if (table == null) {
+                counts = new HashMap<>();
+            } else {
+                counts = table.toMap();
+            }
+            //The unfinished last line is counted but not saved
+            if (size > end) {
+                counts = ParallelCounter.merge(counts, ParallelCounter
+                        .countRange(channel, charset, tokenizer, end, size));
+            }
+            return counts;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } catch (NumberFormatException e) {
+            throw new IOException("Corrupt state in " + stateFile, e);
+        }
+    }
+
+    /**
+     * Returns the {@code cloudSize} best tags of {@code file} that
+     * {@code filter} accepts, reading only what was appended since the last
+     * call with the same {@code stateDir} and tokenizer, and saves the new
+     * state. Tags are ranked by count, or by TF-IDF if {@code idf} is given.
+     * Only the best tags by count are saved, so a run with another ranking,
+     * filter or cloud size ranks the whole table once, straight from its
+     * mapping.
+     *
+     * @param file
+     *            The file to count
+     * @param charset
+     *            The charset of the file
+     * @param stateDir
+     *            Directory holding the state between runs
+     * @param tokenizer
+     *            Splitter of lines into tags
+     * @param filter
+     *            Tags to rank, or null for all of them
+     * @param idf
+     *            Document frequencies to rank the tags by TF-IDF, or null to
+     *            rank them by count
+     * @param cloudSize
+     *            The amount of tags to return
+     * @return A map of the best tags of the file and their counts
+     * @throws IOException
+     *             If the file or the state cannot be read or written
+     */
+    public static Map<String, Integer> top(Path file, Charset charset,
+            Path stateDir, Tokenizer tokenizer, TagFilter filter,
+            DocumentFrequencies idf, int cloudSize) throws IOException {
+        Files.createDirectories(stateDir);
+        Path stateFile = stateDir.resolve(STATE);
+        Properties state = load(stateFile);
+        //The saved tags are the best ones for this ranking only
+        String rank = null;
+        if (idf == null) {
+            rank = cloudSize + " " + (filter == null ? "" : filter.spec());
+        }
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.READ)) {
+            long size = channel.size();
+            CountTable table = resume(channel, stateDir, state, tokenizer);
+            long offset = 0;
+            Map<String, Integer> best = null;
+            if (table != null) {
+                offset = Long.parseLong(state.getProperty("offset"));
+                if (rank != null && rank.equals(state.getProperty("rank"))) {
+                    best = CountTable
+                            .open(stateDir.resolve(state.getProperty("top")))
+                            .toMap();
+                }
+            }
+            String name = state.getProperty("table");
+            long end = lastLineEnd(channel, offset, size);
+            boolean changed = false;
+            if (end > offset) {
+                name = tableName(end);
+                WordCounter added = append(channel, charset, tokenizer,
+                        table, offset, end, stateDir.resolve(name));
+                table = CountTable.open(stateDir.resolve(name));
+                if (best != null) {
+                    //A tag left out before and unchanged since stays out
+                    for (int id = 0; id < added.size(); id++) {
+                        String tag = added.key(id);
+                        if (filter == null || filter.accepts(tag)) {
+                            best.put(tag, table.count(tag));
+                        }
+                    }
+                    best = TCS2.topMap(best.entrySet(), cloudSize, null);
+                }
+                changed = true;
+            }
+            if (best == null && table != null) {
+                best = TCS2.topMap(filter == null ? table
+                        : table.accepted(filter), cloudSize, idf);
+                changed |= rank != null;
+            }
+            if (changed) {
+                save(stateDir, state, tokenizer, name, end,
+                        fingerprint(channel, end), rank, best);
+            }
+            if (best == null) {
+                best = new HashMap<>();
+            }
+            //The unfinished last line is counted but not saved
+            if (size > end) {
+                Map<String, Integer> tail = ParallelCounter.countRange(
+                        channel, charset, tokenizer, filter, end, size);
+                for (Entry<String, Integer> e : tail.entrySet()) {
+                    int saved = table == null ? 0 : table.count(e.getKey());
+                    best.put(e.getKey(), saved + e.getValue());
+                }
+                best = TCS2.topMap(best.entrySet(), cloudSize, idf);
+            }
+            return best;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } catch (NumberFormatException e) {
+            throw new IOException("Corrupt state in " + stateFile, e);
+        }
+    }
+
+    /**
+     * Loads the state file, or returns an empty state if there is none.
+     *
+     * @param stateFile
+     *            The state file
+     * @return The saved state
+     * @throws IOException
+     *             If the state file cannot be read
+     */
+    private static Properties load(Path stateFile) throws IOException {
+        Properties state = new Properties();
+        if (Files.isRegularFile(stateFile)) {
+            try (InputStream in = Files.newInputStream(stateFile)) {
+                state.load(in);
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Opens the saved table if it still counts the start of the file with
+     * {@code tokenizer}.
+     *
+     * @param channel
+     *            The file
+     * @param stateDir
+     *            Directory holding the state
+     * @param state
+     *            The saved state
+     * @param tokenizer
+     *            Splitter of lines into tags
+     * @return The saved table, or null if the file must be counted from the
+     *         start
+     * @throws IOException
+     *             If the file or the table cannot be read
+     */
+    private static CountTable resume(FileChannel channel, Path stateDir,
+            Properties state, Tokenizer tokenizer) throws IOException {
+        String table = state.getProperty("table");
+        if (table == null) {
+            return null;
+        }
+        long offset = Long.parseLong(state.getProperty("offset"));
+        long crc = Long.parseLong(state.getProperty("fingerprint"));
+        if (offset <= channel.size()
+                && tokenizer.spec().equals(state.getProperty("tokenizer"))
+                && fingerprint(channel, offset) == crc) {
+            return CountTable.open(stateDir.resolve(table));
+        }
+        return null;
+    }
+
+    /**
+     * Counts the complete lines of {@code [offset, end)} and writes their
+     * counts merged with {@code table} to {@code merged}.
+     *
+     * @param channel
+     *            The file
+     * @param charset
+     *            The charset of the file
+     * @param tokenizer
+     *            Splitter of lines into tags
+     * @param table
+     *            Counts of the lines before {@code offset}, or null if there
+     *            are none
+     * @param offset
+     *            First offset of the appended lines
+     * @param end
+     *            Offset after the last complete line
+     * @param merged
+     *            Where to write the counts of every line before {@code end}
+     * @return The counts of the appended lines
+     * @throws IOException
+     *             If the file cannot be read or the table written
+     */
+    private static WordCounter append(FileChannel channel, Charset charset,
+            Tokenizer tokenizer, CountTable table, long offset, long end,
+            Path merged) throws IOException {
+        WordCounter added = ParallelCounter.tagsInRange(channel, charset,
+                tokenizer, null, offset, end);
+        if (table == null) {
+            SpillingCounter.spill(added, merged);
+            return added;
+        }
+        Path run = Files.createTempFile(merged.toAbsolutePath().getParent(),
+                merged.getFileName().toString(), ".run");
+        try {
+            SpillingCounter.spill(added, run);
+            List<CountTable> parts = new ArrayList<>();
+            parts.add(table);
+            parts.add(CountTable.open(run));
+            ShardCounter.merge(parts, merged);
+        } finally {
+            Files.deleteIfExists(run);
+        }
+        return added;
+    }
+
+    /**
+     * Returns the name of the table counting the lines before {@code end}.
+     *
+     * @param end
+     *            Offset after the last complete line
+     * @return The file name of the table
+     */
+    private static String tableName(long end) {
+        return "counts-" + end + ".wct";
+    }
+
+    /**
+     * Points the state file at a table already written and saves the best
+     * tags beside it. The state file is replaced atomically after both are
+     * written, so a crash leaves either the old state or the new one.
+     *
+     * @param stateDir
+     *            Directory holding the state
+     * @param state
+     *            The current state
+     * @param tokenizer
+     *            Splitter the table was counted with
+     * @param table
+     *            Name of the table of the complete lines up to
+     *            {@code offset}
+     * @param offset
+     *            Offset after the last complete line
+     * @param fingerprint
+     *            Checksum of the bytes before {@code offset}
+     * @param rank
+     *            Ranking the best tags were chosen by, or null to save none
+     * @param best
+     *            The best tags of the table and their counts
+     * @throws IOException
+     *             If the state cannot be written
+     */
+    private static void save(Path stateDir, Properties state,
+            Tokenizer tokenizer, String table, long offset, long fingerprint,
+            String rank, Map<String, Integer> best) throws IOException {
+        String oldTable = state.getProperty("table");
+        String oldTop = state.getProperty("top");
+        String top = null;
+        if (rank != null) {
+            top = "top-" + offset + ".wct";
+            CountTable.write(best, stateDir.resolve(top));
+            state.setProperty("rank", rank);
+            state.setProperty("top", top);
+        } else {
+            state.remove("rank");
+            state.remove("top");
+        }
+        state.setProperty("tokenizer", tokenizer.spec());
+        state.setProperty("table", table);
+        state.setProperty("offset", Long.toString(offset));
+        state.setProperty("fingerprint", Long.toString(fingerprint));
+        Path temp = Files.createTempFile(stateDir, STATE, ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            state.store(out, "Incremental count state");
+        }
+        Files.move(temp, stateDir.resolve(STATE),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        if (oldTable != null && !oldTable.equals(table)) {
+            Files.deleteIfExists(stateDir.resolve(oldTable));
+        }
+        if (oldTop != null && !oldTop.equals(top)) {
+            Files.deleteIfExists(stateDir.resolve(oldTop));
+        }
+    }
+
+    /**
+     * Returns the offset after the last {@code '\n'} in
+     * {@code [from, size)}, searching backwards from the end of the file.
+     *
+     * @param channel
+     *            The file
+     * @param from
+     *            Offset to stop searching at
+     * @param size
+     *            Size of the file
+     * @return The offset after the last line break, or {@code from} if there
+     *         is none
+     * @throws IOException
+     *             If the file cannot be read
+     */
+    static long lastLineEnd(FileChannel channel, long from, long size)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER);
+        long end = size;
+        while (end > from) {
+            long start = Math.max(from, end - SCAN_BUFFER);
+            buffer.clear();
+            buffer.limit((int) (end - start));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, start + buffer.position()) < 0) {
+                    throw new IOException("File shrank while reading");
+                }
+            }
+            for (int i = (int) (end - start) - 1; i >= 0; i--) {
+                if (buffer.get(i) == '\n') {
+                    return start + i + 1;
+                }
+            }
+            end = start;
+        }
+        return from;
+    }
+
+    /**
+     * Returns a checksum of the {@link #FINGERPRINT} bytes before
+     * {@code offset}, or of all of them if there are fewer.
+     *
+     * @param channel
+     *            The file
+     * @param offset
+     *            End of the checked bytes
+     * @return The CRC-32 of the bytes
+     * @throws IOException
+     *             If the file cannot be read
+     */
+    private static long fingerprint(FileChannel channel, long offset)
+            throws IOException {
+        long start = Math.max(0, offset - FINGERPRINT);
+        ByteBuffer buffer = ByteBuffer.allocate((int) (offset - start));
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, start + buffer.position()) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        CRC32 crc = new CRC32();
+        crc.update(buffer);
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,21 @@
+import java.io.IOException;
+
+/**
+ * A source of lines of text for the tag cloud generators. A
+ * {@code BufferedReader} can be used as one through {@code reader::readLine}.
+ *
+ * @author Ben Elleman
+ *
+ */
+public interface LineSource {
+
+    /**
+     * Reads the next line, without its line terminator. The returned sequence
+     * is only valid until the next call.
+     *
+     * @return The next line, or null at the end of the input
+     * @throws IOException
+     *             If the input cannot be read
+     */
+    CharSequence nextLine() throws IOException;
+}
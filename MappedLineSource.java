@@ -0,0 +1,258 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the lines of a file straight out of a memory mapping, so the file is
+ * never copied into the heap as a whole. Files larger than one mapping are
+ * mapped in windows that always start at the beginning of a line.
+ *
+ * <p>
+ * Lines end at {@code '\n'}; a {@code '\r'} before it is dropped. Like
+ * {@link ParallelCounter}, this needs a charset that encodes {@code '\n'} as
+ * a single byte no other character uses. If the charset is a superset of
+ * ASCII, ASCII bytes are widened directly; anything else goes through a
+ * decoder for the charset, which replaces malformed input as
+ * {@link ParallelCounter} does.
+ *
+ * @author Ben Elleman
+ *
+ */
+public final class MappedLineSource implements LineSource, Closeable {
+
+    /**
+     * Largest window a single mapping can cover.
+     */
+    static final long MAX_WINDOW = Integer.MAX_VALUE;
+
+    /**
+     * The mapped file.
+     */
+    private final FileChannel channel;
+
+    /**
+     * Size of the file.
+     */
+    private final long size;
+
+    /**
+     * Size of each window.
+     */
+    private final long windowSize;
+
+    /**
+     * The current window.
+     */
+    private MappedByteBuffer window;
+
+    /**
+     * Offset of the current window in the file.
+     */
+    private long windowStart;
+
+    /**
+     * Position of the next line in the current window.
+     */
+    private int position;
+
+    /**
+     * Decoder for lines that are not pure ASCII.
+     */
+    private final CharsetDecoder decoder;
+
+    /**
+     * Whether the charset decodes every byte below 0x80 as that ASCII
+     * character.
+     */
+    private final boolean ascii;
+
+    /**
+     * Characters of the current line.
+     */
+    private char[] chars = new char[256];
+
+    /**
+     * View of {@code chars} handed out as the current line.
+     */
+    private CharBuffer line = CharBuffer.wrap(this.chars);
+
+    /**
+     * Maps {@code file} in windows of the largest size a mapping allows.
+     *
+     * @param file
+     *            The file to read
+     * @param charset
+     *            The charset of the file
+     * @throws IOException
+     *             If the file cannot be opened
+     */
+    public MappedLineSource(Path file, Charset charset) throws IOException {
+        this(file, charset, MAX_WINDOW);
+    }
+
+    /**
+     * Maps {@code file} in windows of {@code windowSize} bytes.
+     *
+     * @param file
+     *            The file to read
+     * @param charset
+     *            The charset of the file
+     * @param windowSize
+     *            Size of each mapping; lines longer than this are split
+     * @throws IOException
+     *             If the file cannot be opened
+     */
+    public MappedLineSource(Path file, Charset charset, long windowSize)
+            throws IOException {
+        this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.ascii = isAscii(charset);
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.size = this.channel.size();
+        this.windowSize = Math.min(windowSize, MAX_WINDOW);
+        this.map(0);
+    }
+
+    /**
+     * Reports whether {@code charset} decodes every byte below 0x80 as that
+     * ASCII character, so such bytes can be widened without a decoder.
+     *
+     * @param charset
+     *            A charset
+     * @return true if it is a superset of ASCII
+     */
+    private static boolean isAscii(Charset charset) {
+        byte[] bytes = new byte[0x80];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+        return new String(bytes, charset)
+                .equals(new String(bytes, StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Maps the window starting at {@code start}.
+     *
+     * @param start
+     *            Offset of the window in the file
+     * @throws IOException
+     *             If the file cannot be mapped
+     */
+    private void map(long start) throws IOException {
+        this.windowStart = start;
+        this.position = 0;
+        this.window = this.channel.map(FileChannel.MapMode.READ_ONLY, start,
+                Math.min(this.windowSize, this.size - start));
+    }
+
+    /**
+     * Reports whether the current window reaches the end of the file.
+     *
+     * @return true if this is the last window
+     */
+    private boolean lastWindow() {
+        return this.windowStart + this.window.limit() >= this.size;
+    }
+
+    @Override
+    public CharSequence nextLine() throws IOException {
+        int limit = this.window.limit();
+        int end = this.indexOfNewline(this.position, limit);
+        if (end < 0 && !this.lastWindow()) {
+            this.map(this.windowStart + this.position);
+            limit = this.window.limit();
+            end = this.indexOfNewline(0, limit);
+        }
+        if (end < 0) {
+            if (this.position >= limit) {
+                return null;
+            }
+            end = limit;
+        }
+        int start = this.position;
+        this.position = Math.min(end + 1, limit);
+        if (end > start && this.window.get(end - 1) == '\r') {
+            end--;
+        }
+        return this.decode(start, end);
+    }
+
+    /**
+     * Finds the next {@code '\n'} in the current window.
+     *
+     * @param from
+     *            Position to start at
+     * @param limit
+     *            Position to stop at
+     * @return The position of the {@code '\n'}, or -1 if there is none
+     */
+    private int indexOfNewline(int from, int limit) {
+        MappedByteBuffer w = this.window;
+        for (int i = from; i < limit; i++) {
+            if (w.get(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Decodes {@code window[start, end)} into the reusable line buffer.
+     *
+     * @param start
+     *            First byte of the line
+     * @param end
+     *            One past the last byte of the line
+     * @return The decoded line
+     */
+    private CharSequence decode(int start, int end) {
+        int length = (int) Math.ceil(
+                (end - start) * (double) this.decoder.maxCharsPerByte());
+        if (this.chars.length < length) {
+            this.chars = new char[Math.max(length, this.chars.length * 2)];
+            this.line = CharBuffer.wrap(this.chars);
+        }
+        MappedByteBuffer w = this.window;
+        int n = 0;
+        int i = start;
+        //ASCII fast path
+        while (this.ascii && i < end) {
+            byte b = w.get(i);
+            if (b < 0) {
+                break;
+            }
+            this.chars[n] = (char) b;
+            n++;
+            i++;
+        }
+        if (i < end) {
+            ByteBuffer in = w.duplicate();
+            in.limit(end).position(i);
+            CharBuffer out = CharBuffer.wrap(this.chars, n,
+                    this.chars.length - n);
+            this.decoder.reset();
+            this.decoder.decode(in, out, true);
+            this.decoder.flush(out);
+            n = out.position();
+        }
+        this.line.clear();
+        this.line.limit(n);
+        return this.line;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.window = null;
+        this.channel.close();
+    }
+}
@@ -0,0 +1,502 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Records where a run spends its time: the wall time, allocation and heap of
+ * each stage, the input read, and how the vocabulary grows with the number of
+ * tags. The report is written as JSON, and each stage can also be committed
+ * as a JFR event, which costs nothing unless a flight recording is running.
+ *
+ * @author Ben Elleman
+ *
+ */
+public final class Metrics {
+
+    /**
+     * A stage of the run, as a JFR event.
+     */
+    @Name("wordclouds.Stage")
+    @Label("Tag Cloud Stage")
+    @Category("WordClouds")
+    @Description("One stage of generating a tag cloud")
+    static final class StageEvent extends Event {
+
+        /**
+         * Name of the stage.
+         */
+        @Label("Stage")
+        String stage;
+
+        /**
+         * Bytes allocated by the thread during the stage.
+         */
+        @Label("Allocated")
+        long allocated;
+    }
+
+    /**
+     * A stage that has finished.
+     */
+    private static final class Stage {
+
+        /**
+         * Name of the stage.
+         */
+        private final String name;
+
+        /**
+         * Wall time in nanoseconds.
+         */
+        private final long nanos;
+
+        /**
+         * Bytes allocated by the thread, or -1 if unknown.
+         */
+        private final long allocated;
+
+        /**
+         * Heap in use at the end of the stage.
+         */
+        private final long heapUsed;
+
+        /**
+         * Creates a finished stage.
+         *
+         * @param name
+         *            Name of the stage
+         * @param nanos
+         *            Wall time in nanoseconds
+         * @param allocated
+         *            Bytes allocated, or -1 if unknown
+         * @param heapUsed
+         *            Heap in use at the end
+         */
+        Stage(String name, long nanos, long allocated, long heapUsed) {
+            this.name = name;
+            this.nanos = nanos;
+            this.allocated = allocated;
+            this.heapUsed = heapUsed;
+        }
+    }
+
+    /**
+     * Whether to commit JFR events.
+     */
+    private final boolean jfr;
+
+    /**
+     * The finished stages, in order.
+     */
+    private final List<Stage> stages = new ArrayList<>();
+
+    /**
+     * Samples of {tags counted, distinct tags}, taken each time the number
+     * of tags counted passes a power of two.
+     */
+    private final List<long[]> growth = new ArrayList<>();
+
+    /**
+     * Name of the stage running, or null.
+     */
+    private String current;
+
+    /**
+     * When the running stage started.
+     */
+    private long started;
+
+    /**
+     * Bytes the thread had allocated when the running stage started.
+     */
+    private long allocatedAtStart;
+
+    /**
+     * JFR event of the running stage, or null.
+     */
+    private StageEvent event;
+
+    /**
+     * Size of the input in bytes.
+     */
+    private long bytes;
+
+    /**
+     * Lines read.
+     */
+    private long lines;
+
+    /**
+     * Characters read.
+     */
+    private long chars;
+
+    /**
+     * Time spent waiting for lines, in nanoseconds.
+     */
+    private long readNanos;
+
+    /**
+     * Tags counted.
+     */
+    private long tokens;
+
+    /**
+     * Distinct tags counted.
+     */
+    private long distinct;
+
+    /**
+     * Number of tags counted at which to take the next growth sample.
+     */
+    private long nextSample = 1;
+
+    /**
+     * What the tag filter saved: {tags, distinct tags, table bytes, counting
+     * nanoseconds}, or null if there was no filter.
+     */
+    private long[] filtered;
+
+    /**
+     * Tags the filter rejected while counting, or -1 if not recorded.
+     */
+    private long rejected = -1;
+
+    /**
+     * Creates an empty report.
+     *
+     * @param jfr
+     *            Whether to also commit each stage as a JFR event
+     */
+    public Metrics(boolean jfr) {
+        this.jfr = jfr;
+    }
+
+    /**
+     * Starts a stage, ending the one running if there is one.
+     *
+     * @param name
+     *            Name of the stage
+     */
+    public void start(String name) {
+        this.stop();
+        this.current = name;
+        this.allocatedAtStart = allocatedBytes();
+        if (this.jfr) {
+            this.event = new StageEvent();
+            this.event.stage = name;
+            this.event.begin();
+        }
+        this.started = System.nanoTime();
+    }
+
+    /**
+     * Ends the stage running, if there is one.
+     */
+    public void stop() {
+        if (this.current == null) {
+            return;
+        }
+        long nanos = System.nanoTime() - this.started;
+        long allocated = allocatedBytes();
+        if (allocated >= 0 && this.allocatedAtStart >= 0) {
+            allocated -= this.allocatedAtStart;
+        } else {
+            allocated = -1;
+        }
+        if (this.event != null) {
+            this.event.allocated = allocated;
+            this.event.commit();
+            this.event = null;
+        }
+        this.stages.add(new Stage(this.current, nanos, allocated,
+                ManagementFactory.getMemoryMXBean().getHeapMemoryUsage()
+                        .getUsed()));
+        this.current = null;
+    }
+
+    /**
+     * Records the size of the input.
+     *
+     * @param bytes
+     *            Size of the input in bytes
+     */
+    public void input(long bytes) {
+        this.bytes = bytes;
+    }
+
+    /**
+     * Records the final number of tags and distinct tags, for counting paths
+     * that are not metered line by line.
+     *
+     * @param tokens
+     *            Tags counted
+     * @param distinct
+     *            Distinct tags
+     */
+    public void counted(long tokens, long distinct) {
+        this.tokens = tokens;
+        this.distinct = distinct;
+    }
+
+    /**
+     * Records the number of tags the filter rejected while counting.
+     *
+     * @param tokens
+     *            Tags not counted
+     */
+    public void rejected(long tokens) {
+        this.rejected = tokens;
+    }
+
+    /**
+     * Records what the tag filter saved, measured by counting the input with
+     * and without it.
+     *
+     * @param tokens
+     *            Tags not counted
+     * @param distinct
+     *            Distinct tags kept out of the table
+     * @param bytes
+     *            Table memory saved
+     * @param nanos
+     *            Counting CPU time saved, in nanoseconds
+     */
+    public void filtered(long tokens, long distinct, long bytes, long nanos) {
+        this.filtered = new long[] { tokens, distinct, bytes, nanos };
+    }
+
+    /**
+     * Wraps {@code source} to time the reads and sample the growth of
+     * {@code tags} once per line.
+     *
+     * @param source
+     *            The lines being counted
+     * @param tags
+     *            The counter the lines go into
+     * @return A source of the same lines
+     */
+    LineSource meter(LineSource source, WordCounter tags) {
+        return () -> {
+            this.sample(tags.total(), tags.size());
+            long start = System.nanoTime();
+            CharSequence line = source.nextLine();
+            this.readNanos += System.nanoTime() - start;
+            if (line != null) {
+                this.lines++;
+                this.chars += line.length();
+            }
+            return line;
+        };
+    }
+
+    /**
+     * Records the counts so far, keeping a growth sample at each power of
+     * two tags.
+     *
+     * @param tokens
+     *            Tags counted so far
+     * @param distinct
+     *            Distinct tags so far
+     */
+    private void sample(long tokens, long distinct) {
+        this.tokens = tokens;
+        this.distinct = distinct;
+        if (tokens >= this.nextSample) {
+            this.growth.add(new long[] { tokens, distinct });
+            while (this.nextSample <= tokens) {
+                this.nextSample <<= 1;
+            }
+        }
+    }
+
+    /**
+     * Returns the bytes allocated by this thread so far, or -1 if the JVM
+     * does not report it.
+     *
+     * @return Bytes allocated
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sun;
+            sun = (com.sun.management.ThreadMXBean) threads;
+            if (sun.isThreadAllocatedMemorySupported()
+                    && sun.isThreadAllocatedMemoryEnabled()) {
+                return sun.getThreadAllocatedBytes(
+                        Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the CPU time of this thread, which unlike the wall time leaves
+     * out time the thread spent waiting for a processor, or the wall time if
+     * the JVM does not measure it.
+     *
+     * @return A time in nanoseconds, only meaningful as a difference
+     */
+    static long threadTime() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads.isCurrentThreadCpuTimeSupported()) {
+            long time = threads.getCurrentThreadCpuTime();
+            if (time >= 0) {
+                return time;
+            }
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Writes the report as JSON, ending the running stage first.
+     *
+     * @param file
+     *            Where to write the report
+     * @param input
+     *            Name of the input
+     * @throws IOException
+     *             If the report cannot be written
+     */
+    public void write(Path file, String input) throws IOException {
+        this.stop();
+        try (PrintWriter out = new PrintWriter(
+                Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+            this.write(out, input);
+        }
+    }
+
+    /**
+     * Writes the report as JSON.
+     *
+     * @param out
+     *            Where to write the report
+     * @param input
+     *            Name of the input
+     */
+    void write(PrintWriter out, String input) {
+        long countNanos = 0;
+        long totalNanos = 0;
+        for (Stage s : this.stages) {
+            totalNanos += s.nanos;
+            if (s.name.equals("count")) {
+                countNanos += s.nanos;
+            }
+        }
+        long gcCount = 0;
+        long gcMillis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory
+                .getGarbageCollectorMXBeans()) {
+            gcCount += Math.max(0, gc.getCollectionCount());
+            gcMillis += Math.max(0, gc.getCollectionTime());
+        }
+        out.println("{");
+        out.println("  \"input\": " + quote(input) + ",");
+        out.println("  \"bytes\": " + this.bytes + ",");
+        out.println("  \"lines\": " + this.lines + ",");
+        out.println("  \"chars\": " + this.chars + ",");
+        out.println("  \"tokens\": " + this.tokens + ",");
+        out.println("  \"distinct\": " + this.distinct + ",");
+        out.println("  \"totalMs\": " + millis(totalNanos) + ",");
+        out.println("  \"readMs\": " + millis(this.readNanos) + ",");
+        out.println("  \"bytesPerSecond\": "
+                + perSecond(this.bytes, countNanos) + ",");
+        out.println("  \"tokensPerSecond\": "
+                + perSecond(this.tokens, countNanos) + ",");
+        out.println("  \"stages\": [");
+        for (int i = 0; i < this.stages.size(); i++) {
+            Stage s = this.stages.get(i);
+            out.println("    {\"name\": " + quote(s.name) + ", \"ms\": "
+                    + millis(s.nanos) + ", \"allocatedBytes\": "
+                    + s.allocated + ", \"heapUsedBytes\": " + s.heapUsed
+                    + "}" + (i + 1 < this.stages.size() ? "," : ""));
+        }
+        out.println("  ],");
+        out.println("  \"vocabularyGrowth\": [");
+        for (int i = 0; i < this.growth.size(); i++) {
+            long[] g = this.growth.get(i);
+            out.println("    {\"tokens\": " + g[0] + ", \"distinct\": "
+                    + g[1] + "}" + (i + 1 < this.growth.size() ? "," : ""));
+        }
+        out.println("  ],");
+        if (this.filtered != null) {
+            out.println("  \"filter\": {\"rejectedTokens\": "
+                    + this.filtered[0] + ", \"rejectedDistinct\": "
+                    + this.filtered[1] + ", \"tableBytesSaved\": "
+                    + this.filtered[2] + ", \"countCpuMsSaved\": "
+                    + millis(this.filtered[3]) + "},");
+        } else if (this.rejected >= 0) {
+            out.println("  \"filter\": {\"rejectedTokens\": " + this.rejected
+                    + "},");
+        }
+        out.println("  \"gc\": {\"count\": " + gcCount + ", \"ms\": "
+                + gcMillis + "},");
+        out.println("  \"heapMaxBytes\": "
+                + ManagementFactory.getMemoryMXBean().getHeapMemoryUsage()
+                        .getMax());
+        out.println("}");
+    }
+
+    /**
+     * Formats nanoseconds as milliseconds.
+     *
+     * @param nanos
+     *            A duration in nanoseconds
+     * @return The duration in milliseconds, to three decimal places
+     */
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1_000_000.0);
+    }
+
+    /**
+     * Formats a rate per second.
+     *
+     * @param amount
+     *            Amount processed
+     * @param nanos
+     *            Time taken in nanoseconds
+     * @return The rate, rounded to a whole number, or 0 if no time passed
+     */
+    private static long perSecond(long amount, long nanos) {
+        if (nanos <= 0) {
+            return 0;
+        }
+        return Math.round(amount * 1e9 / nanos);
+    }
+
+    /**
+     * Quotes {@code s} as a JSON string.
+     *
+     * @param s
+     *            The string
+     * @return The JSON string literal
+     */
+    static String quote(String s) {
+        StringBuilder b = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                b.append('\\').append(c);
+            } else if (c < 0x20) {
+                b.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            } else {
+                b.append(c);
+            }
+        }
+        return b.append('"').toString();
+    }
+}
@@ -0,0 +1,221 @@
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Lowercases tags and counts them in a {@link WordCounter} without creating
+ * objects in the common case. Each tag is scanned once, hashing as it goes;
+ * a tag that is already lowercase is counted straight from the text, and one
+ * with ASCII capitals is lowercased into a reused buffer and counted from
+ * there. The counter copies each distinct word into its pool once, so a word
+ * seen before costs no allocation at all.
+ *
+ * <p>
+ * The result always equals counting {@code tag.toLowerCase()}: tags whose
+ * lowercase form depends on more than the single character (non-ASCII
+ * capitals, surrogate pairs, and ASCII capitals under the Turkish,
+ * Azerbaijani and Lithuanian rules) fall back to {@code String.toLowerCase}.
+ * An optional {@link TagFilter} sees each lowercased tag before it is
+ * counted. With a {@link PhraseCounter}, tags are only interned and fed to
+ * it, and a rejected tag ends the phrase before it.
+ *
+ * @author Ben Elleman
+ *
+ */
+public final class Normalizer implements Tokenizer.Sink {
+
+    /**
+     * Initial size of the lowercase buffer.
+     */
+    private static final int BUFFER = 64;
+
+    /**
+     * The counter tags go into.
+     */
+    private final WordCounter tags;
+
+    /**
+     * Tags to count, or null for all of them.
+     */
+    private final TagFilter filter;
+
+    /**
+     * Counter the tags are fed to as words of phrases, or null to count the
+     * tags themselves.
+     */
+    private final PhraseCounter phrases;
+
+    /**
+     * Whether {@code 'A'..'Z'} lowercase to {@code 'a'..'z'} in the default
+     * locale.
+     */
+    private final boolean asciiCapitals;
+
+    /**
+     * Buffer the current tag is lowercased into.
+     */
+    private char[] buffer = new char[BUFFER];
+
+    /**
+     * View of {@code buffer} passed to the counter.
+     */
+    private CharBuffer view = CharBuffer.wrap(this.buffer);
+
+    /**
+     * Number of tags the filter rejected.
+     */
+    private long rejected;
+
+    /**
+     * Creates a normalizer counting into {@code tags}.
+     *
+     * @param tags
+     *            The counter
+     */
+    public Normalizer(WordCounter tags) {
+        this(tags, null);
+    }
+
+    /**
+     * Creates a normalizer counting the tags {@code filter} accepts into
+     * {@code tags}.
+     *
+     * @param tags
+     *            The counter
+     * @param filter
+     *            Tags to count, or null for all of them
+     */
+    public Normalizer(WordCounter tags, TagFilter filter) {
+        this(tags, filter, null);
+    }
+
+    /**
+     * Creates a normalizer interning the tags {@code filter} accepts into
+     * {@code tags} and feeding them to {@code phrases}.
+     *
+     * @param tags
+     *            The counter the words are interned in
+     * @param filter
+     *            Tags to count, or null for all of them
+     * @param phrases
+     *            The phrase counter, or null to count the tags themselves
+     */
+    public Normalizer(WordCounter tags, TagFilter filter,
+            PhraseCounter phrases) {
+        this.tags = tags;
+        this.filter = filter;
+        this.phrases = phrases;
+        String language = Locale.getDefault().getLanguage();
+        this.asciiCapitals = !(language.equals("tr") || language.equals("az")
+                || language.equals("lt"));
+    }
+
+    /**
+     * Returns the number of tags the filter has rejected.
+     *
+     * @return The number of tags not counted
+     */
+    public long rejected() {
+        return this.rejected;
+    }
+
+    @Override
+    public void accept(CharSequence text, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c >= 'A' && (c <= 'Z' || c >= 0x80 && changes(c))) {
+                this.lowercase(text, start, i, end, h);
+                return;
+            }
+            h = 31 * h + c;
+        }
+        this.count(text, start, end, h);
+    }
+
+    /**
+     * Counts the lowercase tag {@code text[start, end)} if the filter
+     * accepts it.
+     *
+     * @param text
+     *            The text holding the tag
+     * @param start
+     *            First character of the tag
+     * @param end
+     *            One past the last character of the tag
+     * @param h
+     *            The tag's {@code String.hashCode()}
+     */
+    private void count(CharSequence text, int start, int end, int h) {
+        if (this.filter == null || this.filter.accepts(text, start, end, h)) {
+            if (this.phrases == null) {
+                this.tags.increment(text, start, end, h);
+            } else {
+                this.phrases.add(this.tags.intern(text, start, end, h));
+            }
+        } else {
+            this.rejected++;
+            if (this.phrases != null) {
+                this.phrases.split();
+            }
+        }
+    }
+
+    /**
+     * Counts {@code text[start, end)} lowercased, where
+     * {@code text[start, from)} is already lowercase with hash {@code h}.
+     *
+     * @param text
+     *            The text holding the tag
+     * @param start
+     *            First character of the tag
+     * @param from
+     *            First character that may change
+     * @param end
+     *            One past the last character of the tag
+     * @param h
+     *            Hash of {@code text[start, from)}
+     */
+    private void lowercase(CharSequence text, int start, int from, int end,
+            int h) {
+        int length = end - start;
+        if (length > this.buffer.length) {
+            this.buffer = Arrays.copyOf(this.buffer,
+                    Math.max(length, 2 * this.buffer.length));
+            this.view = CharBuffer.wrap(this.buffer);
+        }
+        char[] b = this.buffer;
+        int k = 0;
+        for (int i = start; i < from; i++) {
+            b[k++] = text.charAt(i);
+        }
+        int hash = h;
+        for (int i = from; i < end; i++) {
+            char c = text.charAt(i);
+            if (c >= 'A' && c <= 'Z' && this.asciiCapitals) {
+                c += 'a' - 'A';
+            } else if (c >= 'A' && (c <= 'Z' || c >= 0x80 && changes(c))) {
+                String tag = text.subSequence(start, end).toString()
+                        .toLowerCase();
+                this.count(tag, 0, tag.length(), tag.hashCode());
+                return;
+            }
+            b[k++] = c;
+            hash = 31 * hash + c;
+        }
+        this.count(this.view, 0, length, hash);
+    }
+
+    /**
+     * Reports whether {@code toLowerCase} might change the non-ASCII
+     * character {@code c}.
+     *
+     * @param c
+     *            A character above {@code 0x7F}
+     * @return true if {@code c} is part of a surrogate pair or has a
+     *         different lowercase form
+     */
+    private static boolean changes(char c) {
+        return Character.isSurrogate(c) || Character.toLowerCase(c) != c;
+    }
+}
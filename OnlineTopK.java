@@ -0,0 +1,224 @@
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tracks the {@code k} words with the highest counts while the counts are
+ * still growing. Each update costs one hash lookup and O(log k) heap work.
+ *
+ * <p>
+ * Words are ranked by count, most first, with ties broken alphabetically. As
+ * long as every word's count only ever grows and every change is reported
+ * through {@link #update(String, int)}, the kept words are exactly the
+ * {@code k} best.
+ *
+ * @author Ben Elleman
+ *
+ */
+public final class OnlineTopK {
+
+    /**
+     * The kept words, by slot.
+     */
+    private final String[] keys;
+
+    /**
+     * Count of each slot.
+     */
+    private final int[] counts;
+
+    /**
+     * Min-heap of slots, worst word first.
+     */
+    private final int[] heap;
+
+    /**
+     * Position of each slot in {@code heap}.
+     */
+    private final int[] position;
+
+    /**
+     * Slot of each kept word.
+     */
+    private final Map<String, Integer> index;
+
+    /**
+     * Number of kept words.
+     */
+    private int size;
+
+    /**
+     * Creates a tracker for the {@code k} best words.
+     *
+     * @param k
+     *            Number of words to keep
+     */
+    public OnlineTopK(int k) {
+        this.keys = new String[k];
+        this.counts = new int[k];
+        this.heap = new int[k];
+        this.position = new int[k];
+        this.index = new HashMap<>();
+    }
+
+    /**
+     * Records that {@code word} now occurs {@code count} times.
+     *
+     * @param word
+     *            The word whose count grew
+     * @param count
+     *            The new count of {@code word}
+     */
+    public void update(String word, int count) {
+        Integer slot = this.index.get(word);
+        if (slot != null) {
+            this.counts[slot] = count;
+            this.siftDown(this.position[slot]);
+        } else if (this.size < this.keys.length) {
+            int s = this.size;
+            this.keys[s] = word;
+            this.counts[s] = count;
+            this.heap[s] = s;
+            this.position[s] = s;
+            this.size++;
+            this.index.put(word, s);
+            this.siftUp(s);
+        } else if (this.size > 0 && better(count, word,
+                this.counts[this.heap[0]], this.keys[this.heap[0]])) {
+            int s = this.heap[0];
+            this.index.remove(this.keys[s]);
+            this.keys[s] = word;
+            this.counts[s] = count;
+            this.index.put(word, s);
+            this.siftDown(0);
+        }
+    }
+
+    /**
+     * Reports whether word {@code a} ranks above word {@code b}.
+     *
+     * @param countA
+     *            Count of {@code a}
+     * @param a
+     *            A word
+     * @param countB
+     *            Count of {@code b}
+     * @param b
+     *            Another word
+     * @return true if {@code a} ranks above {@code b}
+     */
+    private static boolean better(int countA, String a, int countB,
+            String b) {
+        if (countA != countB) {
+            return countA > countB;
+        }
+        return a.compareTo(b) < 0;
+    }
+
+    /**
+     * Reports whether heap index {@code i} ranks below {@code j}.
+     *
+     * @param i
+     *            A heap index
+     * @param j
+     *            Another heap index
+     * @return true if the word at {@code i} is worse
+     */
+    private boolean worse(int i, int j) {
+        int a = this.heap[i];
+        int b = this.heap[j];
+        return better(this.counts[b], this.keys[b], this.counts[a],
+                this.keys[a]);
+    }
+
+    /**
+     * Moves the slot at heap index {@code i} up to its place.
+     *
+     * @param i
+     *            Heap index of the slot
+     */
+    private void siftUp(int i) {
+        int child = i;
+        while (child > 0) {
+            int parent = (child - 1) / 2;
+            if (!this.worse(child, parent)) {
+                break;
+            }
+            this.swap(parent, child);
+            child = parent;
+        }
+    }
+
+    /**
+     * Moves the slot at heap index {@code i} down to its place.
+     *
+     * @param i
+     *            Heap index of the slot
+     */
+    private void siftDown(int i) {
+        int parent = i;
+        while (true) {
+            int worst = parent;
+            int left = 2 * parent + 1;
+            int right = left + 1;
+            if (left < this.size && this.worse(left, worst)) {
+                worst = left;
+            }
+            if (right < this.size && this.worse(right, worst)) {
+                worst = right;
+            }
+            if (worst == parent) {
+                break;
+            }
+            this.swap(parent, worst);
+            parent = worst;
+        }
+    }
+
+    /**
+     * Swaps heap indices {@code i} and {@code j}.
+     *
+     * @param i
+     *            A heap index
+     * @param j
+     *            Another heap index
+     */
+    private void swap(int i, int j) {
+        int a = this.heap[i];
+        int b = this.heap[j];
+        this.heap[i] = b;
+        this.heap[j] = a;
+        this.position[b] = i;
+        this.position[a] = j;
+    }
+
+    /**
+     * Reports the number of kept words.
+     *
+     * @return The number of kept words
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Reports the kept word in slot {@code i}.
+     *
+     * @param i
+     *            A slot, from 0 to {@code size() - 1}
+     * @return The word in the slot
+     */
+    public String key(int i) {
+        return this.keys[i];
+    }
+
+    /**
+     * Reports the count of the kept word in slot {@code i}.
+     *
+     * @param i
+     *            A slot, from 0 to {@code size() - 1}
+     * @return The count of the word in the slot
+     */
+    public int count(int i) {
+        return this.counts[i];
+    }
+}
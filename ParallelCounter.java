@@ -0,0 +1,489 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Counts the tags of a file in parallel by splitting it into byte ranges that
+ * start and end on line boundaries, counting each range into its own map on a
+ * {@code ForkJoinPool} and merging the partial maps.
+ *
+ * <p>
+ * Ranges are split on {@code '\n'} bytes, so the charset must encode
+ * {@code '\n'} as a single byte that no other character uses (UTF-8, ASCII and
+ * the ISO-8859 family all do).
+ *
+ * @author Ben Elleman
+ *
+ */
+public final class ParallelCounter {
+
+    /**
+     * Private constructor so this utility class cannot be instantiated.
+     */
+    private ParallelCounter() {
+    }
+
+    /**
+     * Ranges handed out per worker, so a slow range does not idle the rest.
+     */
+    static final int RANGES_PER_WORKER = 4;
+
+    /**
+     * Smallest range worth counting on its own.
+     */
+    static final long MIN_RANGE = 1 << 16;
+
+    /**
+     * Size of the positional read buffer.
+     */
+    private static final int READ_BUFFER = 1 << 16;
+
+    /**
+     * Counts the tags in {@code file} using {@code workers} threads. The result
+     * is the same as reading the file with one {@code BufferedReader}.
+     *
+     * @param file
+     *            The file to count
+     * @param charset
+     *            The charset of the file
+     * @param workers
+     *            Number of threads to count with
+     * @return A map of every tag and the amount of times it occurs
+     * @throws IOException
+     *             If the file cannot be read
+     */
+    public static Map<String, Integer> count(Path file, Charset charset,
+            int workers) throws IOException {
+        return count(file, charset, workers, new Tokenizer(), null);
+    }
+
+    /**
+     * Counts the tags in {@code file} using {@code workers} threads, splitting
+     * lines with {@code tokenizer} and keeping the tags {@code filter}
+     * accepts.
+     *
+     * @param file
+     *            The file to count
+     * @param charset
+     *            The charset of the file
+     * @param workers
+     *            Number of threads to count with
+     * @param tokenizer
+     *            Splitter of lines into tags
+     * @param filter
+     *            Tags to count, or null for all of them
+     * @return A map of every tag and the amount of times it occurs
+     * @throws IOException
+     *             If the file cannot be read
+     */
+    public static Map<String, Integer> count(Path file, Charset charset,
+            int workers, Tokenizer tokenizer, TagFilter filter)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.READ)) {
+            List<long[]> ranges = split(channel, workers);
+            ForkJoinPool pool = new ForkJoinPool(workers);
+            try {
+                return pool.invoke(new CountTask(channel, charset,
+                        tokenizer, filter, ranges, 0, ranges.size()));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Splits {@code channel} into ranges that each end just after a
+     * {@code '\n'} or at the end of the file.
+     *
+     * @param channel
+     *            The file to split
+     * @param workers
+     *            Number of threads the ranges are for
+     * @return A list of {start, end} byte offsets
+     * @throws IOException
+     *             If the file cannot be read
+     */
+    private static List<long[]> split(FileChannel channel, int workers)
+            throws IOException {
+        long size = channel.size();
+        long target = Math.max(MIN_RANGE,
+                size / ((long) workers * RANGES_PER_WORKER) + 1);
+        List<long[]> ranges = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER);
+        long start = 0;
+        while (start < size) {
+            long end = lineEnd(channel, Math.min(size, start + target),
+                    size, buffer);
+            ranges.add(new long[] { start, end });
+            start = end;
+        }
+        return ranges;
+    }
+
+    /**
+     * Finds the offset just past the first {@code '\n'} at or after
+     * {@code from}.
+     *
+     * @param channel
+     *            The file to search
+     * @param from
+     *            Offset to start searching at
+     * @param size
+     *            Size of the file
+     * @param buffer
+     *            Scratch buffer for reading
+     * @return The offset after the line break, or {@code size} if there is
+     *         none
+     * @throws IOException
+     *             If the file cannot be read
+     */
+    static long lineEnd(FileChannel channel, long from, long size,
+            ByteBuffer buffer) throws IOException {
+        long position = from;
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    /**
+     * Counts a run of ranges, splitting it in half until one range is left.
+     */
+    private static final class CountTask
+            extends RecursiveTask<Map<String, Integer>> {
+
+        /**
+         * Serial version for {@code RecursiveTask}.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The file being counted.
+         */
+        private final transient FileChannel channel;
+
+        /**
+         * The charset of the file.
+         */
+        private final transient Charset charset;
+
+        /**
+         * Splitter of lines into tags.
+         */
+        private final transient Tokenizer tokenizer;
+
+        /**
+         * Tags to count, or null for all of them.
+         */
+        private final transient TagFilter filter;
+
+        /**
+         * All the ranges of the file.
+         */
+        private final transient List<long[]> ranges;
+
+        /**
+         * First range of this task.
+         */
+        private final int from;
+
+        /**
+         * One past the last range of this task.
+         */
+        private final int to;
+
+        /**
+         * Creates a task for {@code ranges[from, to)}.
+         *
+         * @param channel
+         *            The file being counted
+         * @param charset
+         *            The charset of the file
+         * @param tokenizer
+         *            Splitter of lines into tags
+         * @param filter
+         *            Tags to count, or null for all of them
+         * @param ranges
+         *            All the ranges of the file
+         * @param from
+         *            First range of this task
+         * @param to
+         *            One past the last range of this task
+         */
+        CountTask(FileChannel channel, Charset charset, Tokenizer tokenizer,
+                TagFilter filter, List<long[]> ranges, int from, int to) {
+            this.channel = channel;
+            this.charset = charset;
+            this.tokenizer = tokenizer;
+            this.filter = filter;
+            this.ranges = ranges;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Map<String, Integer> compute() {
+            if (this.to - this.from <= 1) {
+                if (this.to == this.from) {
+                    return new HashMap<>();
+                }
+                long[] range = this.ranges.get(this.from);
+                return countRange(this.channel, this.charset,
+                        this.tokenizer, this.filter, range[0], range[1]);
+            }
+            int middle = (this.from + this.to) >>> 1;
+            CountTask left = new CountTask(this.channel, this.charset,
+                    this.tokenizer, this.filter, this.ranges, this.from,
+                    middle);
+            left.fork();
+            Map<String, Integer> right = new CountTask(this.channel,
+                    this.charset, this.tokenizer, this.filter, this.ranges,
+                    middle, this.to).compute();
+            return merge(left.join(), right);
+        }
+    }
+
+    /**
+     * Counts the tags of {@code [start, end)} of a file. The range must start
+     * and end on line boundaries.
+     *
+     * @param channel
+     *            The file to read
+     * @param charset
+     *            The charset of the file
+     * @param start
+     *            First offset of the range
+     * @param end
+     *            Offset one past the range
+     * @return A map of every tag in the range and its count
+     */
+    static Map<String, Integer> countRange(FileChannel channel,
+            Charset charset, long start, long end) {
+        return countRange(channel, charset, new Tokenizer(), start, end);
+    }
+
+    /**
+     * Counts the tags of {@code [start, end)} of a file, splitting lines with
+     * {@code tokenizer}. The range must start and end on line boundaries.
+     *
+     * @param channel
+     *            The file to read
+     * @param charset
+     *            The charset of the file
+     * @param tokenizer
+     *            Splitter of lines into tags
+     * @param start
+     *            First offset of the range
+     * @param end
+     *            Offset one past the range
+     * @return A map of every tag in the range and its count
+     */
+    static Map<String, Integer> countRange(FileChannel channel,
+            Charset charset, Tokenizer tokenizer, long start, long end) {
+        return countRange(channel, charset, tokenizer, null, start, end);
+    }
+
+    /**
+     * Counts the tags of {@code [start, end)} of a file that {@code filter}
+     * accepts, splitting lines with {@code tokenizer}. The range must start
+     * and end on line boundaries.
+     *
+     * @param channel
+     *            The file to read
+     * @param charset
+     *            The charset of the file
+     * @param tokenizer
+     *            Splitter of lines into tags
+     * @param filter
+     *            Tags to count, or null for all of them
+     * @param start
+     *            First offset of the range
+     * @param end
+     *            Offset one past the range
+     * @return A map of every tag in the range and its count
+     * @throws UncheckedIOException
+     *             If the range cannot be read
+     */
+    static Map<String, Integer> countRange(FileChannel channel,
+            Charset charset, Tokenizer tokenizer, TagFilter filter,
+            long start, long end) {
+        return tagsInRange(channel, charset, tokenizer, filter, start, end)
+                .toMap();
+    }
+
+    /**
+     * Counts the tags of {@code [start, end)} of a file that {@code filter}
+     * accepts into a counter, splitting lines with {@code tokenizer}. The
+     * range must start and end on line boundaries.
+     *
+     * @param channel
+     *            The file to read
+     * @param charset
+     *            The charset of the file
+     * @param tokenizer
+     *            Splitter of lines into tags
+     * @param filter
+     *            Tags to count, or null for all of them
+     * @param start
+     *            First offset of the range
+     * @param end
+     *            Offset one past the range
+     * @return The counter holding the tags of the range
+     * @throws UncheckedIOException
+     *             If the range cannot be read
+     */
+    static WordCounter tagsInRange(FileChannel channel, Charset charset,
+            Tokenizer tokenizer, TagFilter filter, long start, long end) {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new RangeInputStream(channel, start, end), charset));
+        try {
+            return TCS2.countTags(new ReaderLineSource(reader), tokenizer,
+                    filter, null);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Adds the counts of the smaller map into the larger one.
+     *
+     * @param a
+     *            A partial count
+     * @param b
+     *            Another partial count
+     * @return The combined count
+     */
+    static Map<String, Integer> merge(Map<String, Integer> a,
+            Map<String, Integer> b) {
+        Map<String, Integer> into = a;
+        Map<String, Integer> from = b;
+        if (a.size() < b.size()) {
+            into = b;
+            from = a;
+        }
+        for (Map.Entry<String, Integer> e : from.entrySet()) {
+            into.merge(e.getKey(), e.getValue(), Integer::sum);
+        }
+        return into;
+    }
+
+    /**
+     * Reads {@code [start, end)} of a file with positional reads, so many
+     * streams can share one channel.
+     */
+    private static final class RangeInputStream extends InputStream {
+
+        /**
+         * The file being read.
+         */
+        private final FileChannel channel;
+
+        /**
+         * Buffered bytes of the range.
+         */
+        private final ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER);
+
+        /**
+         * Offset of the next byte to read from the file.
+         */
+        private long position;
+
+        /**
+         * Offset one past the range.
+         */
+        private final long end;
+
+        /**
+         * Creates a stream over {@code [start, end)} of {@code channel}.
+         *
+         * @param channel
+         *            The file to read
+         * @param start
+         *            First offset of the range
+         * @param end
+         *            Offset one past the range
+         */
+        RangeInputStream(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.position = start;
+            this.end = end;
+            this.buffer.limit(0);
+        }
+
+        /**
+         * Refills the buffer if it is empty.
+         *
+         * @return false if the range has been read
+         */
+        private boolean fill() {
+            if (this.buffer.hasRemaining()) {
+                return true;
+            }
+            if (this.position >= this.end) {
+                return false;
+            }
+            this.buffer.clear();
+            this.buffer.limit((int) Math.min(this.buffer.capacity(),
+                    this.end - this.position));
+            try {
+                int read = this.channel.read(this.buffer, this.position);
+                if (read <= 0) {
+                    this.buffer.limit(0);
+                    return false;
+                }
+                this.position += read;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            this.buffer.flip();
+            return true;
+        }
+
+        @Override
+        public int read() {
+            if (!this.fill()) {
+                return -1;
+            }
+            return this.buffer.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!this.fill()) {
+                return -1;
+            }
+            int n = Math.min(len, this.buffer.remaining());
+            this.buffer.get(b, off, n);
+            return n;
+        }
+    }
+}
@@ -0,0 +1,304 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Counts phrases of a fixed number of words over a sliding window of the
+ * words of a text. Words are interned in a {@link WordCounter}, and a phrase
+ * is stored as the ids of its words packed back to back in one {@code int}
+ * pool, in an open-addressing table like the word counter's own. A phrase
+ * therefore costs a few {@code int}s whatever the length of its words, and
+ * only becomes a {@code String}, its words joined by spaces, when the table
+ * is exported.
+ *
+ * <p>
+ * Words are fed in order with {@link #add(int)}; {@link #split()} marks a
+ * point no phrase may span, such as the end of a line or a word that was
+ * filtered out.
+ *
+ * @author Ben Elleman
+ *
+ */
+public final class PhraseCounter {
+
+    /**
+     * Largest fraction of the slots that may be used before the table grows.
+     */
+    private static final double LOAD_FACTOR = 0.6;
+
+    /**
+     * Largest array the table will allocate.
+     */
+    private static final int MAX_ARRAY = Integer.MAX_VALUE - 8;
+
+    /**
+     * Marks an empty slot.
+     */
+    private static final int EMPTY = -1;
+
+    /**
+     * The interned words.
+     */
+    private final WordCounter words;
+
+    /**
+     * Number of words in a phrase.
+     */
+    private final int length;
+
+    /**
+     * The last {@code length} words added, oldest first.
+     */
+    private final int[] window;
+
+    /**
+     * Number of words in {@code window} since the last split.
+     */
+    private int filled;
+
+    /**
+     * Slots of the hash table, holding phrase ids or {@code EMPTY}.
+     */
+    private int[] slots;
+
+    /**
+     * Hash of each phrase, by id.
+     */
+    private int[] hashes;
+
+    /**
+     * Count of each phrase, by id.
+     */
+    private int[] counts;
+
+    /**
+     * Word ids of every phrase, {@code length} per phrase, by phrase id.
+     */
+    private int[] pool;
+
+    /**
+     * Number of distinct phrases.
+     */
+    private int size;
+
+    /**
+     * Sum of all counts.
+     */
+    private long total;
+
+    /**
+     * Creates an empty counter of phrases of {@code length} words interned
+     * in {@code words}.
+     *
+     * @param words
+     *            The counter the words of the phrases are interned in
+     * @param length
+     *            Number of words in a phrase, at least one
+     */
+    public PhraseCounter(WordCounter words, int length) {
+        if (length < 1) {
+            throw new IllegalArgumentException(
+                    "A phrase needs at least one word");
+        }
+        this.words = words;
+        this.length = length;
+        this.window = new int[length];
+        int capacity = 16;
+        this.slots = new int[capacity * 2];
+        Arrays.fill(this.slots, EMPTY);
+        this.hashes = new int[capacity];
+        this.counts = new int[capacity];
+        this.pool = new int[capacity * length];
+    }
+
+    /**
+     * Adds the word {@code id} to the window, counting the phrase it ends
+     * once the window holds enough words.
+     *
+     * @param id
+     *            Id of the word in the word counter
+     */
+    public void add(int id) {
+        if (this.filled < this.length) {
+            this.window[this.filled++] = id;
+        } else {
+            System.arraycopy(this.window, 1, this.window, 0,
+                    this.length - 1);
+            this.window[this.length - 1] = id;
+        }
+        if (this.filled == this.length) {
+            int phrase = this.idOf(this.window);
+            this.counts[phrase]++;
+            this.total++;
+        }
+    }
+
+    /**
+     * Empties the window, so the next phrase starts with the next word.
+     */
+    public void split() {
+        this.filled = 0;
+    }
+
+    /**
+     * Finds the id of the phrase {@code ids}, adding it with a count of zero
+     * if it is new.
+     *
+     * @param ids
+     *            Word ids of the phrase
+     * @return The id of the phrase
+     */
+    private int idOf(int[] ids) {
+        int h = 0;
+        for (int id : ids) {
+            h = 31 * h + id;
+        }
+        h = WordCounter.mix(h);
+        int mask = this.slots.length - 1;
+        int slot = h & mask;
+        int phrase = this.slots[slot];
+        while (phrase != EMPTY) {
+            if (this.hashes[phrase] == h && this.matches(phrase, ids)) {
+                return phrase;
+            }
+            slot = (slot + 1) & mask;
+            phrase = this.slots[slot];
+        }
+        phrase = this.append(ids, h);
+        this.slots[slot] = phrase;
+        if (this.size > this.slots.length * LOAD_FACTOR) {
+            this.rehash(this.slots.length * 2);
+        }
+        return phrase;
+    }
+
+    /**
+     * Reports whether phrase {@code phrase} is made of the words {@code ids}.
+     *
+     * @param phrase
+     *            Id of a phrase
+     * @param ids
+     *            Word ids of the other phrase
+     * @return true if the phrases are equal
+     */
+    private boolean matches(int phrase, int[] ids) {
+        int offset = phrase * this.length;
+        for (int i = 0; i < this.length; i++) {
+            if (this.pool[offset + i] != ids[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stores a new phrase with a count of zero.
+     *
+     * @param ids
+     *            Word ids of the phrase
+     * @param hash
+     *            Hash of the phrase
+     * @return The id of the new phrase
+     */
+    private int append(int[] ids, int hash) {
+        int phrase = this.size;
+        if (phrase == this.counts.length) {
+            int capacity = (int) Math.min(MAX_ARRAY / this.length,
+                    2L * phrase);
+            this.hashes = Arrays.copyOf(this.hashes, capacity);
+            this.counts = Arrays.copyOf(this.counts, capacity);
+            this.pool = Arrays.copyOf(this.pool, capacity * this.length);
+        }
+        System.arraycopy(ids, 0, this.pool, phrase * this.length,
+                this.length);
+        this.hashes[phrase] = hash;
+        this.size++;
+        return phrase;
+    }
+
+    /**
+     * Rebuilds the slot table with {@code capacity} slots.
+     *
+     * @param capacity
+     *            The new number of slots, a power of two
+     */
+    private void rehash(int capacity) {
+        int[] table = new int[capacity];
+        Arrays.fill(table, EMPTY);
+        int mask = capacity - 1;
+        for (int phrase = 0; phrase < this.size; phrase++) {
+            int slot = this.hashes[phrase] & mask;
+            while (table[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = phrase;
+        }
+        this.slots = table;
+    }
+
+    /**
+     * Makes a {@code String} of phrase {@code phrase}, its words joined by
+     * single spaces.
+     *
+     * @param phrase
+     *            Id of a phrase
+     * @param out
+     *            A builder to reuse
+     * @return The phrase
+     */
+    private String key(int phrase, StringBuilder out) {
+        out.setLength(0);
+        int offset = phrase * this.length;
+        for (int i = 0; i < this.length; i++) {
+            if (i > 0) {
+                out.append(' ');
+            }
+            this.words.appendKey(this.pool[offset + i], out);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Reports the number of distinct phrases.
+     *
+     * @return The number of distinct phrases
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Reports the number of phrases counted, including repeats.
+     *
+     * @return The sum of all counts
+     */
+    public long total() {
+        return this.total;
+    }
+
+    /**
+     * Copies the table into a {@code HashMap}, making a {@code String} of each
+     * phrase.
+     *
+     * @return A map of every phrase and its count
+     */
+    public Map<String, Integer> toMap() {
+        Map<String, Integer> map = new HashMap<>(
+                (int) (this.size / 0.75f) + 1);
+        StringBuilder out = new StringBuilder();
+        for (int phrase = 0; phrase < this.size; phrase++) {
+            map.put(this.key(phrase, out), this.counts[phrase]);
+        }
+        return map;
+    }
+
+    /**
+     * Estimates the heap used by the table's arrays, not counting the words.
+     *
+     * @return Estimated size in bytes
+     */
+    public long estimatedBytes() {
+        return 4L * ((long) this.slots.length + this.hashes.length
+                + this.counts.length + this.pool.length);
+    }
+}
@@ -0,0 +1,205 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads another stream ahead on its own thread, so the work of producing the
+ * bytes, such as decompressing them, overlaps with the work of the reader.
+ * The two threads pass a fixed set of buffers back and forth through two
+ * bounded queues, so the read-ahead holds at most {@link #DEPTH} buffers and
+ * allocates nothing after it starts.
+ *
+ * @author Ben Elleman
+ *
+ */
+public final class PrefetchInputStream extends InputStream {
+
+    /**
+     * Number of buffers that can be filled ahead of the reader.
+     */
+    static final int DEPTH = 4;
+
+    /**
+     * A buffer and how much of it holds data.
+     */
+    private static final class Chunk {
+
+        /**
+         * The bytes.
+         */
+        private final byte[] data;
+
+        /**
+         * Number of bytes read into {@code data}, or -1 at the end of the
+         * stream.
+         */
+        private int length;
+
+        /**
+         * Creates an empty chunk.
+         *
+         * @param size
+         *            Size of the buffer
+         */
+        Chunk(int size) {
+            this.data = new byte[size];
+        }
+    }
+
+    /**
+     * Chunks filled by the reading thread, in order.
+     */
+    private final BlockingQueue<Chunk> full;
+
+    /**
+     * Chunks ready to be filled again.
+     */
+    private final BlockingQueue<Chunk> free;
+
+    /**
+     * The thread reading the source.
+     */
+    private final Thread reader;
+
+    /**
+     * Error the source failed with, or null.
+     */
+    private volatile IOException error;
+
+    /**
+     * Chunk being read, or null before the first read.
+     */
+    private Chunk current;
+
+    /**
+     * Position in {@code current}.
+     */
+    private int position;
+
+    /**
+     * Starts reading {@code source} ahead in buffers of {@code size} bytes.
+     * The source is closed when it is exhausted or this stream is closed.
+     *
+     * @param source
+     *            The stream to read
+     * @param size
+     *            Size of each buffer
+     */
+    public PrefetchInputStream(InputStream source, int size) {
+        this.full = new ArrayBlockingQueue<>(DEPTH + 1);
+        this.free = new ArrayBlockingQueue<>(DEPTH + 1);
+        for (int i = 0; i < DEPTH; i++) {
+            this.free.add(new Chunk(size));
+        }
+        this.reader = new Thread(() -> this.fill(source), "prefetch");
+        this.reader.setDaemon(true);
+        this.reader.start();
+    }
+
+    /**
+     * Reads {@code source} into free chunks until it ends, fails, or the
+     * reading thread is interrupted.
+     *
+     * @param source
+     *            The stream to read
+     */
+    private void fill(InputStream source) {
+        try (InputStream in = source) {
+            while (true) {
+                Chunk chunk = this.free.take();
+                int n = 0;
+                int read = 0;
+                while (n < chunk.data.length && read >= 0) {
+                    read = in.read(chunk.data, n, chunk.data.length - n);
+                    n += Math.max(read, 0);
+                }
+                if (n > 0) {
+                    chunk.length = n;
+                    this.full.put(chunk);
+                }
+                if (read < 0) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            this.error = e;
+        } catch (UncheckedIOException e) {
+            this.error = e.getCause();
+        } catch (RuntimeException e) {
+            this.error = new IOException(e);
+        } catch (InterruptedException e) {
+            return;
+        }
+        //An empty chunk marks the end
+        Chunk end = new Chunk(0);
+        end.length = -1;
+        this.full.add(end);
+    }
+
+    /**
+     * Moves to the next filled chunk, returning the one read to the free
+     * queue.
+     *
+     * @return false at the end of the stream
+     * @throws IOException
+     *             If the source failed or the wait was interrupted
+     */
+    private boolean advance() throws IOException {
+        if (this.current == null || this.current.length >= 0) {
+            if (this.current != null) {
+                this.free.add(this.current);
+            }
+            try {
+                this.current = this.full.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            this.position = 0;
+        }
+        if (this.current.length < 0) {
+            if (this.error != null) {
+                throw this.error;
+            }
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (this.current == null || this.position >= this.current.length) {
+            if (!this.advance()) {
+                return -1;
+            }
+        }
+        return this.current.data[this.position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (this.current == null || this.position >= this.current.length) {
+            if (!this.advance()) {
+                return -1;
+            }
+        }
+        int n = Math.min(len, this.current.length - this.position);
+        System.arraycopy(this.current.data, this.position, b, off, n);
+        this.position += n;
+        return n;
+    }
+
+    /**
+     * Stops the reading thread, which closes the source.
+     */
+    @Override
+    public void close() {
+        this.reader.interrupt();
+    }
+}
@@ -0,0 +1,139 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * Reads lines from a {@code Reader} into one reused {@code char} buffer, so
+ * unlike {@code BufferedReader.readLine} no {@code String} is created per
+ * line.
+ *
+ * <p>
+ * Lines end at {@code '\n'}; a {@code '\r'} before it is dropped. A lone
+ * {@code '\r'} stays in the line, which the tokenizer treats as a separator
+ * anyway.
+ *
+ * @author Ben Elleman
+ *
+ */
+public final class ReaderLineSource implements LineSource {
+
+    /**
+     * Initial size of the buffer.
+     */
+    static final int BUFFER = 1 << 13;
+
+    /**
+     * The input.
+     */
+    private final Reader in;
+
+    /**
+     * Characters read but not yet returned, in {@code [position, limit)}.
+     */
+    private char[] chars = new char[BUFFER];
+
+    /**
+     * View of {@code chars} handed out as the current line.
+     */
+    private CharBuffer line = CharBuffer.wrap(this.chars);
+
+    /**
+     * Start of the next line in {@code chars}.
+     */
+    private int position;
+
+    /**
+     * End of the characters read into {@code chars}.
+     */
+    private int limit;
+
+    /**
+     * Whether the reader is exhausted.
+     */
+    private boolean eof;
+
+    /**
+     * Reads lines from {@code in}.
+     *
+     * @param in
+     *            The input
+     */
+    public ReaderLineSource(Reader in) {
+        this.in = in;
+    }
+
+    @Override
+    public CharSequence nextLine() throws IOException {
+        int scan = this.position;
+        while (true) {
+            for (int i = scan; i < this.limit; i++) {
+                if (this.chars[i] == '\n') {
+                    return this.line(this.position, i, i + 1);
+                }
+            }
+            scan = this.limit;
+            if (this.eof) {
+                if (this.position == this.limit) {
+                    return null;
+                }
+                return this.line(this.position, this.limit, this.limit);
+            }
+            scan -= this.fill();
+        }
+    }
+
+    /**
+     * Reads more characters, first moving the unread ones to the front of the
+     * buffer and growing it if it is full.
+     *
+     * @return How far the unread characters moved towards the front
+     * @throws IOException
+     *             If the input cannot be read
+     */
+    private int fill() throws IOException {
+        int shift = this.position;
+        if (shift > 0) {
+            System.arraycopy(this.chars, shift, this.chars, 0,
+                    this.limit - shift);
+            this.limit -= shift;
+            this.position = 0;
+        }
+        if (this.limit == this.chars.length) {
+            this.chars = Arrays.copyOf(this.chars, 2 * this.chars.length);
+            this.line = CharBuffer.wrap(this.chars);
+        }
+        int read = this.in.read(this.chars, this.limit,
+                this.chars.length - this.limit);
+        if (read < 0) {
+            this.eof = true;
+        } else {
+            this.limit += read;
+        }
+        return shift;
+    }
+
+    /**
+     * Returns {@code chars[start, end)} as the current line, without a
+     * trailing {@code '\r'}, and moves past it.
+     *
+     * @param start
+     *            Start of the line
+     * @param end
+     *            End of the line, before its terminator
+     * @param next
+     *            Start of the following line
+     * @return The line
+     */
+    private CharSequence line(int start, int end, int next) {
+        this.position = next;
+        int stop = end;
+        if (stop > start && this.chars[stop - 1] == '\r') {
+            stop--;
+        }
+        this.line.clear();
+        this.line.position(start);
+        this.line.limit(stop);
+        return this.line;
+    }
+}
@@ -0,0 +1,293 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Counts a corpus as independent shards and merges the partial counts, so
+ * the map step can run on many processes or machines and the reduce step on
+ * one. Each shard writes its counts as a {@link CountTable}; the merge reads
+ * any number of tables with a k-way merge over their sorted vocabularies and
+ * writes the combined table, which can be merged again or rendered.
+ * <p>
+ * On one machine, with four processes:
+ *
+ * <pre>
+ * for i in 0 1 2 3; do
+ *     java ShardCounter count corpus.txt $i 4 part$i.wct &amp;
+ * done; wait
+ * java ShardCounter merge all.wct part*.wct --html cloud.html --size 100
+ * </pre>
+ *
+ * @author Ben Elleman
+ *
+ */
+public final class ShardCounter {
+
+    /**
+     * Private constructor so this utility class cannot be instantiated.
+     */
+    private ShardCounter() {
+    }
+
+    /**
+     * Size of the buffer used to find line boundaries.
+     */
+    private static final int SCAN_BUFFER = 1 << 16;
+
+    /**
+     * Cloud size used when a merge gives none.
+     */
+    static final int DEFAULT_SIZE = 100;
+
+    /**
+     * Main method.
+     *
+     * @param args
+     *            {@code count FILE SHARD SHARDS OUT} to count one shard of
+     *            FILE, or {@code merge OUT PARTIAL... [--html FILE] [--size N]}
+     *            to merge partial tables and optionally render the result
+     */
+    public static void main(String[] args) {
+        try {
+            if (args.length == 5 && args[0].equals("count")) {
+                int shard = Integer.parseInt(args[2]);
+                int shards = Integer.parseInt(args[3]);
+                if (shards < 1 || shard < 0 || shard >= shards) {
+                    System.out.println("Shard must be in [0, SHARDS).");
+                    return;
+                }
+                CountTable.write(countShard(Paths.get(args[1]),
+                        Charset.defaultCharset(), shard, shards),
+                        Paths.get(args[4]));
+            } else if (args.length >= 3 && args[0].equals("merge")) {
+                String html = null;
+                int cloudSize = DEFAULT_SIZE;
+                List<CountTable> parts = new ArrayList<>();
+                for (int i = 2; i < args.length; i++) {
+                    if (args[i].equals("--html") && i + 1 < args.length) {
+                        i++;
+                        html = args[i];
+                    } else if (args[i].equals("--size")
+                            && i + 1 < args.length) {
+                        i++;
+                        cloudSize = Integer.parseInt(args[i]);
+                    } else {
+                        parts.add(CountTable.open(Paths.get(args[i])));
+                    }
+                }
+                Path merged = Paths.get(args[1]);
+                merge(parts, merged);
+                if (html != null) {
+                    try (PrintWriter output = new PrintWriter(
+                            Files.newBufferedWriter(Paths.get(html),
+                                    Charset.defaultCharset()))) {
+                        CloudPipeline.render(output, merged.toString(),
+                                cloudSize, CloudPipeline.reduce(
+                                        CountTable.open(merged), cloudSize));
+                    }
+                }
+            } else {
+                System.out.println("Usage: ShardCounter count FILE SHARD "
+                        + "SHARDS OUT | merge OUT PARTIAL... [--html FILE] "
+                        + "[--size N]");
+                return;
+            }
+            //Confirmation message
+            System.out.println("File successfully generated");
+        } catch (NumberFormatException e) {
+            System.out.println("You must provide a valid number.");
+        } catch (IOException e) {
+            System.out.println("Not a valid input/output.");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Counts shard {@code shard} of {@code shards} of {@code file}. The file
+     * is cut into equal byte ranges moved forward to the next line boundary,
+     * so every line belongs to exactly one shard and the shards together
+     * count the whole file.
+     *
+     * @param file
+     *            The file to count
+     * @param charset
+     *            The charset of the file, which must encode {@code '\n'} as
+     *            a single byte no other character uses
+     * @param shard
+     *            Index of the shard, from 0
+     * @param shards
+     *            Number of shards
+     * @return A map of every tag of the shard and its count
+     * @throws IOException
+     *             If the file cannot be read
+     */
+    static Map<String, Integer> countShard(Path file, Charset charset,
+            int shard, int shards) throws IOException {
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER);
+            long start = boundary(channel, size, shard, shards, buffer);
+            long end = boundary(channel, size, shard + 1, shards, buffer);
+            return ParallelCounter.countRange(channel, charset, start, end);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Returns where shard {@code shard} starts: the first line boundary at or
+     * after its share of the file.
+     *
+     * @param channel
+     *            The file
+     * @param size
+     *            Size of the file
+     * @param shard
+     *            Index of the shard, from 0 to {@code shards}
+     * @param shards
+     *            Number of shards
+     * @param buffer
+     *            Scratch buffer for reading
+     * @return The start offset of the shard
+     * @throws IOException
+     *             If the file cannot be read
+     */
+    private static long boundary(FileChannel channel, long size, int shard,
+            int shards, ByteBuffer buffer) throws IOException {
+        if (shard == 0) {
+            return 0;
+        }
+        if (shard == shards) {
+            return size;
+        }
+        long from = size / shards * shard
+                + size % shards * shard / shards;
+        if (from == 0) {
+            return 0;
+        }
+        //A line that starts exactly at from belongs to this shard
+        return ParallelCounter.lineEnd(channel, from - 1, size, buffer);
+    }
+
+    /**
+     * A partial table during the merge, positioned at its next tag.
+     */
+    private static final class Head implements Comparable<Head> {
+
+        /**
+         * The partial table.
+         */
+        private final CountTable.Cursor cursor;
+
+        /**
+         * Its current tag.
+         */
+        private String tag;
+
+        /**
+         * Creates a head at the first tag of {@code cursor}.
+         *
+         * @param cursor
+         *            A cursor that has been moved to its first tag
+         */
+        Head(CountTable.Cursor cursor) {
+            this.cursor = cursor;
+            this.tag = cursor.tag();
+        }
+
+        /**
+         * Moves to the next tag.
+         *
+         * @return false if the table is exhausted
+         */
+        boolean advance() {
+            if (!this.cursor.next()) {
+                return false;
+            }
+            this.tag = this.cursor.tag();
+            return true;
+        }
+
+        @Override
+        public int compareTo(Head other) {
+            return this.tag.compareTo(other.tag);
+        }
+    }
+
+    /**
+     * Merges partial count tables into one, adding the counts of tags that
+     * appear in several. The tables are read in step, so memory use depends
+     * on the number of tables and not on their size.
+     *
+     * @param parts
+     *            The partial tables
+     * @param file
+     *            Where to write the merged table
+     * @throws IOException
+     *             If the merged table cannot be written, or a count
+     *             overflows
+     */
+    static void merge(List<CountTable> parts, Path file) throws IOException {
+        PriorityQueue<Head> heads = new PriorityQueue<>();
+        for (CountTable part : parts) {
+            CountTable.Cursor cursor = part.cursor();
+            if (cursor.next()) {
+                heads.add(new Head(cursor));
+            }
+        }
+        try (CountTable.Writer out = new CountTable.Writer(file)) {
+            try {
+                mergeInto(heads, out);
+            } catch (IOException | RuntimeException e) {
+                out.discard();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Writes the merged tags of {@code heads} to {@code out}.
+     *
+     * @param heads
+     *            The partial tables, ordered by their current tag
+     * @param out
+     *            The merged table
+     * @throws IOException
+     *             If the merged table cannot be written, or a count
+     *             overflows
+     */
+    private static void mergeInto(PriorityQueue<Head> heads,
+            CountTable.Writer out) throws IOException {
+        while (!heads.isEmpty()) {
+            Head head = heads.poll();
+            String tag = head.tag;
+            long count = 0;
+            while (true) {
+                count += head.cursor.count();
+                if (head.advance()) {
+                    heads.add(head);
+                }
+                if (heads.isEmpty() || !heads.peek().tag.equals(tag)) {
+                    break;
+                }
+                head = heads.poll();
+            }
+            if (count > Integer.MAX_VALUE) {
+                throw new IOException("Count of " + tag + " overflows");
+            }
+            out.add(tag, (int) count);
+        }
+    }
+}
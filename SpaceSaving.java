@@ -0,0 +1,270 @@
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Approximate word counts in bounded memory using the Space-Saving algorithm
+ * (Metwally, Agrawal and El Abbadi). At most {@code ceil(1 / epsilon)} words
+ * are monitored at once; when a new word arrives and the table is full, it
+ * replaces the word with the smallest count and inherits that count as its
+ * error.
+ *
+ * <p>
+ * For every monitored word {@code count - error <= true count <= count}, every
+ * error is at most {@code epsilon * N} for {@code N} words seen, and every word
+ * occurring more than {@code epsilon * N} times is monitored. The bounds are
+ * deterministic, so there is no confidence parameter.
+ *
+ * @author Ben Elleman
+ *
+ */
+public final class SpaceSaving {
+
+    /**
+     * Smallest error accepted, as a fraction of the words seen: a million
+     * monitored words, on the order of 100 MB of slots and index.
+     */
+    static final double MIN_EPSILON = 1e-6;
+
+    /**
+     * The monitored words, by slot.
+     */
+    private final String[] keys;
+
+    /**
+     * Estimated count of each slot.
+     */
+    private final int[] counts;
+
+    /**
+     * Largest overestimate of each slot's count.
+     */
+    private final int[] errors;
+
+    /**
+     * Min-heap of slots ordered by count.
+     */
+    private final int[] heap;
+
+    /**
+     * Position of each slot in {@code heap}.
+     */
+    private final int[] position;
+
+    /**
+     * Slot of each monitored word.
+     */
+    private final Map<String, Integer> index;
+
+    /**
+     * Number of monitored words.
+     */
+    private int size;
+
+    /**
+     * Number of words seen.
+     */
+    private long total;
+
+    /**
+     * Creates a sketch whose errors are at most {@code epsilon} times the
+     * number of words seen.
+     *
+     * @param epsilon
+     *            Largest error as a fraction of the words seen, from
+     *            {@code MIN_EPSILON} to 1
+     * @throws IllegalArgumentException
+     *             If {@code epsilon} is out of range
+     */
+    public SpaceSaving(double epsilon) {
+        this(capacity(epsilon));
+    }
+
+    /**
+     * Creates a sketch monitoring at most {@code capacity} words.
+     *
+     * @param capacity
+     *            Number of words to monitor
+     */
+    public SpaceSaving(int capacity) {
+        this.keys = new String[capacity];
+        this.counts = new int[capacity];
+        this.errors = new int[capacity];
+        this.heap = new int[capacity];
+        this.position = new int[capacity];
+        this.index = new HashMap<>((int) (capacity / 0.75f) + 1);
+    }
+
+    /**
+     * Returns the number of words to monitor for errors of at most
+     * {@code epsilon} times the words seen.
+     *
+     * @param epsilon
+     *            Largest error as a fraction of the words seen
+     * @return The capacity
+     * @throws IllegalArgumentException
+     *             If {@code epsilon} is not from {@code MIN_EPSILON} to 1
+     */
+    static int capacity(double epsilon) {
+        //Also rejects NaN
+        if (!(epsilon >= MIN_EPSILON && epsilon <= 1)) {
+            throw new IllegalArgumentException("EPSILON must be from "
+                    + MIN_EPSILON + " to 1: " + epsilon);
+        }
+        return (int) Math.ceil(1 / epsilon);
+    }
+
+    /**
+     * Counts one occurrence of {@code word}.
+     *
+     * @param word
+     *            The word seen
+     */
+    public void offer(String word) {
+        this.total++;
+        Integer slot = this.index.get(word);
+        if (slot != null) {
+            this.counts[slot]++;
+            this.siftDown(this.position[slot]);
+        } else if (this.size < this.keys.length) {
+            int s = this.size;
+            this.keys[s] = word;
+            this.counts[s] = 1;
+            this.errors[s] = 0;
+            this.heap[s] = s;
+            this.position[s] = s;
+            this.size++;
+            this.index.put(word, s);
+            this.siftUp(s);
+        } else {
+            int s = this.heap[0];
+            this.index.remove(this.keys[s]);
+            this.keys[s] = word;
+            this.errors[s] = this.counts[s];
+            this.counts[s]++;
+            this.index.put(word, s);
+            this.siftDown(0);
+        }
+    }
+
+    /**
+     * Moves the slot at heap index {@code i} up to its place.
+     *
+     * @param i
+     *            Heap index of the slot
+     */
+    private void siftUp(int i) {
+        int child = i;
+        while (child > 0) {
+            int parent = (child - 1) / 2;
+            if (!this.less(child, parent)) {
+                break;
+            }
+            this.swap(parent, child);
+            child = parent;
+        }
+    }
+
+    /**
+     * Moves the slot at heap index {@code i} down to its place.
+     *
+     * @param i
+     *            Heap index of the slot
+     */
+    private void siftDown(int i) {
+        int parent = i;
+        while (true) {
+            int smallest = parent;
+            int left = 2 * parent + 1;
+            int right = left + 1;
+            if (left < this.size && this.less(left, smallest)) {
+                smallest = left;
+            }
+            if (right < this.size && this.less(right, smallest)) {
+                smallest = right;
+            }
+            if (smallest == parent) {
+                break;
+            }
+            this.swap(parent, smallest);
+            parent = smallest;
+        }
+    }
+
+    /**
+     * Reports whether heap index {@code i} has a smaller count than {@code j}.
+     *
+     * @param i
+     *            A heap index
+     * @param j
+     *            Another heap index
+     * @return true if the count at {@code i} is smaller
+     */
+    private boolean less(int i, int j) {
+        return this.counts[this.heap[i]] < this.counts[this.heap[j]];
+    }
+
+    /**
+     * Swaps heap indices {@code i} and {@code j}.
+     *
+     * @param i
+     *            A heap index
+     * @param j
+     *            Another heap index
+     */
+    private void swap(int i, int j) {
+        int a = this.heap[i];
+        int b = this.heap[j];
+        this.heap[i] = b;
+        this.heap[j] = a;
+        this.position[b] = i;
+        this.position[a] = j;
+    }
+
+    /**
+     * Reports the number of words seen.
+     *
+     * @return The number of words seen
+     */
+    public long total() {
+        return this.total;
+    }
+
+    /**
+     * Reports the largest error any count can have.
+     *
+     * @return The smallest monitored count once the table is full, else 0
+     */
+    public int maxError() {
+        if (this.size < this.keys.length) {
+            return 0;
+        }
+        return this.counts[this.heap[0]];
+    }
+
+    /**
+     * Copies the estimated counts of the monitored words.
+     *
+     * @return A map of every monitored word and its estimated count
+     */
+    public Map<String, Integer> counts() {
+        Map<String, Integer> map = new HashMap<>();
+        for (int s = 0; s < this.size; s++) {
+            map.put(this.keys[s], this.counts[s]);
+        }
+        return map;
+    }
+
+    /**
+     * Copies the errors of the monitored words.
+     *
+     * @return A map of every monitored word and how much its count may be too
+     *         high
+     */
+    public Map<String, Integer> errors() {
+        Map<String, Integer> map = new HashMap<>();
+        for (int s = 0; s < this.size; s++) {
+            map.put(this.keys[s], this.errors[s]);
+        }
+        return map;
+    }
+}
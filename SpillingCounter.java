@@ -0,0 +1,112 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Counts a corpus whose vocabulary may not fit in memory. Tags are counted in
+ * a {@link WordCounter} until it holds more than a byte budget; its counts
+ * are then sorted and written to disk as a run, a {@link CountTable}, and the
+ * counter is emptied. At the end the runs are combined with the k-way merge
+ * of {@link ShardCounter} into one table, which the top-K step reads
+ * straight from its mapping. The heap used stays within a small multiple of
+ * the budget however many distinct tags there are.
+ *
+ * @author Ben Elleman
+ *
+ */
+public final class SpillingCounter {
+
+    /**
+     * Private constructor so this utility class cannot be instantiated.
+     */
+    private SpillingCounter() {
+    }
+
+    /**
+     * Counts the tags of {@code inFile} that {@code filter} accepts into a
+     * count table at {@code table}, spilling to runs beside it whenever the
+     * counts in memory pass {@code budget} bytes.
+     *
+     * @param inFile
+     *            The source of lines
+     * @param tokenizer
+     *            Splitter of lines into tags
+     * @param filter
+     *            Tags to count, or null for all of them
+     * @param budget
+     *            Largest size of the counts held in memory, in bytes
+     * @param table
+     *            Where to write the table of every tag and its count
+     * @return The table
+     * @throws IOException
+     *             If the input cannot be read or a table cannot be written
+     */
+    public static CountTable count(LineSource inFile, Tokenizer tokenizer,
+            TagFilter filter, long budget, Path table) throws IOException {
+        WordCounter tags = new WordCounter();
+        Normalizer counter = new Normalizer(tags, filter);
+        Path dir = table.toAbsolutePath().getParent();
+        List<Path> runs = new ArrayList<>();
+        try {
+            CharSequence line = inFile.nextLine();
+            while (line != null) {
+                tokenizer.tokenize(line, counter);
+                if (tags.usedBytes() > budget) {
+                    Path run = Files.createTempFile(dir,
+                            table.getFileName().toString(), ".run");
+                    runs.add(run);
+                    spill(tags, run);
+                    tags.clear();
+                }
+                line = inFile.nextLine();
+            }
+            if (runs.isEmpty()) {
+                spill(tags, table);
+            } else {
+                if (tags.size() > 0) {
+                    Path run = Files.createTempFile(dir,
+                            table.getFileName().toString(), ".run");
+                    runs.add(run);
+                    spill(tags, run);
+                }
+                List<CountTable> parts = new ArrayList<>();
+                for (Path run : runs) {
+                    parts.add(CountTable.open(run));
+                }
+                ShardCounter.merge(parts, table);
+            }
+        } finally {
+            for (Path run : runs) {
+                Files.deleteIfExists(run);
+            }
+        }
+        return CountTable.open(table);
+    }
+
+    /**
+     * Writes the counts of {@code tags} to {@code file} as a count table.
+     *
+     * @param tags
+     *            The counts
+     * @param file
+     *            Where to write them
+     * @throws IOException
+     *             If the table cannot be written
+     */
+    static void spill(WordCounter tags, Path file)
+            throws IOException {
+        String[] words = new String[tags.size()];
+        for (int id = 0; id < words.length; id++) {
+            words[id] = tags.key(id);
+        }
+        Arrays.sort(words);
+        try (CountTable.Writer out = new CountTable.Writer(file)) {
+            for (String word : words) {
+                out.add(word, tags.count(word));
+            }
+        }
+    }
+}
@@ -0,0 +1,178 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * A fixed set of lowercase words that should never become tags. The set is
+ * an open-addressing table built once and probed with the {@code String}
+ * hash of a word, which {@link Normalizer} has already computed while
+ * lowercasing it, so checking a tag costs one multiply and usually a single
+ * comparison, and never creates an object.
+ *
+ * @author Ben Elleman
+ *
+ */
+public final class StopWords {
+
+    /**
+     * Marks an empty slot.
+     */
+    private static final int EMPTY = -1;
+
+    /**
+     * Slots of the table, holding word ids or {@code EMPTY}.
+     */
+    private final int[] slots;
+
+    /**
+     * The words, by id.
+     */
+    private final String[] words;
+
+    /**
+     * {@code String} hash of each word, by id.
+     */
+    private final int[] hashes;
+
+    /**
+     * Creates a set of the given words, lowercased.
+     *
+     * @param words
+     *            The stop words
+     */
+    public StopWords(Collection<String> words) {
+        Set<String> distinct = new LinkedHashSet<>();
+        for (String w : words) {
+            distinct.add(w.toLowerCase());
+        }
+        this.words = distinct.toArray(new String[0]);
+        this.hashes = new int[this.words.length];
+        //At most half full, so a probe rarely goes past its first slot
+        int size = Integer.highestOneBit(Math.max(1, this.words.length)) * 4;
+        this.slots = new int[size];
+        Arrays.fill(this.slots, EMPTY);
+        for (int id = 0; id < this.words.length; id++) {
+            this.hashes[id] = this.words[id].hashCode();
+            int slot = WordCounter.mix(this.hashes[id]) & (size - 1);
+            while (this.slots[slot] != EMPTY) {
+                slot = (slot + 1) & (size - 1);
+            }
+            this.slots[slot] = id;
+        }
+    }
+
+    /**
+     * Loads stop words from a file with one word per line. Blank lines and
+     * lines starting with {@code '#'} are skipped, and surrounding whitespace
+     * is ignored.
+     *
+     * @param file
+     *            The file to read
+     * @param charset
+     *            The charset of the file
+     * @return The stop words
+     * @throws IOException
+     *             If the file cannot be read
+     */
+    public static StopWords load(Path file, Charset charset)
+            throws IOException {
+        List<String> words = new ArrayList<>();
+        try (BufferedReader in = Files.newBufferedReader(file, charset)) {
+            String line = in.readLine();
+            while (line != null) {
+                String word = line.trim();
+                if (!word.isEmpty() && word.charAt(0) != '#') {
+                    words.add(word);
+                }
+                line = in.readLine();
+            }
+        }
+        return new StopWords(words);
+    }
+
+    /**
+     * Reports whether {@code text[start, end)} is a stop word.
+     *
+     * @param text
+     *            The text holding the word, already lowercased
+     * @param start
+     *            First character of the word
+     * @param end
+     *            One past the last character of the word
+     * @param stringHash
+     *            The word's {@code String.hashCode()}
+     * @return true if the word is in the set
+     */
+    public boolean contains(CharSequence text, int start, int end,
+            int stringHash) {
+        int mask = this.slots.length - 1;
+        int slot = WordCounter.mix(stringHash) & mask;
+        int length = end - start;
+        for (int id = this.slots[slot]; id != EMPTY; id = this.slots[slot]) {
+            String word = this.words[id];
+            if (this.hashes[id] == stringHash && word.length() == length
+                    && matches(word, text, start)) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Reports whether {@code text} holds {@code word} at {@code start}.
+     *
+     * @param word
+     *            The word to look for
+     * @param text
+     *            The text to look in, with room for the word
+     * @param start
+     *            Where the word would start
+     * @return true if the characters match
+     */
+    private static boolean matches(String word, CharSequence text,
+            int start) {
+        for (int i = 0; i < word.length(); i++) {
+            if (word.charAt(i) != text.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of stop words.
+     *
+     * @return The size of the set
+     */
+    public int size() {
+        return this.words.length;
+    }
+
+    /**
+     * Returns a checksum of the stop words that does not depend on their
+     * order.
+     *
+     * @return The CRC-32 of the sorted words
+     */
+    public long checksum() {
+        String[] sorted = this.words.clone();
+        Arrays.sort(sorted);
+        CRC32 crc = new CRC32();
+        for (String word : sorted) {
+            crc.update(word.getBytes(StandardCharsets.UTF_8));
+            crc.update('\n');
+        }
+        return crc.getValue();
+    }
+}
@@ -1,14 +1,20 @@
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.FileOutputStream;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -29,24 +35,30 @@ public final class TCS2 {
     }
 
     /**
-     * Minimum font size.
+     * Times the input is counted with and without the filter when measuring
+     * it; the fastest of each is compared.
      */
-    static final int FONT_MIN = 11;
+    static final int FILTER_ROUNDS = 3;
 
     /**
-     * Maximum font size.
+     * Size of the HTML output buffer.
      */
-    static final int FONT_MAX = 48;
+    static final int OUTPUT_BUFFER = 1 << 16;
 
     /**
-     * Compare {@code int}s in numerical order.
+     * Compare {@code int}s in decreasing numerical order, breaking ties
+     * alphabetically.
      */
     private static class IntAT
             implements Comparator<Map.Entry<String, Integer>> {
         @Override
         public int compare(Map.Entry<String, Integer> a,
                 Map.Entry<String, Integer> b) {
-            return b.getValue() - a.getValue();
+            int x = b.getValue().compareTo(a.getValue());
+            if (x == 0) {
+                x = a.getKey().compareTo(b.getKey());
+            }
+            return x;
         }
     }
 
@@ -70,9 +82,144 @@ public final class TCS2 {
      * Main method.
      *
      * @param args
-     *            The command line arguments; unused here
+     *            The command line arguments; {@code --threads N} counts the
+     *            input on N threads, {@code --mmap} reads it through a memory
+     *            mapping, {@code --approx EPSILON} estimates counts in bounded
+     *            memory with errors of at most EPSILON times the tag count,
+     *            {@code --cache DIR} reuses the counts of inputs seen before,
+     *            {@code --save-table FILE} saves the exact counts as a
+     *            {@link CountTable}, {@code --from-table} reads the input as a
+     *            saved count table instead of text, {@code --incremental DIR}
+     *            reads only what was appended to the input since the last run
+     *            with the same DIR, {@code --metrics FILE} writes a JSON
+     *            report of the time and memory of each stage, {@code --jfr}
+     *            commits each stage as a JFR event, {@code --tokenizer SPEC}
+     *            splits tags as described by {@link Tokenizer#of},
+     *            {@code --stop-words FILE} drops the words listed in FILE,
+     *            {@code --min-length N} and {@code --max-length N} drop tags
+     *            shorter or longer than N characters; a metrics report counts
+     *            the tags the filter rejected, and {@code --measure-filter}
+     *            also counts the input again with and without the filter to
+     *            measure the memory and time it saved; {@code --spill MB}
+     *            counts in at most about MB megabytes of heap, spilling sorted
+     *            runs to disk; the input may be gzip or Zstandard compressed,
+     *            or a glob such as {@code logs/*.gz} naming several files,
+     *            which are read as one and counted serially; {@code --ngram N}
+     *            counts phrases of N words within a line instead of single
+     *            tags, serially and exactly; {@code --idf FILE} ranks the
+     *            tags by TF-IDF against the document frequencies saved in
+     *            FILE by {@code BatchCloud --tfidf} instead of by count,
+     *            {@code --scale MODE} sizes the tags as described by
+     *            {@link FontScale.Mode}, and {@code --format FORMAT} writes
+     *            the cloud as {@code html}, {@code svg} or {@code json}
      */
     public static void main(String[] args) {
+        int workers = 1;
+        boolean mapped = false;
+        double epsilon = 0;
+        String cacheDir = null;
+        String saveTable = null;
+        boolean fromTable = false;
+        String stateDir = null;
+        String metricsFile = null;
+        boolean jfr = false;
+        boolean measuring = false;
+        Tokenizer tokenizer = new Tokenizer();
+        String stopWords = null;
+        int minLength = 1;
+        int maxLength = Integer.MAX_VALUE;
+        long spillBudget = 0;
+        int ngram = 1;
+        String idfFile = null;
+        FontScale.Mode scale = FontScale.Mode.LINEAR;
+        CloudFormats.Format format = CloudFormats.Format.HTML;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--threads") && i + 1 < args.length) {
+                i++;
+                workers = Integer.parseInt(args[i]);
+            } else if (args[i].equals("--mmap")) {
+                mapped = true;
+            } else if (args[i].equals("--approx") && i + 1 < args.length) {
+                i++;
+                epsilon = Double.parseDouble(args[i]);
+                try {
+                    SpaceSaving.capacity(epsilon);
+                } catch (IllegalArgumentException e) {
+                    System.out.println("--approx " + e.getMessage());
+                    return;
+                }
+            } else if (args[i].equals("--cache") && i + 1 < args.length) {
+                i++;
+                cacheDir = args[i];
+            } else if (args[i].equals("--save-table")
+                    && i + 1 < args.length) {
+                i++;
+                saveTable = args[i];
+            } else if (args[i].equals("--from-table")) {
+                fromTable = true;
+            } else if (args[i].equals("--incremental")
+                    && i + 1 < args.length) {
+                i++;
+                stateDir = args[i];
+            } else if (args[i].equals("--metrics") && i + 1 < args.length) {
+                i++;
+                metricsFile = args[i];
+            } else if (args[i].equals("--jfr")) {
+                jfr = true;
+            } else if (args[i].equals("--measure-filter")) {
+                measuring = true;
+            } else if (args[i].equals("--tokenizer")
+                    && i + 1 < args.length) {
+                i++;
+                try {
+                    tokenizer = Tokenizer.of(args[i]);
+                } catch (IllegalArgumentException e) {
+                    System.out.println(e.getMessage());
+                    return;
+                }
+            } else if (args[i].equals("--stop-words")
+                    && i + 1 < args.length) {
+                i++;
+                stopWords = args[i];
+            } else if (args[i].equals("--min-length")
+                    && i + 1 < args.length) {
+                i++;
+                minLength = Integer.parseInt(args[i]);
+            } else if (args[i].equals("--max-length")
+                    && i + 1 < args.length) {
+                i++;
+                maxLength = Integer.parseInt(args[i]);
+            } else if (args[i].equals("--spill") && i + 1 < args.length) {
+                i++;
+                spillBudget = Long.parseLong(args[i]) << 20;
+            } else if (args[i].equals("--ngram") && i + 1 < args.length) {
+                i++;
+                ngram = Integer.parseInt(args[i]);
+                if (ngram < 1) {
+                    System.out.println("You must provide a valid number.");
+                    return;
+                }
+            } else if (args[i].equals("--idf") && i + 1 < args.length) {
+                i++;
+                idfFile = args[i];
+            } else if (args[i].equals("--scale") && i + 1 < args.length) {
+                i++;
+                try {
+                    scale = FontScale.Mode.of(args[i]);
+                } catch (IllegalArgumentException e) {
+                    System.out.println(e.getMessage());
+                    return;
+                }
+            } else if (args[i].equals("--format") && i + 1 < args.length) {
+                i++;
+                try {
+                    format = CloudFormats.Format.of(args[i]);
+                } catch (IllegalArgumentException e) {
+                    System.out.println(e.getMessage());
+                    return;
+                }
+            }
+        }
         try {
             //Open I/O streams.
             BufferedReader in = new BufferedReader(
@@ -81,26 +228,172 @@ public final class TCS2 {
             System.out.print("Enter a valid text file: ");
             String inputFileName;
             inputFileName = in.readLine();
-            BufferedReader inFile = new BufferedReader(
-                    new FileReader(inputFileName));
+            List<Path> inputs = CorpusInput.expand(inputFileName);
+            boolean plain = CorpusInput.isPlain(inputs);
+            if (!plain && (mapped || workers > 1 || cacheDir != null
+                    || stateDir != null)) {
+                System.out.println("Compressed or multiple files are read "
+                        + "serially.");
+                mapped = false;
+                workers = 1;
+                cacheDir = null;
+                stateDir = null;
+            }
+            if (ngram > 1 && (epsilon > 0 || workers > 1 || cacheDir != null
+                    || stateDir != null || spillBudget > 0)) {
+                System.out.println("Phrases are counted serially and "
+                        + "exactly.");
+                epsilon = 0;
+                workers = 1;
+                cacheDir = null;
+                stateDir = null;
+                spillBudget = 0;
+            }
+            BufferedReader inFile = openInput(inputs, plain);
             System.out.print("Enter an output file name: ");
             String outputFile = in.readLine();
             System.out.print("Enter how many words you want to be included: ");
             String next = in.readLine();
             int cloudSize;
             cloudSize = Integer.parseInt(next);
-            PrintWriter output = new PrintWriter(
-                    new BufferedWriter(new FileWriter(outputFile)));
-            Map<String, Integer> reducedMap = mapGenerator(inFile);
-            mapReducer(reducedMap, cloudSize);
+            PrintWriter output = new PrintWriter(new BufferedWriter(
+                    new OutputStreamWriter(new FileOutputStream(outputFile),
+                            format.charset()),
+                    OUTPUT_BUFFER));
+            LineSource source = new ReaderLineSource(inFile);
+            MappedLineSource mappedSource = null;
+            if (mapped) {
+                mappedSource = new MappedLineSource(inputs.get(0),
+                        Charset.defaultCharset());
+                source = mappedSource;
+            }
+            TagFilter filter = null;
+            if (stopWords != null || minLength > 1
+                    || maxLength < Integer.MAX_VALUE) {
+                StopWords words = null;
+                if (stopWords != null) {
+                    words = StopWords.load(Paths.get(stopWords),
+                            Charset.defaultCharset());
+                }
+                filter = new TagFilter(minLength, maxLength, words);
+            }
+            DocumentFrequencies idf = null;
+            if (idfFile != null) {
+                idf = DocumentFrequencies.open(Paths.get(idfFile));
+            }
+            Metrics metrics = new Metrics(jfr);
+            long inputBytes = 0;
+            for (Path file : inputs) {
+                inputBytes += Files.size(file);
+            }
+            metrics.input(inputBytes);
+            metrics.start("count");
+            Map<String, Integer> reducedMap;
+            Map<String, Integer> errors = null;
+            boolean metered = false;
+            //Cached counts hold every tag, so they are filtered
+            boolean unfiltered = false;
+            //A spilled count is already saved as a table
+            boolean spilled = false;
+            if (fromTable) {
+                CountTable table = CountTable.open(inputs.get(0));
+                reducedMap = topMap(filter == null ? table
+                        : table.accepted(filter), cloudSize, idf);
+                metrics.counted(table.total(), table.size());
+                metered = true;
+            } else if (ngram > 1) {
+                reducedMap = mapGenerator(source, tokenizer, filter, ngram);
+            } else if (epsilon > 0) {
+                SpaceSaving sketch = approxMapGenerator(source, epsilon,
+                        tokenizer, filter);
+                reducedMap = sketch.counts();
+                errors = sketch.errors();
+            } else if (stateDir != null) {
+                reducedMap = IncrementalCounter.top(inputs.get(0),
+                        Charset.defaultCharset(), Paths.get(stateDir),
+                        tokenizer, filter, idf, cloudSize);
+            } else if (cacheDir != null) {
+                //Only the disk tier outlives this run
+                CountCache cache = new CountCache(0, Paths.get(cacheDir));
+                reducedMap = new HashMap<>(cache.counts(inputs.get(0),
+                        Charset.defaultCharset(), tokenizer));
+                unfiltered = true;
+            } else if (spillBudget > 0) {
+                Path table;
+                if (saveTable != null) {
+                    table = Paths.get(saveTable);
+                } else {
+                    table = Files.createTempFile("tags", ".table");
+                }
+                CountTable counts = SpillingCounter.count(source, tokenizer,
+                        filter, spillBudget, table);
+                reducedMap = topMap(counts, cloudSize, idf);
+                metrics.counted(counts.total(), counts.size());
+                metered = true;
+                spilled = true;
+                if (saveTable == null) {
+                    Files.deleteIfExists(table);
+                }
+            } else if (workers > 1) {
+                reducedMap = ParallelCounter.count(inputs.get(0),
+                        Charset.defaultCharset(), workers, tokenizer, filter);
+            } else {
+                metered = metricsFile != null;
+                reducedMap = mapGenerator(source, tokenizer, filter,
+                        metered ? metrics : null);
+            }
+            if (unfiltered && filter != null) {
+                filter.removeRejected(reducedMap);
+            }
+            if (!metered) {
+                long total = 0;
+                for (int count : reducedMap.values()) {
+                    total += count;
+                }
+                metrics.counted(total, reducedMap.size());
+            }
+            if (saveTable != null && errors == null && !fromTable
+                    && !spilled) {
+                CountTable.write(reducedMap, Paths.get(saveTable));
+            }
+            metrics.start("reduce");
+            int[] minMax;
+            if (idf != null) {
+                minMax = mapReducer(reducedMap, cloudSize, idf);
+            } else {
+                minMax = mapReducer(reducedMap, cloudSize);
+            }
+            metrics.start("alphabetize");
             List<Entry<String, Integer>> sorted = alphabetize(reducedMap);
-            htmlHeader(output, inputFileName, cloudSize);
-            htmlBody(output, sorted);
-            htmlFooter(output);
+            metrics.start("render");
+            FontScale fonts = new FontScale(scale, minMax[0], minMax[1]);
+            if (format == CloudFormats.Format.SVG) {
+                CloudFormats.svg(output, inputFileName, cloudSize, sorted,
+                        fonts);
+            } else if (format == CloudFormats.Format.JSON) {
+                CloudFormats.json(output, inputFileName, cloudSize, sorted,
+                        fonts, minMax[0], minMax[1], errors);
+            } else {
+                htmlHeader(output, inputFileName, cloudSize);
+                htmlBody(output, sorted, fonts, errors);
+                htmlFooter(output);
+            }
             //Closing IO
             in.close();
             output.close();
+            metrics.stop();
+            if (metricsFile != null) {
+                //Counting again several times is opt-in
+                if (filter != null && measuring) {
+                    measureFilter(inputs, plain, tokenizer, filter,
+                            metrics);
+                }
+                metrics.write(Paths.get(metricsFile), inputFileName);
+            }
             inFile.close();
+            if (mappedSource != null) {
+                mappedSource.close();
+            }
             //Confirmation message
             System.out.println("File successfully generated");
         } catch (NumberFormatException e) {
@@ -121,39 +414,257 @@ public final class TCS2 {
      *            The file input stream
      * @return A map of the most common cloudSize elements and their occurrences
      */
-    private static Map<String, Integer> mapGenerator(BufferedReader inFile) {
-        //List to keep count of the occurrences of the cloudSizeth most items
-        Map<String, Integer> tags = new HashMap<>();
-        String line = "!";
+    static Map<String, Integer> mapGenerator(BufferedReader inFile) {
         try {
-            while (line != null) {
-                line = line.concat("!");
-                final String separators = "! ,\t\n\r-.?[]';:/()";
-                String nextTag = "";
-                do {
-                    char c = line.charAt(0);
-                    if (separators.indexOf(c) == -1) {
-                        nextTag += c;
-                    } else if (nextTag.length() > 0) {
-                        nextTag = nextTag.toLowerCase();
-                        if (!tags.containsKey(nextTag)) {
-                            tags.put(nextTag, 1);
-                        } else {
-                            int value = tags.remove(nextTag);
-                            tags.put(nextTag, value + 1);
-                        }
-                        nextTag = "";
-                    }
-                    line = line.substring(1);
-                } while (line.length() > 0);
-                line = inFile.readLine();
-            }
+            return mapGenerator(new ReaderLineSource(inFile));
         } catch (IOException e) {
             System.out.println("An I/O error has occured");
+            return new HashMap<>();
+        }
+    }
+
+    /**
+     * Method to generate a map of the cloudSizeth most common tags and the
+     * amount of times they occur.
+     *
+     * @param inFile
+     *            The source of lines
+     * @return A map of the most common cloudSize elements and their occurrences
+     * @throws IOException
+     *             If a line cannot be read
+     */
+    static Map<String, Integer> mapGenerator(LineSource inFile)
+            throws IOException {
+        return mapGenerator(inFile, new Tokenizer(), null, null);
+    }
+
+    /**
+     * Method to generate a map of the cloudSizeth most common tags and the
+     * amount of times they occur, recording the reads and the vocabulary
+     * growth in {@code metrics}.
+     *
+     * @param inFile
+     *            The source of lines
+     * @param tokenizer
+     *            Splitter of lines into tags
+     * @param filter
+     *            Tags to count, or null for all of them
+     * @param metrics
+     *            Where to record the counting, or null
+     * @return A map of the most common cloudSize elements and their occurrences
+     * @throws IOException
+     *             If a line cannot be read
+     */
+    static Map<String, Integer> mapGenerator(LineSource inFile,
+            Tokenizer tokenizer, TagFilter filter, Metrics metrics)
+            throws IOException {
+        return countTags(inFile, tokenizer, filter, metrics).toMap();
+    }
+
+    /**
+     * Method to generate a map of the phrases of {@code n} words and the
+     * amount of times they occur. Phrases never span a line break or a tag
+     * {@code filter} rejects.
+     *
+     * @param inFile
+     *            The source of lines
+     * @param tokenizer
+     *            Splitter of lines into tags
+     * @param filter
+     *            Tags to count, or null for all of them
+     * @param n
+     *            Number of words in a phrase
+     * @return A map of every phrase, its words joined by spaces, and its
+     *         occurrences
+     * @throws IOException
+     *             If a line cannot be read
+     */
+    static Map<String, Integer> mapGenerator(LineSource inFile,
+            Tokenizer tokenizer, TagFilter filter, int n) throws IOException {
+        WordCounter words = new WordCounter();
+        PhraseCounter phrases = new PhraseCounter(words, n);
+        Normalizer counter = new Normalizer(words, filter, phrases);
+        CharSequence line = inFile.nextLine();
+        while (line != null) {
+            tokenizer.tokenize(line, counter);
+            phrases.split();
+            line = inFile.nextLine();
+        }
+        return phrases.toMap();
+    }
+
+    /**
+     * Counts the tags of {@code inFile} that {@code filter} accepts.
+     *
+     * @param inFile
+     *            The source of lines
+     * @param tokenizer
+     *            Splitter of lines into tags
+     * @param filter
+     *            Tags to count, or null for all of them
+     * @param metrics
+     *            Where to record the counting, or null
+     * @return The counter holding the tags
+     * @throws IOException
+     *             If a line cannot be read
+     */
+    static WordCounter countTags(LineSource inFile, Tokenizer tokenizer,
+            TagFilter filter, Metrics metrics) throws IOException {
+        //List to keep count of the occurrences of the cloudSizeth most items
+        WordCounter tags = new WordCounter();
+        LineSource lines = inFile;
+        if (metrics != null) {
+            lines = metrics.meter(inFile, tags);
+        }
+        Normalizer normalizer = new Normalizer(tags, filter);
+        forEachTag(lines, tokenizer, normalizer);
+        if (metrics != null && filter != null) {
+            metrics.rejected(normalizer.rejected());
         }
         return tags;
     }
 
+    /**
+     * Opens the input files as one text.
+     *
+     * @param inputs
+     *            The input files
+     * @param plain
+     *            Whether the input is one uncompressed file, which is read
+     *            directly rather than through a decompressing thread
+     * @return A reader of the input
+     * @throws IOException
+     *             If the input cannot be opened
+     */
+    private static BufferedReader openInput(List<Path> inputs, boolean plain)
+            throws IOException {
+        if (plain) {
+            return new BufferedReader(new FileReader(inputs.get(0).toFile()));
+        }
+        return new BufferedReader(new InputStreamReader(
+                CorpusInput.open(inputs), Charset.defaultCharset()));
+    }
+
+    /**
+     * Method to keep only the best tags of a count table, so that only they
+     * leave its mapping.
+     *
+     * @param table
+     *            Every tag and its count
+     * @param cloudSize
+     *            The amount of tags to keep
+     * @param idf
+     *            Document frequencies to rank the tags by TF-IDF, or null to
+     *            keep the most common tags
+     * @return The best tags and their counts
+     */
+    static Map<String, Integer> topMap(
+            Iterable<Entry<String, Integer>> table, int cloudSize,
+            DocumentFrequencies idf) {
+        List<Entry<String, Integer>> best;
+        if (idf != null) {
+            best = idf.topTags(table, cloudSize);
+        } else {
+            best = topTags(table, cloudSize);
+        }
+        Map<String, Integer> top = new HashMap<>();
+        for (Entry<String, Integer> e : best) {
+            top.put(e.getKey(), e.getValue());
+        }
+        return top;
+    }
+
+    /**
+     * Counts the input with and without {@code filter} and records in
+     * {@code metrics} the tags, table memory and counting time it saved.
+     * The times are CPU times of this thread, so the other threads of the
+     * JVM disturb them less; savings smaller than the run-to-run noise may
+     * come out negative.
+     *
+     * @param inputs
+     *            The input files
+     * @param plain
+     *            Whether the input is one uncompressed file
+     * @param tokenizer
+     *            Splitter of lines into tags
+     * @param filter
+     *            The filter to measure
+     * @param metrics
+     *            Where to record the savings
+     * @throws IOException
+     *             If the input cannot be read
+     */
+    private static void measureFilter(List<Path> inputs, boolean plain,
+            Tokenizer tokenizer, TagFilter filter, Metrics metrics)
+            throws IOException {
+        WordCounter[] counts = new WordCounter[2];
+        long[] nanos = { Long.MAX_VALUE, Long.MAX_VALUE };
+        //Alternate so neither side gets all the warm-up or the collections
+        for (int round = 0; round < 2 * FILTER_ROUNDS; round++) {
+            int i = round % 2;
+            try (BufferedReader in = openInput(inputs, plain)) {
+                long start = Metrics.threadTime();
+                counts[i] = countTags(new ReaderLineSource(in), tokenizer,
+                        i == 0 ? filter : null, null);
+                nanos[i] = Math.min(nanos[i], Metrics.threadTime() - start);
+            }
+        }
+        metrics.filtered(counts[1].total() - counts[0].total(),
+                counts[1].size() - counts[0].size(),
+                counts[1].estimatedBytes() - counts[0].estimatedBytes(),
+                nanos[1] - nanos[0]);
+    }
+
+    /**
+     * Method to estimate the occurrences of the most common tags in bounded
+     * memory.
+     *
+     * @param inFile
+     *            The source of lines
+     * @param epsilon
+     *            Largest error of a count, as a fraction of all tags
+     * @param tokenizer
+     *            Splitter of lines into tags
+     * @param filter
+     *            Tags to count, or null for all of them
+     * @return A sketch of the most common tags
+     * @throws IOException
+     *             If a line cannot be read
+     */
+    static SpaceSaving approxMapGenerator(LineSource inFile, double epsilon,
+            Tokenizer tokenizer, TagFilter filter) throws IOException {
+        SpaceSaving tags = new SpaceSaving(epsilon);
+        Tokenizer.Sink counter = (text, start, end) -> {
+            String tag = text.subSequence(start, end).toString().toLowerCase();
+            if (filter == null || filter.accepts(tag)) {
+                tags.offer(tag);
+            }
+        };
+        forEachTag(inFile, tokenizer, counter);
+        return tags;
+    }
+
+    /**
+     * Passes every tag of every line of {@code inFile} to {@code sink}.
+     *
+     * @param inFile
+     *            The source of lines
+     * @param tokenizer
+     *            Splitter of lines into tags
+     * @param sink
+     *            Receiver of the tags
+     * @throws IOException
+     *             If a line cannot be read
+     */
+    private static void forEachTag(LineSource inFile, Tokenizer tokenizer,
+            Tokenizer.Sink sink) throws IOException {
+        CharSequence line = inFile.nextLine();
+        while (line != null) {
+            tokenizer.tokenize(line, sink);
+            line = inFile.nextLine();
+        }
+    }
+
     /**
      * Method to reduce the given map to only the the cloudSizeth most common
      * tags and the amount of times they occur.
@@ -163,25 +674,76 @@ public final class TCS2 {
      *            times they occur.
      * @param cloudSize
      *            The amount of items to return
+     * @return The min and max of the kept counts, or -1 for both if none are
+     *         kept
      */
-    private static void mapReducer(Map<String, Integer> reducedMap,
-            int cloudSize) {
-        List<Entry<String, Integer>> decrease = new LinkedList<>();
-        decrease.addAll(reducedMap.entrySet());
-        Collections.sort(decrease, new IntAT());
+    static int[] mapReducer(Map<String, Integer> reducedMap, int cloudSize) {
+        List<Entry<String, Integer>> decrease = topTags(reducedMap.entrySet(),
+                cloudSize);
         reducedMap.clear();
-        int minCount = 0;
-        int maxCount = 0;
-        while (reducedMap.size() < cloudSize && decrease.size() > 0) {
-            Entry<String, Integer> p = decrease.remove(0);
+        for (Entry<String, Integer> p : decrease) {
             reducedMap.put(p.getKey(), p.getValue());
-            if (minCount > p.getValue() || minCount == 0) {
-                minCount = p.getValue();
-            }
-            if (maxCount < p.getValue() || minCount == 0) {
-                maxCount = p.getValue();
+        }
+        int[] minMax = new int[] { -1, -1 };
+        if (!decrease.isEmpty()) {
+            //Most common first
+            minMax[0] = decrease.get(decrease.size() - 1).getValue();
+            minMax[1] = decrease.get(0).getValue();
+        }
+        return minMax;
+    }
+
+    /**
+     * Method to reduce the given map to the cloudSizeth tags with the highest
+     * TF-IDF scores against {@code idf}, keeping their counts.
+     *
+     * @param reducedMap
+     *            Tags of one document and the amount of times they occur
+     * @param cloudSize
+     *            The amount of items to return
+     * @param idf
+     *            Document frequencies of the corpus
+     * @return The min and max of the kept counts, or -1 for both if none are
+     *         kept
+     */
+    static int[] mapReducer(Map<String, Integer> reducedMap, int cloudSize,
+            DocumentFrequencies idf) {
+        List<Entry<String, Integer>> best = idf.topTags(reducedMap.entrySet(),
+                cloudSize);
+        reducedMap.clear();
+        int[] minMax = new int[] { -1, -1 };
+        for (Entry<String, Integer> p : best) {
+            reducedMap.put(p.getKey(), p.getValue());
+            //Ranked by score, so the counts are in no order
+            if (minMax[0] < 0 || p.getValue() < minMax[0]) {
+                minMax[0] = p.getValue();
             }
+            minMax[1] = Math.max(minMax[1], p.getValue());
         }
+        return minMax;
+    }
+
+    /**
+     * Method to find the cloudSizeth most common tags without modifying the
+     * given map.
+     *
+     * @param counts
+     *            Tags and the amount of times they occur
+     * @param cloudSize
+     *            The amount of items to return
+     * @return The most common tags, most common first
+     */
+    static List<Entry<String, Integer>> topTags(
+            Iterable<? extends Entry<String, Integer>> counts, int cloudSize) {
+        TopK<Entry<String, Integer>> top = new TopK<>(cloudSize, new IntAT());
+        for (Entry<String, Integer> e : counts) {
+            top.offer(e);
+        }
+        List<Entry<String, Integer>> decrease = new ArrayList<>();
+        for (Entry<String, Integer> e : top.toList()) {
+            decrease.add(new SimpleImmutableEntry<>(e));
+        }
+        return decrease;
     }
 
     /**
@@ -191,9 +753,9 @@ public final class TCS2 {
      *            Tags to be alphabetized
      * @return A list of alphabetized tags
      */
-    private static List<Entry<String, Integer>> alphabetize(
+    static List<Entry<String, Integer>> alphabetize(
             Map<String, Integer> reducedMap) {
-        List<Entry<String, Integer>> alpha = new LinkedList<>();
+        List<Entry<String, Integer>> alpha = new ArrayList<>();
         alpha.addAll(reducedMap.entrySet());
         Collections.sort(alpha, new StringAT());
         return alpha;
@@ -215,9 +777,11 @@ public final class TCS2 {
      */
     public static void htmlHeader(PrintWriter output, String filename,
             int cloudSize) {
+        //Names and tags may come from uploads, so they are never markup
+        String name = CloudFormats.escape(filename);
         output.println("<html>");
         output.println("<head>");
-        output.println("<title>" + filename + "</title>");
+        output.println("<title>" + name + "</title>");
         output.println(
                 "<link href=\"http://web.cse.ohio-state.edu/software/2231/"
                         + "web-sw2/assignments/projects/tag-cloud-generator/data/"
@@ -227,7 +791,7 @@ public final class TCS2 {
         output.println("</head>");
         output.println("<body><body style=\"background-color:#70839e;\">");
         output.println(
-                "<h2>Top " + cloudSize + " words in " + filename + "</h2>");
+                "<h2>Top " + cloudSize + " words in " + name + "</h2>");
         output.println("<hr>");
         output.println("<div class=\"cdiv\">");
         output.println("<p class=\"cbox\">");
@@ -246,26 +810,92 @@ public final class TCS2 {
      */
     public static void htmlBody(PrintWriter output,
             List<Entry<String, Integer>> sorted) {
+        htmlBody(output, sorted, null);
+    }
+
+    /**
+     * Output the body of the HTML file, with how much each count may be too
+     * high.
+     *
+     * @param output
+     *            The HTML document to write on
+     * @param sorted
+     *            Alphabetized tags
+     * @param errors
+     *            Largest error of each tag's count, or null if counts are
+     *            exact
+     * @updates out.content
+     * @requires out.is_open
+     * @ensures out.content = #out.content * [the HTML "opening" tags]
+     */
+    public static void htmlBody(PrintWriter output,
+            List<Entry<String, Integer>> sorted, Map<String, Integer> errors) {
         int[] minMax = minAndMax(sorted);
-        int minCount = minMax[0];
-        int maxCount = minMax[1];
-        while (sorted.size() > 0) {
-            Entry<String, Integer> pair = sorted.remove(0);
+        htmlBody(output, sorted, minMax[0], minMax[1], errors);
+    }
+
+    /**
+     * Output the body of the HTML file, given the min and max counts from
+     * {@code mapReducer}, sized linearly. {@code sorted} is left unchanged.
+     *
+     * @param output
+     *            The HTML document to write on
+     * @param sorted
+     *            Alphabetized tags
+     * @param minCount
+     *            The smallest count in {@code sorted}
+     * @param maxCount
+     *            The largest count in {@code sorted}
+     * @param errors
+     *            Largest error of each tag's count, or null if counts are
+     *            exact
+     * @updates out.content
+     * @requires out.is_open
+     * @ensures out.content = #out.content * [the HTML "opening" tags]
+     */
+    public static void htmlBody(PrintWriter output,
+            List<Entry<String, Integer>> sorted, int minCount, int maxCount,
+            Map<String, Integer> errors) {
+        htmlBody(output, sorted,
+                new FontScale(FontScale.Mode.LINEAR, minCount, maxCount),
+                errors);
+    }
+
+    /**
+     * Output the body of the HTML file, sized by {@code scale}.
+     * {@code sorted} is left unchanged.
+     *
+     * @param output
+     *            The HTML document to write on
+     * @param sorted
+     *            Alphabetized tags
+     * @param scale
+     *            Font sizes of the counts in {@code sorted}
+     * @param errors
+     *            Largest error of each tag's count, or null if counts are
+     *            exact
+     * @updates out.content
+     * @requires out.is_open
+     * @ensures out.content = #out.content * [the HTML "opening" tags]
+     */
+    public static void htmlBody(PrintWriter output,
+            List<Entry<String, Integer>> sorted, FontScale scale,
+            Map<String, Integer> errors) {
+        StringBuilder span = new StringBuilder(128);
+        for (Entry<String, Integer> pair : sorted) {
             int count = pair.getValue();
-            while (maxCount <= minCount) {
-                maxCount++;
-            }
-            int font = 0;
-            if (count > minCount) {
-                font = (int) (Math
-                        .ceil((double) (FONT_MAX - 11) * (count - minCount))
-                        / (maxCount - minCount));
+            int font = scale.font(count);
+            span.setLength(0);
+            span.append("<span style=\"cursor:default\" class=\"f")
+                    .append(font).append("\" title=\"count: ").append(count);
+            if (errors != null) {
+                span.append(" (error: ").append(errors.get(pair.getKey()))
+                        .append(')');
             }
-            //Floor
-            font += 11;
-            output.println("<span style=\"cursor:default\" class=\"f" + font
-                    + "\" title=\"count: " + pair.getValue() + "\">"
-                    + pair.getKey() + "</span>");
+            span.append("\">").append(CloudFormats.escape(pair.getKey()))
+                    .append("</span>");
+            output.append(span);
+            output.println();
         }
     }
 
@@ -279,18 +909,14 @@ public final class TCS2 {
     private static int[] minAndMax(List<Entry<String, Integer>> sorted) {
         int min = -1;
         int max = -1;
-        List<Entry<String, Integer>> temp = new LinkedList<>();
-        while (sorted.size() > 0) {
-            Entry<String, Integer> pair = sorted.remove(0);
+        for (Entry<String, Integer> pair : sorted) {
             if (min > pair.getValue() || min == -1) {
                 min = pair.getValue();
             }
             if (max < pair.getValue() || max == -1) {
                 max = pair.getValue();
             }
-            temp.add(pair);
         }
-        sorted.addAll(temp);
         int[] minMax = new int[] { min, max };
         //While this could return -1 for either, this does not matter
         return minMax;
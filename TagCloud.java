@@ -1,6 +1,4 @@
-import java.util.ArrayList;
 import java.util.Comparator;
-import java.util.List;
 
 import components.map.Map;
 import components.map.Map1L;
@@ -26,26 +24,6 @@ public final class TagCloud {
     private TagCloud() {
     }
 
-    /**
-     * minimum word count.
-     */
-    static final int MIN_COUNT = 1;
-
-    /**
-     * maximum word count.
-     */
-    static final int MAX_COUNT = 1000;
-
-    /**
-     * minimum font size.
-     */
-    static final int FONT_MIN = 11;
-
-    /**
-     * maximum font size.
-     */
-    static final int MAX_FONT_SIZE = 78;
-
     /**
      * Compare {@code key}s in alphabetical order.
      */
@@ -108,44 +86,30 @@ public final class TagCloud {
      */
     private static Map<String, Integer> mapGenerator(SimpleReader inFile,
             int cloudSize) {
-        //List to keep count of the occurrences of the cloudSizeth most items
-        List<Integer> most = new ArrayList<Integer>();
+        //The cloudSizeth most common tags so far; a negative size keeps none
+        OnlineTopK most = new OnlineTopK(Math.max(cloudSize, 0));
         //Map of all the tags
         Map<String, Integer> tags = new Map1L<>();
         //Map to be returned of the cloudSizeth most items
         Map<String, Integer> thisMap = new Map1L<>();
+        Tokenizer tokenizer = new Tokenizer();
+        Tokenizer.Sink counter = (text, start, end) -> {
+            String nextTag = text.subSequence(start, end).toString()
+                    .toLowerCase();
+            int value = 1;
+            if (!tags.hasKey(nextTag)) {
+                tags.add(nextTag, value);
+            } else {
+                value = tags.value(nextTag) + 1;
+                tags.replaceValue(nextTag, value);
+            }
+            most.update(nextTag, value);
+        };
         while (!inFile.atEOS()) {
-            String line = inFile.nextLine() + '!';
-            final String separators = " ,\t\n\r-.!?[]';:/()";
-            String nextTag = "";
-            do {
-                char c = line.charAt(0);
-                if (separators.indexOf(c) == -1) {
-                    nextTag += c;
-                } else if (nextTag.length() > 0) {
-                    nextTag = nextTag.toLowerCase();
-                    if (!tags.hasKey(nextTag)) {
-                        tags.add(nextTag, 1);
-                        if (most.size() < cloudSize) {
-                            most.add(1);
-                        }
-                    } else {
-                        int value = tags.value(nextTag);
-                        tags.replaceValue(nextTag, value + 1);
-                        if (most.contains(value)) {
-                            most.remove(Integer.valueOf(value));
-                            most.add(value + 1);
-                        }
-                    }
-                    nextTag = "";
-                }
-                line = line.substring(1);
-            } while (line.length() > 0);
+            tokenizer.tokenize(inFile.nextLine(), counter);
         }
-        while (!most.isEmpty()) {
-            thisMap.add(tags.key(most.get(0)), most.get(0));
-            tags.remove(tags.key(most.get(0)));
-            most.remove(0);
+        for (int i = 0; i < most.size(); i++) {
+            thisMap.add(most.key(i), most.count(i));
         }
         return thisMap;
     }
@@ -215,23 +179,15 @@ public final class TagCloud {
      */
     public static void htmlBody(SimpleWriter out,
             SortingMachine<Map.Pair<String, Integer>> sorted) {
+        //Sized over a fixed range of counts, whatever the counts of the cloud
+        FontScale scale = new FontScale(FontScale.Mode.FIXED,
+                FontScale.FIXED_MIN_COUNT, FontScale.FIXED_MAX_COUNT);
         while (sorted.size() > 0) {
             Map.Pair<String, Integer> pair = sorted.removeFirst();
 
             int count = pair.value();
 
-            int font = FONT_MIN;
-
-            /*
-             * final static int MIN_COUNT = 1; final static int MAX_COUNT = 800;
-             * final static int FONT_MIN = 11; final static int MAX_FONT_SIZE =
-             * 48;
-             */
-
-            if (count > MIN_COUNT) {
-                font = (MAX_FONT_SIZE * (count - MIN_COUNT))
-                        / (MAX_COUNT - MIN_COUNT);
-            }
+            int font = scale.font(count);
 
             out.println("<span style=\"cursor:default\" class=\"f" + font
                     + "\" title=\"count: " + pair.value() + "\">" + pair.key()
@@ -1,4 +1,5 @@
 import java.util.Comparator;
+import java.util.List;
 
 import components.map.Map;
 import components.map.Map.Pair;
@@ -25,16 +26,6 @@ public final class TagCloud2 {
     private TagCloud2() {
     }
 
-    /**
-     * Minimum font size.
-     */
-    static final int FONT_MIN = 11;
-
-    /**
-     * Maximum font size.
-     */
-    static final int FONT_MAX = 48;
-
     /**
      * Compare {@code pair}s in alphabetical order.
      */
@@ -52,14 +43,19 @@ public final class TagCloud2 {
     }
 
     /**
-     * Compare {@code int}s in numerical order.
+     * Compare {@code int}s in decreasing numerical order, breaking ties
+     * alphabetically.
      */
     private static class IntAT
             implements Comparator<Map.Pair<String, Integer>> {
         @Override
         public int compare(Map.Pair<String, Integer> a,
                 Map.Pair<String, Integer> b) {
-            return b.value() - a.value();
+            int x = b.value().compareTo(a.value());
+            if (x == 0) {
+                x = a.key().compareTo(b.key());
+            }
+            return x;
         }
     }
 
@@ -84,11 +80,11 @@ public final class TagCloud2 {
         int cloudSize = Integer.parseInt(next);
         SimpleWriter output = new SimpleWriter1L(outputFile);
         Map<String, Integer> reducedMap = mapGenerator(inFile);
-        mapReducer(reducedMap, cloudSize);
+        int[] minMax = mapReducer(reducedMap, cloudSize);
         SortingMachine<Map.Pair<String, Integer>> sorted = alphabetize(
                 reducedMap);
         htmlHeader(output, inputFileName);
-        htmlBody(output, sorted);
+        htmlBody(output, sorted, minMax[0], minMax[1]);
         htmlFooter(output);
         //Confirmation message
         out.println("File successfully generated");
@@ -108,29 +104,22 @@ public final class TagCloud2 {
      * @return the map of the most common cloudSize elements and their
      *         occurrences
      */
-    private static Map<String, Integer> mapGenerator(SimpleReader inFile) {
+    static Map<String, Integer> mapGenerator(SimpleReader inFile) {
         //List to keep count of the occurrences of the cloudSizeth most items
         Map<String, Integer> tags = new Map1L<>();
+        Tokenizer tokenizer = new Tokenizer();
+        Tokenizer.Sink counter = (text, start, end) -> {
+            String nextTag = text.subSequence(start, end).toString()
+                    .toLowerCase();
+            if (!tags.hasKey(nextTag)) {
+                tags.add(nextTag, 1);
+            } else {
+                int value = tags.value(nextTag);
+                tags.replaceValue(nextTag, value + 1);
+            }
+        };
         while (!inFile.atEOS()) {
-            String line = inFile.nextLine() + '?';
-            final String separators = "! ,\t\n\r-.?[]';:/()";
-            String nextTag = "";
-            do {
-                char c = line.charAt(0);
-                if (separators.indexOf(c) == -1) {
-                    nextTag += c;
-                } else if (nextTag.length() > 0) {
-                    nextTag = nextTag.toLowerCase();
-                    if (!tags.hasKey(nextTag)) {
-                        tags.add(nextTag, 1);
-                    } else {
-                        int value = tags.value(nextTag);
-                        tags.replaceValue(nextTag, value + 1);
-                    }
-                    nextTag = "";
-                }
-                line = line.substring(1);
-            } while (line.length() > 0);
+            tokenizer.tokenize(inFile.nextLine(), counter);
         }
         return tags;
     }
@@ -144,29 +133,28 @@ public final class TagCloud2 {
      *            times they occur.
      * @param cloudSize
      *            The amount of items to return
+     * @return The min and max of the kept counts, or -1 for both if none are
+     *         kept
      */
-    private static void mapReducer(Map<String, Integer> tags, int cloudSize) {
+    static int[] mapReducer(Map<String, Integer> tags, int cloudSize) {
         Comparator<Map.Pair<String, Integer>> ints = new IntAT();
-        SortingMachine<Map.Pair<String, Integer>> decreasing = new SortingMachine1L<>(
+        TopK<Map.Pair<String, Integer>> decreasing = new TopK<>(cloudSize,
                 ints);
-        while (tags.size() > 0) {
-            Map.Pair<String, Integer> pair = tags.removeAny();
-            decreasing.add(pair);
+        for (Map.Pair<String, Integer> pair : tags) {
+            decreasing.offer(pair);
         }
-        decreasing.changeToExtractionMode();
         tags.clear();
-        int minCount = 0;
-        int maxCount = 0;
-        while (tags.size() < cloudSize && decreasing.size() > 0) {
-            Pair<String, Integer> p = decreasing.removeFirst();
+        List<Pair<String, Integer>> kept = decreasing.toList();
+        for (Pair<String, Integer> p : kept) {
             tags.add(p.key(), p.value());
-            if (minCount > p.value() || minCount == 0) {
-                minCount = p.value();
-            }
-            if (maxCount < p.value() || minCount == 0) {
-                maxCount = p.value();
-            }
         }
+        int[] minMax = new int[] { -1, -1 };
+        if (!kept.isEmpty()) {
+            //Most common first
+            minMax[0] = kept.get(kept.size() - 1).value();
+            minMax[1] = kept.get(0).value();
+        }
+        return minMax;
     }
 
     /**
@@ -176,7 +164,7 @@ public final class TagCloud2 {
      *            tags to be alphabetized
      * @return a SortingMachine of alphabetized tags
      */
-    private static SortingMachine<Map.Pair<String, Integer>> alphabetize(
+    static SortingMachine<Map.Pair<String, Integer>> alphabetize(
             Map<String, Integer> tags) {
         Comparator<Map.Pair<String, Integer>> tag = new StringAT();
 
@@ -234,26 +222,44 @@ public final class TagCloud2 {
      */
     public static void htmlBody(SimpleWriter out,
             SortingMachine<Map.Pair<String, Integer>> sorted) {
-        Pair<Integer, Integer> minMax = minAndMax(sorted);
-        int minCount = minMax.key();
-        int maxCount = minMax.value();
+        int[] minMax = minAndMax(sorted);
+        htmlBody(out, sorted, minMax[0], minMax[1]);
+    }
+
+    /**
+     * Output the body of the HTML file, given the min and max counts from
+     * {@code mapReducer}.
+     *
+     * @param out
+     *            The HTML document to write on
+     * @param sorted
+     *            alphabetized tags
+     * @param minCount
+     *            the smallest count in {@code sorted}
+     * @param maxCount
+     *            the largest count in {@code sorted}
+     * @updates out.content, sorted
+     * @requires out.is_open
+     * @ensures out.content = #out.content * [the HTML "opening" tags]
+     */
+    public static void htmlBody(SimpleWriter out,
+            SortingMachine<Map.Pair<String, Integer>> sorted, int minCount,
+            int maxCount) {
+        FontScale scale = new FontScale(FontScale.Mode.TRUNCATED, minCount,
+                maxCount);
+        StringBuilder span = new StringBuilder(128);
         while (sorted.size() > 0) {
             Map.Pair<String, Integer> pair = sorted.removeFirst();
 
             int count = pair.value();
 
-            int font = FONT_MIN;
-            while (maxCount <= minCount) {
-                maxCount++;
-            }
-
-            if (count > minCount) {
-                font = (FONT_MAX * (count - minCount)) / (maxCount - minCount);
-            }
+            int font = scale.font(count);
 
-            out.println("<span style=\"cursor:default\" class=\"f" + font
-                    + "\" title=\"count: " + pair.value() + "\">" + pair.key()
-                    + "</span>");
+            span.setLength(0);
+            span.append("<span style=\"cursor:default\" class=\"f")
+                    .append(font).append("\" title=\"count: ").append(count)
+                    .append("\">").append(pair.key()).append("</span>");
+            out.println(span.toString());
         }
     }
 
@@ -264,26 +270,19 @@ public final class TagCloud2 {
      *            Alphabetized tags
      * @return A pair of the min and max
      */
-    private static Pair<Integer, Integer> minAndMax(
+    private static int[] minAndMax(
             SortingMachine<Pair<String, Integer>> sorted) {
         int min = -1;
         int max = -1;
-        SortingMachine<Pair<String, Integer>> temp = sorted.newInstance();
-        while (sorted.size() > 0) {
-            Map.Pair<String, Integer> pair = sorted.removeFirst();
+        for (Map.Pair<String, Integer> pair : sorted) {
             if (min > pair.value() || min == -1) {
                 min = pair.value();
             }
             if (max < pair.value() || max == -1) {
                 max = pair.value();
             }
-            temp.add(pair);
         }
-        Map<Integer, Integer> thisIsStupid = new Map1L<>();
-        thisIsStupid.add(min, max);
-        Pair<Integer, Integer> minMax = thisIsStupid.removeAny();
-        temp.changeToExtractionMode();
-        sorted.transferFrom(temp);
+        int[] minMax = new int[] { min, max };
         //While this could return -1 for either, this does not matter
         return minMax;
     }
@@ -0,0 +1,101 @@
+import java.util.Map;
+
+/**
+ * Decides which lowercased tags are counted: tags shorter or longer than the
+ * given lengths, and stop words, are dropped before they reach the counter,
+ * so they take no time to count and no room in the table. Filters are
+ * immutable and may be shared between threads.
+ *
+ * @author Ben Elleman
+ *
+ */
+public final class TagFilter {
+
+    /**
+     * Shortest tag kept, in characters.
+     */
+    private final int minLength;
+
+    /**
+     * Longest tag kept, in characters.
+     */
+    private final int maxLength;
+
+    /**
+     * Words never kept, or null.
+     */
+    private final StopWords stopWords;
+
+    /**
+     * Creates a filter.
+     *
+     * @param minLength
+     *            Shortest tag kept, in characters
+     * @param maxLength
+     *            Longest tag kept, in characters
+     * @param stopWords
+     *            Words never kept, or null
+     */
+    public TagFilter(int minLength, int maxLength, StopWords stopWords) {
+        this.minLength = minLength;
+        this.maxLength = maxLength;
+        this.stopWords = stopWords;
+    }
+
+    /**
+     * Reports whether the lowercased tag {@code text[start, end)} is kept.
+     *
+     * @param text
+     *            The text holding the tag
+     * @param start
+     *            First character of the tag
+     * @param end
+     *            One past the last character of the tag
+     * @param stringHash
+     *            The tag's {@code String.hashCode()}
+     * @return true if the tag should be counted
+     */
+    public boolean accepts(CharSequence text, int start, int end,
+            int stringHash) {
+        int length = end - start;
+        return length >= this.minLength && length <= this.maxLength
+                && (this.stopWords == null || !this.stopWords
+                        .contains(text, start, end, stringHash));
+    }
+
+    /**
+     * Reports whether the lowercased tag {@code tag} is kept.
+     *
+     * @param tag
+     *            The tag
+     * @return true if the tag should be counted
+     */
+    public boolean accepts(String tag) {
+        return this.accepts(tag, 0, tag.length(), tag.hashCode());
+    }
+
+    /**
+     * Returns a specification of this filter, equal for filters that keep
+     * the same tags, so that results saved under one can be checked.
+     *
+     * @return The lengths and the checksum of the stop words
+     */
+    public String spec() {
+        String spec = this.minLength + "-" + this.maxLength;
+        if (this.stopWords != null) {
+            spec += "/" + this.stopWords.size() + ":"
+                    + this.stopWords.checksum();
+        }
+        return spec;
+    }
+
+    /**
+     * Removes the tags this filter rejects from counts made without it.
+     *
+     * @param counts
+     *            A map of lowercased tags and their counts
+     */
+    public void removeRejected(Map<String, Integer> counts) {
+        counts.keySet().removeIf(tag -> !this.accepts(tag));
+    }
+}
@@ -0,0 +1,427 @@
+import java.text.BreakIterator;
+import java.util.EnumSet;
+import java.util.Locale;
+
+/**
+ * Splits lines of text into tags by walking them with an index cursor and
+ * checking each character against a precomputed separator set.
+ *
+ * <p>
+ * The separators are compiled once, when the tokenizer is created, into a
+ * lookup table for ASCII, which stops at the highest ASCII separator so most
+ * letters are decided by one comparison, and, only if any separator lies
+ * above ASCII, a 64K-bit set for the rest of the Basic Multilingual Plane.
+ * They can be given as a list of characters, as Unicode character classes,
+ * or both. Characters outside the BMP are never separators.
+ *
+ * <p>
+ * Alternatively a tokenizer can split on Unicode word boundaries, as found by
+ * {@code java.text.BreakIterator} for the default locale, keeping every word
+ * that has a letter or digit in it. This keeps contractions and numbers such
+ * as {@code don't} and {@code 3.14} whole, but is several times slower.
+ *
+ * <p>
+ * Tokenizers are immutable and may be shared between threads.
+ *
+ * @author Ben Elleman
+ *
+ */
+public final class Tokenizer {
+
+    /**
+     * Separators used by the tag cloud generators.
+     */
+    public static final String DEFAULT_SEPARATORS = "! ,\t\n\r-.?[]';:/()";
+
+    /**
+     * Specification of the default tokenizer.
+     */
+    public static final String DEFAULT = "default";
+
+    /**
+     * Specification of the Unicode word-boundary tokenizer.
+     */
+    public static final String WORDS = "words";
+
+    /**
+     * Prefix of a list of separator characters in a specification.
+     */
+    private static final String CHARS = "chars:";
+
+    /**
+     * Receives the tags found by a {@code Tokenizer}.
+     */
+    public interface Sink {
+        /**
+         * Accepts the tag {@code text[start, end)}.
+         *
+         * @param text
+         *            The text the tag was found in
+         * @param start
+         *            Index of the first character of the tag
+         * @param end
+         *            Index one past the last character of the tag
+         */
+        void accept(CharSequence text, int start, int end);
+    }
+
+    /**
+     * Unicode character classes that can be made separators.
+     */
+    public enum CharClass {
+        /**
+         * Spaces, line and paragraph separators, and the ASCII whitespace
+         * controls.
+         */
+        WHITESPACE,
+
+        /**
+         * Every Unicode punctuation category, including quotes, dashes and
+         * brackets.
+         */
+        PUNCTUATION,
+
+        /**
+         * Math, currency, modifier and other symbols.
+         */
+        SYMBOLS,
+
+        /**
+         * Decimal digits of any script.
+         */
+        DIGITS,
+
+        /**
+         * Control and format characters.
+         */
+        CONTROLS;
+
+        /**
+         * Reports whether {@code c} belongs to this class.
+         *
+         * @param c
+         *            The character to check
+         * @return true if {@code c} is in this class
+         */
+        boolean contains(char c) {
+            int type = Character.getType(c);
+            switch (this) {
+                case WHITESPACE:
+                    return Character.isWhitespace(c)
+                            || Character.isSpaceChar(c);
+                case PUNCTUATION:
+                    return type == Character.CONNECTOR_PUNCTUATION
+                            || type == Character.DASH_PUNCTUATION
+                            || type == Character.START_PUNCTUATION
+                            || type == Character.END_PUNCTUATION
+                            || type == Character.INITIAL_QUOTE_PUNCTUATION
+                            || type == Character.FINAL_QUOTE_PUNCTUATION
+                            || type == Character.OTHER_PUNCTUATION;
+                case SYMBOLS:
+                    return type == Character.MATH_SYMBOL
+                            || type == Character.CURRENCY_SYMBOL
+                            || type == Character.MODIFIER_SYMBOL
+                            || type == Character.OTHER_SYMBOL;
+                case DIGITS:
+                    return type == Character.DECIMAL_DIGIT_NUMBER;
+                default:
+                    return type == Character.CONTROL
+                            || type == Character.FORMAT;
+            }
+        }
+    }
+
+    /**
+     * ASCII separators, indexed by {@code char} up to the highest one.
+     */
+    private final boolean[] ascii;
+
+    /**
+     * Separators of the whole BMP, one bit per character, or null if there
+     * are none above ASCII.
+     */
+    private final long[] bmp;
+
+    /**
+     * Word-boundary finder of each thread, or null to split on separators.
+     */
+    private final ThreadLocal<BreakIterator> words;
+
+    /**
+     * The specification this tokenizer was created from.
+     */
+    private final String spec;
+
+    /**
+     * Creates a tokenizer splitting on {@link #DEFAULT_SEPARATORS}.
+     */
+    public Tokenizer() {
+        this(DEFAULT, DEFAULT_SEPARATORS, new CharClass[0]);
+    }
+
+    /**
+     * Creates a tokenizer splitting on the given characters.
+     *
+     * @param separators
+     *            The separator characters
+     */
+    public Tokenizer(String separators) {
+        this(CHARS + separators, separators, new CharClass[0]);
+    }
+
+    /**
+     * Creates a tokenizer splitting on the given characters and on every
+     * character of the given classes.
+     *
+     * @param separators
+     *            The separator characters
+     * @param classes
+     *            The separator classes
+     */
+    public Tokenizer(String separators, CharClass... classes) {
+        this(describe(separators, classes), separators, classes);
+    }
+
+    /**
+     * Creates a tokenizer splitting on separators.
+     *
+     * @param spec
+     *            The specification of the tokenizer
+     * @param separators
+     *            The separator characters
+     * @param classes
+     *            The separator classes
+     */
+    private Tokenizer(String spec, String separators, CharClass[] classes) {
+        long[] set = new long[(Character.MAX_VALUE + 1) >>> 6];
+        boolean beyondAscii = false;
+        for (int i = 0; i < separators.length(); i++) {
+            char c = separators.charAt(i);
+            set[c >>> 6] |= 1L << c;
+            beyondAscii |= c >= 0x80;
+        }
+        if (classes.length > 0) {
+            for (int c = 0; c <= Character.MAX_VALUE; c++) {
+                for (CharClass k : classes) {
+                    if (k.contains((char) c)) {
+                        set[c >>> 6] |= 1L << c;
+                        beyondAscii |= c >= 0x80;
+                        break;
+                    }
+                }
+            }
+        }
+        int limit;
+        if (set[1] != 0) {
+            limit = 0x80 - Long.numberOfLeadingZeros(set[1]);
+        } else {
+            limit = 0x40 - Long.numberOfLeadingZeros(set[0]);
+        }
+        this.ascii = new boolean[limit];
+        for (int c = 0; c < limit; c++) {
+            this.ascii[c] = (set[c >>> 6] >>> c & 1) != 0;
+        }
+        this.bmp = beyondAscii ? set : null;
+        this.words = null;
+        this.spec = spec;
+    }
+
+    /**
+     * Creates a tokenizer splitting on Unicode word boundaries.
+     *
+     * @param locale
+     *            The locale whose word rules to use
+     */
+    private Tokenizer(Locale locale) {
+        this.ascii = new boolean[0];
+        this.bmp = null;
+        this.words = ThreadLocal
+                .withInitial(() -> BreakIterator.getWordInstance(locale));
+        this.spec = WORDS;
+    }
+
+    /**
+     * Creates a tokenizer from a specification: {@code words} for Unicode
+     * word boundaries, or separators joined with {@code '+'}, each one of
+     * {@code default} for {@link #DEFAULT_SEPARATORS}, the name of a
+     * {@link CharClass} in any case, or, last, {@code chars:} followed by the
+     * separator characters. For example, {@code default+punctuation+digits}
+     * also splits on quotes, non-ASCII punctuation and digits.
+     *
+     * @param spec
+     *            The specification
+     * @return The tokenizer
+     * @throws IllegalArgumentException
+     *             If {@code spec} is not a valid specification
+     */
+    public static Tokenizer of(String spec) {
+        if (spec.equals(DEFAULT)) {
+            return new Tokenizer();
+        }
+        if (spec.equals(WORDS)) {
+            return new Tokenizer(Locale.getDefault());
+        }
+        StringBuilder separators = new StringBuilder();
+        EnumSet<CharClass> classes = EnumSet.noneOf(CharClass.class);
+        int from = 0;
+        while (from < spec.length()) {
+            if (spec.startsWith(CHARS, from)) {
+                separators.append(spec, from + CHARS.length(), spec.length());
+                break;
+            }
+            int plus = spec.indexOf('+', from);
+            int to = plus < 0 ? spec.length() : plus;
+            String part = spec.substring(from, to);
+            if (part.equals(DEFAULT)) {
+                separators.append(DEFAULT_SEPARATORS);
+            } else {
+                try {
+                    classes.add(CharClass
+                            .valueOf(part.toUpperCase(Locale.ROOT)));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException(
+                            "Unknown separators: " + part, e);
+                }
+            }
+            from = to + 1;
+        }
+        return new Tokenizer(spec, separators.toString(),
+                classes.toArray(new CharClass[0]));
+    }
+
+    /**
+     * Returns the specification of a tokenizer splitting on the given
+     * characters and classes.
+     *
+     * @param separators
+     *            The separator characters
+     * @param classes
+     *            The separator classes
+     * @return The specification
+     */
+    private static String describe(String separators, CharClass[] classes) {
+        StringBuilder spec = new StringBuilder();
+        for (CharClass k : classes) {
+            spec.append(k.name().toLowerCase(Locale.ROOT)).append('+');
+        }
+        return spec.append(CHARS).append(separators).toString();
+    }
+
+    /**
+     * Returns the specification of this tokenizer, which {@link #of} turns
+     * back into an equivalent tokenizer.
+     *
+     * @return The specification
+     */
+    public String spec() {
+        return this.spec;
+    }
+
+    /**
+     * Reports whether {@code c} is a separator. Always false for a
+     * word-boundary tokenizer.
+     *
+     * @param c
+     *            The character to check
+     * @return true if {@code c} separates tags
+     */
+    public boolean isSeparator(char c) {
+        if (c < this.ascii.length) {
+            return this.ascii[c];
+        }
+        return c >= 0x80 && this.bmp != null
+                && (this.bmp[c >>> 6] >>> c & 1) != 0;
+    }
+
+    /**
+     * Passes every tag in {@code line} to {@code sink}. The end of the line
+     * always ends a tag.
+     *
+     * @param line
+     *            The line to split
+     * @param sink
+     *            Receiver of the tags
+     */
+    public void tokenize(CharSequence line, Sink sink) {
+        this.tokenize(line, 0, line.length(), sink);
+    }
+
+    /**
+     * Passes every tag in {@code line[from, to)} to {@code sink}. Position
+     * {@code to} always ends a tag.
+     *
+     * @param line
+     *            The text to split
+     * @param from
+     *            Index to start at
+     * @param to
+     *            Index to stop at
+     * @param sink
+     *            Receiver of the tags
+     */
+    public void tokenize(CharSequence line, int from, int to, Sink sink) {
+        if (this.words != null) {
+            this.tokenizeWords(line, from, to, sink);
+            return;
+        }
+        boolean[] table = this.ascii;
+        long[] rest = this.bmp;
+        int start = -1;
+        for (int i = from; i < to; i++) {
+            char c = line.charAt(i);
+            boolean separator;
+            if (c < table.length) {
+                separator = table[c];
+            } else {
+                separator = rest != null && c >= 0x80
+                        && (rest[c >>> 6] >>> c & 1) != 0;
+            }
+            if (separator) {
+                if (start >= 0) {
+                    sink.accept(line, start, i);
+                    start = -1;
+                }
+            } else if (start < 0) {
+                start = i;
+            }
+        }
+        if (start >= 0) {
+            sink.accept(line, start, to);
+        }
+    }
+
+    /**
+     * Passes every word of {@code line[from, to)} that has a letter or digit
+     * in it to {@code sink}.
+     *
+     * @param line
+     *            The text to split
+     * @param from
+     *            Index to start at
+     * @param to
+     *            Index to stop at
+     * @param sink
+     *            Receiver of the tags
+     */
+    private void tokenizeWords(CharSequence line, int from, int to,
+            Sink sink) {
+        String text = line.subSequence(from, to).toString();
+        BreakIterator boundaries = this.words.get();
+        boundaries.setText(text);
+        int start = boundaries.first();
+        int end = boundaries.next();
+        while (end != BreakIterator.DONE) {
+            int i = start;
+            while (i < end) {
+                int c = text.codePointAt(i);
+                if (Character.isLetterOrDigit(c)) {
+                    sink.accept(line, from + start, from + end);
+                    break;
+                }
+                i += Character.charCount(c);
+            }
+            start = end;
+            end = boundaries.next();
+        }
+    }
+}
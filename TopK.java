@@ -0,0 +1,102 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Keeps the {@code k} best items offered to it in a min-heap of size
+ * {@code k}, so selecting from {@code n} items takes O(n log k) time and O(k)
+ * space.
+ *
+ * <p>
+ * "Best" is the first in {@code order}. Items that compare equal to the worst
+ * kept item do not replace it, so {@code order} should be total for the result
+ * to be deterministic.
+ *
+ * @param <T>
+ *            type of the items
+ * @author Ben Elleman
+ *
+ */
+public final class TopK<T> {
+
+    /**
+     * Number of items to keep.
+     */
+    private final int k;
+
+    /**
+     * Order of the items, best first.
+     */
+    private final Comparator<? super T> order;
+
+    /**
+     * The kept items, worst at the head.
+     */
+    private final PriorityQueue<T> heap;
+
+    /**
+     * Creates an empty selector.
+     *
+     * @param k
+     *            Number of items to keep
+     * @param order
+     *            Order of the items, best first
+     */
+    public TopK(int k, Comparator<? super T> order) {
+        this.k = k;
+        this.order = order;
+        Comparator<T> worstFirst = (a, b) -> order.compare(b, a);
+        this.heap = new PriorityQueue<>(Math.max(1, Math.min(k, 1 << 16)),
+                worstFirst);
+    }
+
+    /**
+     * Offers {@code item}, keeping it if it is among the {@code k} best so far.
+     *
+     * @param item
+     *            The item to offer
+     * @return true if the item was kept
+     */
+    public boolean offer(T item) {
+        if (this.heap.size() < this.k) {
+            this.heap.add(item);
+            return true;
+        }
+        if (this.k > 0 && this.order.compare(item, this.heap.peek()) < 0) {
+            this.heap.poll();
+            this.heap.add(item);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Reports the worst item kept.
+     *
+     * @return The worst kept item, or null if none are kept
+     */
+    public T worst() {
+        return this.heap.peek();
+    }
+
+    /**
+     * Reports the number of items kept.
+     *
+     * @return The number of kept items
+     */
+    public int size() {
+        return this.heap.size();
+    }
+
+    /**
+     * Lists the kept items, best first.
+     *
+     * @return The kept items in {@code order}
+     */
+    public List<T> toList() {
+        List<T> list = new ArrayList<>(this.heap);
+        list.sort(this.order);
+        return list;
+    }
+}
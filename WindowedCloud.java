@@ -0,0 +1,430 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Replays a timestamped log as a stream and writes a tag cloud of the last
+ * few minutes at every tick, counted by a {@link WindowedCounter}. Each line
+ * should start with an ISO-8601 date and time, such as
+ * {@code 2024-05-01T12:00:03Z} or {@code 2024-05-01 12:00:03.250}, or with
+ * seconds or milliseconds since the epoch; the tags are taken from the rest
+ * of the line. A line without a timestamp, such as part of a stack trace,
+ * belongs to the tick of the line before it. Times without an offset are
+ * taken as UTC. A number is only taken as an epoch time if it falls within a
+ * day of the replay's clock, so a line starting with some other number does
+ * not move the clock. Once a gap in the log has emptied the window, no more
+ * clouds are written until the next line.
+ *
+ * <p>
+ * The log is read from a file, or from standard input if its name is
+ * {@code -}, so the same run can follow a live stream. With {@code --verify}
+ * the lines of the window are also kept, and every cloud is checked against
+ * a fresh count of the window, which makes a replayed file a repeatable test
+ * of the windowed counts.
+ *
+ * @author Ben Elleman
+ *
+ */
+public final class WindowedCloud {
+
+    /**
+     * Private constructor so this utility class cannot be instantiated.
+     */
+    private WindowedCloud() {
+    }
+
+    /**
+     * Default length of the window, in minutes.
+     */
+    static final int DEFAULT_WINDOW = 15;
+
+    /**
+     * Default time between clouds, in seconds.
+     */
+    static final int DEFAULT_TICK = 60;
+
+    /**
+     * Leading timestamp of a line: an ISO-8601 date and time with an
+     * optional fraction and offset, or an epoch time in seconds or
+     * milliseconds.
+     */
+    private static final Pattern TIMESTAMP = Pattern.compile(
+            "^(\\d{4}-\\d{2}-\\d{2}[T ]\\d{2}:\\d{2}:\\d{2}(?:[.,]\\d{1,9})?)"
+                    + "(Z|[+-]\\d{2}:?\\d{2})?|^(\\d{10}|\\d{13})(?!\\d)");
+
+    /**
+     * Largest distance of an epoch time from the time of the replay, in
+     * milliseconds. A number further away is taken as part of the line.
+     */
+    static final long MAX_EPOCH_SKEW = 24 * 3_600_000L;
+
+    /**
+     * Earliest epoch time accepted, 2000-01-01T00:00:00Z, in milliseconds.
+     */
+    static final long MIN_EPOCH = 946_684_800_000L;
+
+    /**
+     * Format of the tick times in the names of the clouds.
+     */
+    private static final DateTimeFormatter FILE_TIME = DateTimeFormatter
+            .ofPattern("yyyyMMdd'T'HHmmss'Z'").withZone(ZoneOffset.UTC);
+
+    /**
+     * Main method.
+     *
+     * @param args
+     *            A log file, or {@code -} for standard input, an output
+     *            directory and a cloud size, optionally followed by
+     *            {@code --window MINUTES}, {@code --tick SECONDS} and
+     *            {@code --verify}
+     */
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.out.println("Usage: WindowedCloud <log file|-> "
+                    + "<output directory> <cloud size> [--window MINUTES] "
+                    + "[--tick SECONDS] [--verify]");
+            return;
+        }
+        long window = DEFAULT_WINDOW * 60_000L;
+        long tick = DEFAULT_TICK * 1_000L;
+        boolean verify = false;
+        try {
+            for (int i = 3; i < args.length; i++) {
+                if (args[i].equals("--window") && i + 1 < args.length) {
+                    i++;
+                    window = Long.parseLong(args[i]) * 60_000L;
+                } else if (args[i].equals("--tick") && i + 1 < args.length) {
+                    i++;
+                    tick = Long.parseLong(args[i]) * 1_000L;
+                } else if (args[i].equals("--verify")) {
+                    verify = true;
+                }
+            }
+            if (tick <= 0 || window < tick) {
+                System.out.println("The window must hold at least one tick.");
+                return;
+            }
+            Path outputDir = Paths.get(args[1]);
+            int cloudSize = Integer.parseInt(args[2]);
+            Files.createDirectories(outputDir);
+            BufferedReader in;
+            if (args[0].equals("-")) {
+                in = new BufferedReader(new InputStreamReader(System.in,
+                        Charset.defaultCharset()));
+            } else {
+                in = Files.newBufferedReader(Paths.get(args[0]),
+                        Charset.defaultCharset());
+            }
+            try {
+                replay(in, args[0], outputDir, cloudSize,
+                        (int) ((window + tick - 1) / tick), tick, verify);
+            } finally {
+                in.close();
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("You must provide a valid number.");
+        } catch (IOException e) {
+            System.out.println("Not a valid input/output.");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * State of a replay: the window's counts, the lines kept to verify them,
+     * and the totals reported at the end.
+     */
+    private static final class Replay {
+
+        /**
+         * The window's counts.
+         */
+        private final WindowedCounter counter;
+
+        /**
+         * Where to write the clouds.
+         */
+        private final Path outputDir;
+
+        /**
+         * Name of the log, shown in the clouds.
+         */
+        private final String name;
+
+        /**
+         * Number of tags in a cloud.
+         */
+        private final int cloudSize;
+
+        /**
+         * Number of ticks in the window.
+         */
+        private final int buckets;
+
+        /**
+         * Lines of each earlier tick in the window, or null if clouds are
+         * not verified.
+         */
+        private final Deque<List<String>> recent;
+
+        /**
+         * Lines of the current tick, if clouds are verified.
+         */
+        private List<String> lines = new ArrayList<>();
+
+        /**
+         * Number of clouds written.
+         */
+        private long ticks;
+
+        /**
+         * Number of clouds that differed from a full count.
+         */
+        private long mismatches;
+
+        /**
+         * Time spent in ticks, in nanoseconds.
+         */
+        private long tickNanos;
+
+        /**
+         * Time spent in full counts, in nanoseconds.
+         */
+        private long recountNanos;
+
+        /**
+         * Creates the state of a replay.
+         *
+         * @param outputDir
+         *            Where to write the clouds
+         * @param name
+         *            Name of the log
+         * @param cloudSize
+         *            Number of tags in a cloud
+         * @param buckets
+         *            Number of ticks in the window
+         * @param verify
+         *            Whether to check each cloud against a full count
+         */
+        Replay(Path outputDir, String name, int cloudSize, int buckets,
+                boolean verify) {
+            this.counter = new WindowedCounter(buckets, cloudSize,
+                    new Tokenizer(), null);
+            this.outputDir = outputDir;
+            this.name = name;
+            this.cloudSize = cloudSize;
+            this.buckets = buckets;
+            this.recent = verify ? new ArrayDeque<>() : null;
+        }
+
+        /**
+         * Counts a line in the current tick.
+         *
+         * @param body
+         *            The line, without its timestamp
+         */
+        void add(String body) {
+            this.counter.add(body);
+            if (this.recent != null) {
+                this.lines.add(body);
+            }
+        }
+
+        /**
+         * Ends the current tick and writes the cloud of the window.
+         *
+         * @param tickEnd
+         *            End of the tick, in milliseconds since the epoch
+         * @throws IOException
+         *             If the cloud cannot be written
+         */
+        void tick(long tickEnd) throws IOException {
+            long start = System.nanoTime();
+            this.counter.tick();
+            this.tickNanos += System.nanoTime() - start;
+            this.ticks++;
+            String time = FILE_TIME.format(Instant.ofEpochMilli(tickEnd));
+            Path file = this.outputDir.resolve("cloud-" + time + ".html");
+            CloudPipeline.Cloud cloud = CloudPipeline.reduce(
+                    this.counter.top(), this.cloudSize);
+            try (PrintWriter output = new PrintWriter(new BufferedWriter(
+                    Files.newBufferedWriter(file, Charset.defaultCharset()),
+                    TCS2.OUTPUT_BUFFER))) {
+                CloudPipeline.render(output, this.name + " until " + time,
+                        this.cloudSize, cloud);
+            }
+            if (this.recent != null) {
+                this.recent.addLast(this.lines);
+                this.lines = new ArrayList<>();
+                if (this.recent.size() > this.buckets) {
+                    this.recent.removeFirst();
+                }
+                start = System.nanoTime();
+                if (!this.recount().tags().equals(cloud.tags())) {
+                    this.mismatches++;
+                    System.out.println("Cloud at " + time
+                            + " differs from a full count");
+                }
+                this.recountNanos += System.nanoTime() - start;
+            }
+        }
+
+        /**
+         * Counts the lines of the window from scratch.
+         *
+         * @return The cloud of the window
+         * @throws IOException
+         *             Never; the lines are already in memory
+         */
+        private CloudPipeline.Cloud recount() throws IOException {
+            List<String> window = new ArrayList<>();
+            for (List<String> tick : this.recent) {
+                window.addAll(tick);
+            }
+            Iterator<String> it = window.iterator();
+            Map<String, Integer> counts = TCS2.mapGenerator(
+                    () -> it.hasNext() ? it.next() : null, new Tokenizer(),
+                    null, null);
+            return CloudPipeline.reduce(counts, this.cloudSize);
+        }
+    }
+
+    /**
+     * Reads a log to the end, writing a cloud of the window at every tick.
+     *
+     * @param in
+     *            The log
+     * @param name
+     *            Name of the log, shown in the clouds
+     * @param outputDir
+     *            Where to write the clouds
+     * @param cloudSize
+     *            Number of tags in a cloud
+     * @param buckets
+     *            Number of ticks in the window
+     * @param tick
+     *            Time between clouds, in milliseconds
+     * @param verify
+     *            Whether to check each cloud against a full count
+     * @throws IOException
+     *             If the log cannot be read or a cloud cannot be written
+     */
+    static void replay(BufferedReader in, String name, Path outputDir,
+            int cloudSize, int buckets, long tick, boolean verify)
+            throws IOException {
+        Replay replay = new Replay(outputDir, name, cloudSize, buckets,
+                verify);
+        long tickEnd = Long.MIN_VALUE;
+        String line = in.readLine();
+        while (line != null) {
+            Matcher m = TIMESTAMP.matcher(line);
+            long time = m.lookingAt() ? timestamp(m) : Long.MIN_VALUE;
+            if (time != Long.MIN_VALUE && m.group(3) != null
+                    && !plausibleEpoch(time, tickEnd == Long.MIN_VALUE
+                            ? Long.MIN_VALUE : tickEnd - tick)) {
+                time = Long.MIN_VALUE;
+            }
+            String body = line;
+            if (time != Long.MIN_VALUE) {
+                body = line.substring(m.end());
+                if (tickEnd == Long.MIN_VALUE) {
+                    tickEnd = Math.floorDiv(time, tick) * tick + tick;
+                }
+                //Lines out of order count in the tick they arrive in
+                int written = 0;
+                while (time >= tickEnd) {
+                    if (written > buckets) {
+                        //The window is empty, so the rest of the gap is too
+                        tickEnd = Math.floorDiv(time, tick) * tick + tick;
+                        break;
+                    }
+                    replay.tick(tickEnd);
+                    tickEnd += tick;
+                    written++;
+                }
+            }
+            replay.add(body);
+            line = in.readLine();
+        }
+        if (tickEnd != Long.MIN_VALUE) {
+            replay.tick(tickEnd);
+        }
+        //Confirmation message
+        System.out.println(replay.ticks + " clouds written to " + outputDir
+                + ", " + replay.tickNanos / 1_000_000 + " ms in ticks, "
+                + replay.counter.rescans() + " full rankings");
+        if (verify) {
+            System.out.println("Verified against full counts taking "
+                    + replay.recountNanos / 1_000_000 + " ms: "
+                    + replay.mismatches + " mismatches");
+        }
+    }
+
+    /**
+     * Reports whether an epoch time is close enough to the replay's clock to
+     * be a timestamp rather than a number that starts a line.
+     *
+     * @param time
+     *            The epoch time, in milliseconds
+     * @param now
+     *            Start of the current tick, or {@code Long.MIN_VALUE} before
+     *            the first timestamp
+     * @return true if the time is taken as a timestamp
+     */
+    static boolean plausibleEpoch(long time, long now) {
+        if (now == Long.MIN_VALUE) {
+            return time >= MIN_EPOCH
+                    && time <= System.currentTimeMillis() + MAX_EPOCH_SKEW;
+        }
+        return Math.abs(time - now) <= MAX_EPOCH_SKEW;
+    }
+
+    /**
+     * Converts a matched timestamp to milliseconds since the epoch.
+     *
+     * @param m
+     *            A match of {@code TIMESTAMP}
+     * @return The time, or {@code Long.MIN_VALUE} if it is not a valid date
+     */
+    private static long timestamp(Matcher m) {
+        if (m.group(3) != null) {
+            long value = Long.parseLong(m.group(3));
+            return m.group(3).length() == 10 ? value * 1000 : value;
+        }
+        String text = m.group(1).replace(' ', 'T').replace(',', '.');
+        try {
+            if (m.group(2) == null) {
+                return LocalDateTime.parse(text).toInstant(ZoneOffset.UTC)
+                        .toEpochMilli();
+            }
+            String offset = m.group(2);
+            if (offset.length() == 5) {
+                //+hhmm as +hh:mm
+                offset = offset.substring(0, 3) + ":" + offset.substring(3);
+            }
+            return OffsetDateTime.parse(text + offset).toInstant()
+                    .toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+}
@@ -0,0 +1,307 @@
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map.Entry;
+
+/**
+ * Counts the tags of a stream over a sliding window of time, such as the
+ * last fifteen minutes refreshed every minute. The window is a ring of
+ * buckets, one {@link WordCounter} per tick. Lines are counted into the
+ * current bucket; at each {@link #tick()} that bucket is added to the
+ * window's running counts and the bucket leaving the window is subtracted
+ * and reused, so a tick costs time in proportion to the tags of two buckets,
+ * not of the whole window.
+ *
+ * <p>
+ * The {@code 2k} most common tags are kept between ticks, with a bound that
+ * every other tag ranks below. A tag that was not kept and did not occur in
+ * the new bucket cannot have gained, so each tick only ranks the kept tags
+ * and the new bucket's tags. The {@code k} best of those are exact as long
+ * as the last of them still ranks above the bound; only when the kept tags
+ * lost enough to the expired bucket is the whole window ranked again.
+ *
+ * @author Ben Elleman
+ *
+ */
+public final class WindowedCounter {
+
+    /**
+     * The buckets of the window, and the one being filled.
+     */
+    private final WordCounter[] ring;
+
+    /**
+     * Index of the bucket being filled.
+     */
+    private int current;
+
+    /**
+     * Sum of the counts of the buckets in the window.
+     */
+    private WordCounter window;
+
+    /**
+     * Lowercases and filters tags into the bucket being filled.
+     */
+    private Normalizer counter;
+
+    /**
+     * Splitter of lines into tags.
+     */
+    private final Tokenizer tokenizer;
+
+    /**
+     * Tags to count, or null for all of them.
+     */
+    private final TagFilter filter;
+
+    /**
+     * Number of tags to keep.
+     */
+    private final int k;
+
+    /**
+     * Ids in {@code window} of the kept tags, most common first.
+     */
+    private int[] kept = new int[0];
+
+    /**
+     * Id of the tag every tag not kept ranks below, or -1 if every tag in
+     * the window is kept.
+     */
+    private int bound = -1;
+
+    /**
+     * Count {@code bound} had when it became the bound.
+     */
+    private int boundCount;
+
+    /**
+     * Candidates already offered during a tick.
+     */
+    private final BitSet offered = new BitSet();
+
+    /**
+     * Number of ticks that ranked the whole window.
+     */
+    private long rescans;
+
+    /**
+     * Creates an empty window of {@code buckets} ticks.
+     *
+     * @param buckets
+     *            Number of ticks in the window
+     * @param k
+     *            Number of tags to keep
+     * @param tokenizer
+     *            Splitter of lines into tags
+     * @param filter
+     *            Tags to count, or null for all of them
+     */
+    public WindowedCounter(int buckets, int k, Tokenizer tokenizer,
+            TagFilter filter) {
+        if (buckets < 1) {
+            throw new IllegalArgumentException(
+                    "A window needs at least one bucket");
+        }
+        this.ring = new WordCounter[buckets + 1];
+        for (int i = 0; i < this.ring.length; i++) {
+            this.ring[i] = new WordCounter();
+        }
+        this.window = new WordCounter();
+        this.tokenizer = tokenizer;
+        this.filter = filter;
+        this.k = k;
+        this.counter = new Normalizer(this.ring[0], filter);
+    }
+
+    /**
+     * Counts the tags of {@code line} in the current tick.
+     *
+     * @param line
+     *            A line of the stream
+     */
+    public void add(CharSequence line) {
+        this.tokenizer.tokenize(line, this.counter);
+    }
+
+    /**
+     * Ends the current tick: adds its bucket to the window, drops the oldest
+     * bucket from it, and updates the kept tags.
+     */
+    public void tick() {
+        WordCounter fresh = this.ring[this.current];
+        int[] added = this.window.merge(fresh, 1);
+        this.current = (this.current + 1) % this.ring.length;
+        WordCounter expired = this.ring[this.current];
+        this.window.merge(expired, -1);
+        expired.clear();
+        this.counter = new Normalizer(expired, this.filter);
+        if (this.window.size() > 2 * this.liveBound() + 1024) {
+            this.compact();
+            this.rank(null);
+        } else {
+            this.rank(added);
+        }
+    }
+
+    /**
+     * Bounds the number of tags with a non-zero count in the window.
+     *
+     * @return The number of distinct tags over all buckets
+     */
+    private long liveBound() {
+        long bound = 0;
+        for (WordCounter bucket : this.ring) {
+            bound += bucket.size();
+        }
+        return bound;
+    }
+
+    /**
+     * Rebuilds the window's counts from its buckets, dropping the tags that
+     * left it.
+     */
+    private void compact() {
+        WordCounter rebuilt = new WordCounter();
+        for (int i = 0; i < this.ring.length; i++) {
+            if (i != this.current) {
+                rebuilt.merge(this.ring[i], 1);
+            }
+        }
+        this.window = rebuilt;
+        this.kept = new int[0];
+        this.bound = -1;
+    }
+
+    /**
+     * Updates the kept tags after a tick.
+     *
+     * @param added
+     *            Ids in the window of the new bucket's tags, or null to rank
+     *            the whole window
+     */
+    private void rank(int[] added) {
+        WordCounter w = this.window;
+        Comparator<Integer> order = (a, b) -> {
+            int x = Integer.compare(w.count(b), w.count(a));
+            return x != 0 ? x : w.compareKeys(a, b);
+        };
+        int depth = 2 * this.k;
+        TopK<Integer> top = new TopK<>(depth, order);
+        List<Integer> best = null;
+        if (added != null) {
+            this.offered.clear();
+            for (int id : this.kept) {
+                this.offer(top, id);
+            }
+            for (int id : added) {
+                this.offer(top, id);
+            }
+            best = top.toList();
+            if (top.size() == depth && (this.bound < 0
+                    || !this.below(top.worst(), this.bound, this.boundCount))) {
+                this.bound = top.worst();
+                this.boundCount = w.count(this.bound);
+            }
+            //A tag that was not kept may now be among the k best
+            if (this.bound >= 0 && this.k > 0 && (best.size() < this.k
+                    || this.below(best.get(this.k - 1), this.bound,
+                            this.boundCount))) {
+                best = null;
+            }
+        }
+        if (best == null) {
+            this.rescans++;
+            top = new TopK<>(depth, order);
+            for (int id = 0; id < w.size(); id++) {
+                if (w.count(id) > 0) {
+                    top.offer(id);
+                }
+            }
+            best = top.toList();
+            this.bound = -1;
+            if (top.size() == depth && depth > 0) {
+                this.bound = top.worst();
+                this.boundCount = w.count(this.bound);
+            }
+        }
+        this.kept = new int[best.size()];
+        for (int i = 0; i < this.kept.length; i++) {
+            this.kept[i] = best.get(i);
+        }
+    }
+
+    /**
+     * Reports whether tag {@code id} now ranks below tag {@code other} with
+     * the count {@code otherCount}.
+     *
+     * @param id
+     *            Id of a tag in the window
+     * @param other
+     *            Id of another tag in the window
+     * @param otherCount
+     *            Count of {@code other} to compare with
+     * @return true if {@code id} ranks below
+     */
+    private boolean below(int id, int other, int otherCount) {
+        int count = this.window.count(id);
+        if (count != otherCount) {
+            return count < otherCount;
+        }
+        return this.window.compareKeys(id, other) > 0;
+    }
+
+    /**
+     * Offers tag {@code id} to {@code top} once per tick, if it is still in
+     * the window.
+     *
+     * @param top
+     *            The tags being ranked
+     * @param id
+     *            Id of a tag in the window
+     */
+    private void offer(TopK<Integer> top, int id) {
+        if (!this.offered.get(id) && this.window.count(id) > 0) {
+            this.offered.set(id);
+            top.offer(id);
+        }
+    }
+
+    /**
+     * Returns the kept tags and their counts over the window, most common
+     * first.
+     *
+     * @return The most common tags
+     */
+    public List<Entry<String, Integer>> top() {
+        int n = Math.min(this.k, this.kept.length);
+        List<Entry<String, Integer>> top = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            int id = this.kept[i];
+            top.add(new SimpleImmutableEntry<>(this.window.key(id),
+                    this.window.count(id)));
+        }
+        return top;
+    }
+
+    /**
+     * Reports the number of tags counted in the window, including repeats.
+     *
+     * @return The sum of the window's counts
+     */
+    public long total() {
+        return this.window.total();
+    }
+
+    /**
+     * Reports how many ticks had to rank the whole window.
+     *
+     * @return The number of full rankings
+     */
+    public long rescans() {
+        return this.rescans;
+    }
+}
@@ -0,0 +1,541 @@
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Counts occurrences of words in an open-addressing hash table with primitive
+ * {@code int} counts. Keys are copied into one shared {@code char} pool, so a
+ * word can be counted straight from a range of a larger {@code CharSequence}
+ * and only becomes a {@code String} when the table is exported.
+ *
+ * <p>
+ * Every distinct word gets a dense id, in order of first appearance, which can
+ * be passed to {@link #key(int)} and {@link #count(int)}.
+ *
+ * @author Ben Elleman
+ *
+ */
+public final class WordCounter {
+
+    /**
+     * Largest fraction of the slots that may be used before the table grows.
+     */
+    private static final double LOAD_FACTOR = 0.6;
+
+    /**
+     * Largest array the table will allocate.
+     */
+    private static final int MAX_ARRAY = Integer.MAX_VALUE - 8;
+
+    /**
+     * Marks an empty slot.
+     */
+    private static final int EMPTY = -1;
+
+    /**
+     * Slots of the hash table, holding word ids or {@code EMPTY}.
+     */
+    private int[] slots;
+
+    /**
+     * Hash of each word, by id.
+     */
+    private int[] hashes;
+
+    /**
+     * Offset of each word in {@code pool}, by id.
+     */
+    private int[] offsets;
+
+    /**
+     * Length of each word, by id.
+     */
+    private int[] lengths;
+
+    /**
+     * Count of each word, by id.
+     */
+    private int[] counts;
+
+    /**
+     * Characters of every word, back to back.
+     */
+    private char[] pool;
+
+    /**
+     * Characters of {@code pool} in use.
+     */
+    private int poolSize;
+
+    /**
+     * Number of distinct words.
+     */
+    private int size;
+
+    /**
+     * Sum of all counts.
+     */
+    private long total;
+
+    /**
+     * Creates an empty counter.
+     */
+    public WordCounter() {
+        this(16);
+    }
+
+    /**
+     * Creates an empty counter sized for {@code expected} distinct words.
+     *
+     * @param expected
+     *            Expected number of distinct words
+     */
+    public WordCounter(int expected) {
+        int capacity = Math.max(16, expected);
+        this.slots = new int[tableSize(capacity)];
+        Arrays.fill(this.slots, EMPTY);
+        this.hashes = new int[capacity];
+        this.offsets = new int[capacity];
+        this.lengths = new int[capacity];
+        this.counts = new int[capacity];
+        this.pool = new char[capacity * 8];
+    }
+
+    /**
+     * Finds the power of two number of slots needed for {@code words} words.
+     *
+     * @param words
+     *            Number of words to hold
+     * @return The number of slots
+     */
+    private static int tableSize(int words) {
+        int needed = (int) Math.ceil(words / LOAD_FACTOR);
+        return Integer.highestOneBit(Math.max(needed, 2) - 1) << 1;
+    }
+
+    /**
+     * Hashes {@code text[start, end)}.
+     *
+     * @param text
+     *            The text holding the word
+     * @param start
+     *            First character of the word
+     * @param end
+     *            One past the last character of the word
+     * @return The hash of the word
+     */
+    static int hash(CharSequence text, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + text.charAt(i);
+        }
+        return mix(h);
+    }
+
+    /**
+     * Spreads the bits of a string hash so the low bits can index the table.
+     *
+     * @param h
+     *            A string hash
+     * @return The spread hash
+     */
+    static int mix(int h) {
+        int x = h * 0x9E3779B9;
+        return x ^ (x >>> 16);
+    }
+
+    /**
+     * Adds one to the count of {@code word}.
+     *
+     * @param word
+     *            The word to count
+     * @return The new count of {@code word}
+     */
+    public int increment(CharSequence word) {
+        return this.add(word, 0, word.length(), 1);
+    }
+
+    /**
+     * Adds one to the count of the word {@code text[start, end)}.
+     *
+     * @param text
+     *            The text holding the word
+     * @param start
+     *            First character of the word
+     * @param end
+     *            One past the last character of the word
+     * @return The new count of the word
+     */
+    public int increment(CharSequence text, int start, int end) {
+        return this.add(text, start, end, 1);
+    }
+
+    /**
+     * Adds one to the count of the word {@code text[start, end)}, whose
+     * {@code String} hash the caller has already computed.
+     *
+     * @param text
+     *            The text holding the word
+     * @param start
+     *            First character of the word
+     * @param end
+     *            One past the last character of the word
+     * @param stringHash
+     *            The word's {@code String.hashCode()}
+     * @return The new count of the word
+     */
+    public int increment(CharSequence text, int start, int end,
+            int stringHash) {
+        int id = this.idOf(text, start, end, mix(stringHash), true);
+        this.counts[id]++;
+        this.total++;
+        return this.counts[id];
+    }
+
+    /**
+     * Finds the id of the word {@code text[start, end)}, whose {@code String}
+     * hash the caller has already computed, adding it with a count of zero
+     * if it is new. The count is left unchanged.
+     *
+     * @param text
+     *            The text holding the word
+     * @param start
+     *            First character of the word
+     * @param end
+     *            One past the last character of the word
+     * @param stringHash
+     *            The word's {@code String.hashCode()}
+     * @return The id of the word
+     */
+    public int intern(CharSequence text, int start, int end,
+            int stringHash) {
+        return this.idOf(text, start, end, mix(stringHash), true);
+    }
+
+    /**
+     * Adds {@code amount} to the count of the word {@code text[start, end)}.
+     *
+     * @param text
+     *            The text holding the word
+     * @param start
+     *            First character of the word
+     * @param end
+     *            One past the last character of the word
+     * @param amount
+     *            The amount to add
+     * @return The new count of the word
+     */
+    public int add(CharSequence text, int start, int end, int amount) {
+        int id = this.idOf(text, start, end, hash(text, start, end), true);
+        this.counts[id] += amount;
+        this.total += amount;
+        return this.counts[id];
+    }
+
+    /**
+     * Adds {@code sign} times each count of {@code other} to this table,
+     * adding the words it lacks. Words whose count drops to zero keep their
+     * ids.
+     *
+     * @param other
+     *            The counts to add
+     * @param sign
+     *            1 to add the counts, -1 to subtract them
+     * @return The id here of each word of {@code other}, by its id there
+     */
+    public int[] merge(WordCounter other, int sign) {
+        CharBuffer text = CharBuffer.wrap(other.pool);
+        int[] ids = new int[other.size];
+        for (int id = 0; id < other.size; id++) {
+            int start = other.offsets[id];
+            int here = this.idOf(text, start, start + other.lengths[id],
+                    other.hashes[id], true);
+            this.counts[here] += sign * other.counts[id];
+            ids[id] = here;
+        }
+        this.total += sign * other.total;
+        return ids;
+    }
+
+    /**
+     * Adds one to the count of every word of {@code other}, however often
+     * it occurs there, so that counting documents this way gives the number
+     * of documents holding each word.
+     *
+     * @param other
+     *            The words to count
+     */
+    public void addKeys(WordCounter other) {
+        CharBuffer text = CharBuffer.wrap(other.pool);
+        for (int id = 0; id < other.size; id++) {
+            int start = other.offsets[id];
+            int here = this.idOf(text, start, start + other.lengths[id],
+                    other.hashes[id], true);
+            this.counts[here]++;
+        }
+        this.total += other.size;
+    }
+
+    /**
+     * Finds the id of {@code text[start, end)}, adding the word if
+     * {@code create} is set.
+     *
+     * @param text
+     *            The text holding the word
+     * @param start
+     *            First character of the word
+     * @param end
+     *            One past the last character of the word
+     * @param hash
+     *            Hash of the word
+     * @param create
+     *            Whether to add the word if it is missing
+     * @return The id of the word, or -1 if it is missing and not created
+     */
+    private int idOf(CharSequence text, int start, int end, int hash,
+            boolean create) {
+        int mask = this.slots.length - 1;
+        int slot = hash & mask;
+        int id = this.slots[slot];
+        while (id != EMPTY) {
+            if (this.hashes[id] == hash && this.matches(id, text, start, end)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+            id = this.slots[slot];
+        }
+        if (!create) {
+            return -1;
+        }
+        id = this.append(text, start, end, hash);
+        this.slots[slot] = id;
+        if (this.size > this.slots.length * LOAD_FACTOR) {
+            this.rehash(this.slots.length * 2);
+        }
+        return id;
+    }
+
+    /**
+     * Reports whether word {@code id} equals {@code text[start, end)}.
+     *
+     * @param id
+     *            Id of a word
+     * @param text
+     *            The text holding the other word
+     * @param start
+     *            First character of the other word
+     * @param end
+     *            One past the last character of the other word
+     * @return true if the words are equal
+     */
+    private boolean matches(int id, CharSequence text, int start, int end) {
+        int length = end - start;
+        if (this.lengths[id] != length) {
+            return false;
+        }
+        int offset = this.offsets[id];
+        for (int i = 0; i < length; i++) {
+            if (this.pool[offset + i] != text.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stores a new word with a count of zero.
+     *
+     * @param text
+     *            The text holding the word
+     * @param start
+     *            First character of the word
+     * @param end
+     *            One past the last character of the word
+     * @param hash
+     *            Hash of the word
+     * @return The id of the new word
+     */
+    private int append(CharSequence text, int start, int end, int hash) {
+        int id = this.size;
+        if (id == this.counts.length) {
+            int capacity = (int) Math.min(MAX_ARRAY, 2L * id);
+            this.hashes = Arrays.copyOf(this.hashes, capacity);
+            this.offsets = Arrays.copyOf(this.offsets, capacity);
+            this.lengths = Arrays.copyOf(this.lengths, capacity);
+            this.counts = Arrays.copyOf(this.counts, capacity);
+        }
+        int length = end - start;
+        if (this.poolSize + length > this.pool.length) {
+            this.pool = Arrays.copyOf(this.pool, (int) Math.min(MAX_ARRAY,
+                    Math.max(2L * this.pool.length, this.poolSize + length)));
+        }
+        for (int i = 0; i < length; i++) {
+            this.pool[this.poolSize + i] = text.charAt(start + i);
+        }
+        this.hashes[id] = hash;
+        this.offsets[id] = this.poolSize;
+        this.lengths[id] = length;
+        this.poolSize += length;
+        this.size++;
+        return id;
+    }
+
+    /**
+     * Rebuilds the slot table with {@code capacity} slots.
+     *
+     * @param capacity
+     *            The new number of slots, a power of two
+     */
+    private void rehash(int capacity) {
+        int[] table = new int[capacity];
+        Arrays.fill(table, EMPTY);
+        int mask = capacity - 1;
+        for (int id = 0; id < this.size; id++) {
+            int slot = this.hashes[id] & mask;
+            while (table[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = id;
+        }
+        this.slots = table;
+    }
+
+    /**
+     * Reports the count of {@code word}.
+     *
+     * @param word
+     *            The word to look up
+     * @return The count of {@code word}, or 0 if it has not been counted
+     */
+    public int count(CharSequence word) {
+        int id = this.idOf(word, 0, word.length(),
+                hash(word, 0, word.length()), false);
+        if (id < 0) {
+            return 0;
+        }
+        return this.counts[id];
+    }
+
+    /**
+     * Reports the count of word {@code id}.
+     *
+     * @param id
+     *            Id of a word
+     * @return The count of the word
+     */
+    public int count(int id) {
+        return this.counts[id];
+    }
+
+    /**
+     * Makes a {@code String} of word {@code id}.
+     *
+     * @param id
+     *            Id of a word
+     * @return The word
+     */
+    public String key(int id) {
+        return new String(this.pool, this.offsets[id], this.lengths[id]);
+    }
+
+    /**
+     * Compares words {@code a} and {@code b} as {@code String.compareTo}
+     * would, without making a {@code String} of either.
+     *
+     * @param a
+     *            Id of a word
+     * @param b
+     *            Id of another word
+     * @return A negative number, zero or a positive number as word {@code a}
+     *         sorts before, equal to or after word {@code b}
+     */
+    public int compareKeys(int a, int b) {
+        int length = Math.min(this.lengths[a], this.lengths[b]);
+        for (int i = 0; i < length; i++) {
+            char x = this.pool[this.offsets[a] + i];
+            char y = this.pool[this.offsets[b] + i];
+            if (x != y) {
+                return x - y;
+            }
+        }
+        return this.lengths[a] - this.lengths[b];
+    }
+
+    /**
+     * Appends word {@code id} to {@code out} without making a {@code String}
+     * of it.
+     *
+     * @param id
+     *            Id of a word
+     * @param out
+     *            Where to append the word
+     */
+    public void appendKey(int id, StringBuilder out) {
+        out.append(this.pool, this.offsets[id], this.lengths[id]);
+    }
+
+    /**
+     * Reports the number of distinct words.
+     *
+     * @return The number of distinct words
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Reports the number of words counted, including repeats.
+     *
+     * @return The sum of all counts
+     */
+    public long total() {
+        return this.total;
+    }
+
+    /**
+     * Removes every word.
+     */
+    public void clear() {
+        Arrays.fill(this.slots, EMPTY);
+        Arrays.fill(this.counts, 0, this.size, 0);
+        this.size = 0;
+        this.poolSize = 0;
+        this.total = 0;
+    }
+
+    /**
+     * Copies the table into a {@code HashMap}, making a {@code String} of each
+     * word.
+     *
+     * @return A map of every word and its count
+     */
+    public Map<String, Integer> toMap() {
+        Map<String, Integer> map = new HashMap<>(
+                (int) (this.size / 0.75f) + 1);
+        for (int id = 0; id < this.size; id++) {
+            map.put(this.key(id), this.counts[id]);
+        }
+        return map;
+    }
+
+    /**
+     * Estimates the part of the table's arrays taken by the words it holds.
+     * Unlike {@link #estimatedBytes}, this drops when the table is cleared.
+     *
+     * @return Estimated size in bytes
+     */
+    public long usedBytes() {
+        return 4L * this.slots.length + 16L * this.size + 2L * this.poolSize;
+    }
+
+    /**
+     * Estimates the heap used by the table's arrays.
+     *
+     * @return Estimated size in bytes
+     */
+    public long estimatedBytes() {
+        long ints = (long) this.slots.length + 4L * this.counts.length;
+        return 4 * ints + 2L * this.pool.length;
+    }
+}
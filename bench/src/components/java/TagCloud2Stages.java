@@ -0,0 +1,99 @@
+import java.nio.file.Path;
+
+import components.map.Map;
+import components.map.Map1L;
+import components.simplereader.SimpleReader;
+import components.simplereader.SimpleReader1L;
+import components.simplewriter.SimpleWriter;
+import components.simplewriter.SimpleWriter1L;
+import components.sortingmachine.SortingMachine;
+
+/**
+ * The stages of {@code TagCloud2} as plain static calls, for the benchmarks in
+ * {@code wordclouds.bench}.
+ *
+ * @author Ben Elleman
+ *
+ */
+public final class TagCloud2Stages {
+
+    /**
+     * Private constructor so this utility class cannot be instantiated.
+     */
+    private TagCloud2Stages() {
+    }
+
+    /**
+     * Counts the tags of {@code file} with {@code TagCloud2.mapGenerator}.
+     *
+     * @param file
+     *            The file to read
+     * @return A map of every tag and its count
+     */
+    public static Map<String, Integer> count(Path file) {
+        SimpleReader in = new SimpleReader1L(file.toString());
+        Map<String, Integer> tags = TagCloud2.mapGenerator(in);
+        in.close();
+        return tags;
+    }
+
+    /**
+     * Copies {@code counts}, since the later stages consume their input.
+     *
+     * @param counts
+     *            A map of tags and counts
+     * @return A copy of {@code counts}
+     */
+    public static Map<String, Integer> copy(Map<String, Integer> counts) {
+        Map<String, Integer> copy = new Map1L<>();
+        for (Map.Pair<String, Integer> pair : counts) {
+            copy.add(pair.key(), pair.value());
+        }
+        return copy;
+    }
+
+    /**
+     * Reduces {@code counts} to its {@code cloudSize} most common tags.
+     *
+     * @param counts
+     *            A map of tags and counts; replaced by the reduced map
+     * @param cloudSize
+     *            Number of tags to keep
+     * @return {@code counts}
+     */
+    public static Map<String, Integer> reduce(Map<String, Integer> counts,
+            int cloudSize) {
+        TagCloud2.mapReducer(counts, cloudSize);
+        return counts;
+    }
+
+    /**
+     * Sorts {@code counts} alphabetically.
+     *
+     * @param counts
+     *            A map of tags and counts; emptied
+     * @return The tags in alphabetical order
+     */
+    public static SortingMachine<Map.Pair<String, Integer>> alphabetize(
+            Map<String, Integer> counts) {
+        return TagCloud2.alphabetize(counts);
+    }
+
+    /**
+     * Renders the HTML of {@code counts} into {@code file}.
+     *
+     * @param counts
+     *            A map of tags and counts; emptied
+     * @param file
+     *            Where to write the HTML
+     */
+    public static void render(Map<String, Integer> counts, Path file) {
+        SortingMachine<Map.Pair<String, Integer>> sorted = TagCloud2
+                .alphabetize(counts);
+        SimpleWriter out = new SimpleWriter1L(file.toString());
+        TagCloud2.htmlHeader(out, "corpus");
+        TagCloud2.htmlBody(out, sorted);
+        TagCloud2.htmlFooter(out);
+        out.close();
+    }
+}
@@ -0,0 +1,245 @@
+package wordclouds.bench;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks each stage of {@code TagCloud2} on the same corpora as
+ * {@link TCS2Bench}, so the two can be compared side by side.
+ *
+ * @author Ben Elleman
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms2g", "-Xmx2g" })
+@State(Scope.Benchmark)
+public class TagCloud2Bench {
+
+    /**
+     * {@code TagCloud2Stages.count(Path)}.
+     */
+    private static final MethodHandle COUNT = Hooks.find("TagCloud2Stages",
+            "count", components.map.Map.class, Path.class);
+
+    /**
+     * {@code TagCloud2Stages.copy(Map)}.
+     */
+    private static final MethodHandle COPY = Hooks.find("TagCloud2Stages",
+            "copy", components.map.Map.class, components.map.Map.class);
+
+    /**
+     * {@code TagCloud2Stages.reduce(Map, int)}.
+     */
+    private static final MethodHandle REDUCE = Hooks.find("TagCloud2Stages",
+            "reduce", components.map.Map.class, components.map.Map.class,
+            int.class);
+
+    /**
+     * {@code TagCloud2Stages.alphabetize(Map)}.
+     */
+    private static final MethodHandle ALPHABETIZE = Hooks.find(
+            "TagCloud2Stages", "alphabetize",
+            components.sortingmachine.SortingMachine.class,
+            components.map.Map.class);
+
+    /**
+     * {@code TagCloud2Stages.render(Map, Path)}.
+     */
+    private static final MethodHandle RENDER = Hooks.find("TagCloud2Stages",
+            "render", void.class, components.map.Map.class, Path.class);
+
+    /**
+     * Size of the corpus in MB.
+     */
+    @Param({ "1", "16", "256", "1024" })
+    public int sizeMb;
+
+    /**
+     * Number of tags in the cloud.
+     */
+    @Param({ "100" })
+    public int cloudSize;
+
+    /**
+     * The corpus.
+     */
+    private Path corpus;
+
+    /**
+     * Where rendered HTML goes.
+     */
+    private Path html;
+
+    /**
+     * Exact size of the corpus in MB.
+     */
+    private double megabytes;
+
+    /**
+     * Counts of the corpus.
+     */
+    private Object counts;
+
+    /**
+     * Reduced counts of the corpus.
+     */
+    private Object reduced;
+
+    /**
+     * A fresh copy of the counts for every call to {@code reduce}, which
+     * consumes them.
+     */
+    @State(Scope.Thread)
+    public static class FreshCounts {
+
+        /**
+         * Copy of the counts.
+         */
+        private Object counts;
+
+        /**
+         * Copies the counts.
+         *
+         * @param bench
+         *            The benchmark holding the counts
+         * @throws Throwable
+         *             Never
+         */
+        @Setup(Level.Invocation)
+        public void copy(TagCloud2Bench bench) throws Throwable {
+            this.counts = (Object) COPY.invokeExact(bench.counts);
+        }
+    }
+
+    /**
+     * A fresh copy of the reduced counts for every call to
+     * {@code alphabetize} and {@code render}, which consume them.
+     */
+    @State(Scope.Thread)
+    public static class FreshReduced {
+
+        /**
+         * Copy of the reduced counts.
+         */
+        private Object reduced;
+
+        /**
+         * Copies the reduced counts.
+         *
+         * @param bench
+         *            The benchmark holding the reduced counts
+         * @throws Throwable
+         *             Never
+         */
+        @Setup(Level.Invocation)
+        public void copy(TagCloud2Bench bench) throws Throwable {
+            this.reduced = (Object) COPY.invokeExact(bench.reduced);
+        }
+    }
+
+    /**
+     * Generates the corpus and the inputs of the later stages.
+     *
+     * @throws Throwable
+     *             If the corpus cannot be read
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        this.corpus = Corpus.zipf(this.sizeMb);
+        this.html = Files.createTempFile("wordclouds", ".html");
+        this.megabytes = Files.size(this.corpus) / (double) (1 << 20);
+        this.counts = (Object) COUNT.invokeExact((Object) this.corpus);
+        this.reduced = (Object) REDUCE.invokeExact(
+                (Object) COPY.invokeExact(this.counts),
+                (Object) this.cloudSize);
+    }
+
+    /**
+     * Deletes the rendered HTML.
+     *
+     * @throws IOException
+     *             If the file cannot be deleted
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(this.html);
+    }
+
+    /**
+     * Counts the corpus with {@code mapGenerator}.
+     *
+     * @param bytes
+     *            Throughput counter
+     * @return The counts
+     * @throws Throwable
+     *             If the corpus cannot be read
+     */
+    @Benchmark
+    public Object count(TCS2Bench.Bytes bytes) throws Throwable {
+        bytes.megabytes += this.megabytes;
+        return (Object) COUNT.invokeExact((Object) this.corpus);
+    }
+
+    /**
+     * Reduces the counts to the {@code cloudSize} most common tags.
+     *
+     * @param fresh
+     *            A copy of the counts
+     * @return The reduced counts
+     * @throws Throwable
+     *             Never
+     */
+    @Benchmark
+    public Object reduce(FreshCounts fresh) throws Throwable {
+        return (Object) REDUCE.invokeExact(fresh.counts,
+                (Object) this.cloudSize);
+    }
+
+    /**
+     * Sorts the reduced counts alphabetically.
+     *
+     * @param fresh
+     *            A copy of the reduced counts
+     * @return The sorted tags
+     * @throws Throwable
+     *             Never
+     */
+    @Benchmark
+    public Object alphabetize(FreshReduced fresh) throws Throwable {
+        return (Object) ALPHABETIZE.invokeExact(fresh.reduced);
+    }
+
+    /**
+     * Sorts and renders the reduced counts as HTML.
+     *
+     * @param fresh
+     *            A copy of the reduced counts
+     * @throws Throwable
+     *             If the HTML cannot be written
+     */
+    @Benchmark
+    public void render(FreshReduced fresh) throws Throwable {
+        Object ignored = (Object) RENDER.invokeExact(fresh.reduced,
+                (Object) this.html);
+    }
+}
@@ -0,0 +1,352 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * The stages of {@code TCS2} as plain static calls. JMH will not generate code
+ * for benchmarks in the default package, and named packages cannot see it, so
+ * the benchmarks reach the program through this class.
+ *
+ * @author Ben Elleman
+ *
+ */
+public final class BenchStages {
+
+    /**
+     * Private constructor so this utility class cannot be instantiated.
+     */
+    private BenchStages() {
+    }
+
+    /**
+     * Splits every line of {@code file} into tags.
+     *
+     * @param file
+     *            The file to read
+     * @return The number of tags
+     * @throws IOException
+     *             If the file cannot be read
+     */
+    public static long tokenize(Path file) throws IOException {
+        return tokenize(file, Tokenizer.DEFAULT);
+    }
+
+    /**
+     * Splits every line of {@code file} into tags with the tokenizer
+     * {@code spec} describes.
+     *
+     * @param file
+     *            The file to read
+     * @param spec
+     *            Specification of the tokenizer, as for {@code Tokenizer.of}
+     * @return The number of tags
+     * @throws IOException
+     *             If the file cannot be read
+     */
+    public static long tokenize(Path file, String spec) throws IOException {
+        Tokenizer tokenizer = Tokenizer.of(spec);
+        long[] tags = new long[1];
+        Tokenizer.Sink sink = (text, start, end) -> tags[0]++;
+        try (BufferedReader in = Files.newBufferedReader(file,
+                StandardCharsets.UTF_8)) {
+            String line = in.readLine();
+            while (line != null) {
+                tokenizer.tokenize(line, sink);
+                line = in.readLine();
+            }
+        }
+        return tags[0];
+    }
+
+    /**
+     * Counts the tags of {@code file} with {@code TCS2.mapGenerator}.
+     *
+     * @param file
+     *            The file to read
+     * @return A map of every tag and its count
+     * @throws IOException
+     *             If the file cannot be read
+     */
+    public static Map<String, Integer> count(Path file) throws IOException {
+        try (BufferedReader in = Files.newBufferedReader(file,
+                StandardCharsets.UTF_8)) {
+            return TCS2.mapGenerator(in);
+        }
+    }
+
+    /**
+     * Counts the tags of {@code file} through a memory mapping.
+     *
+     * @param file
+     *            The file to read
+     * @return A map of every tag and its count
+     * @throws IOException
+     *             If the file cannot be read
+     */
+    public static Map<String, Integer> countMapped(Path file)
+            throws IOException {
+        try (MappedLineSource in = new MappedLineSource(file,
+                StandardCharsets.UTF_8)) {
+            return TCS2.mapGenerator(in);
+        }
+    }
+
+    /**
+     * Counts the tags of {@code file} on {@code workers} threads.
+     *
+     * @param file
+     *            The file to read
+     * @param workers
+     *            Number of threads
+     * @return A map of every tag and its count
+     * @throws IOException
+     *             If the file cannot be read
+     */
+    public static Map<String, Integer> countParallel(Path file, int workers)
+            throws IOException {
+        return ParallelCounter.count(file, StandardCharsets.UTF_8, workers);
+    }
+
+    /**
+     * Text and a counter that has already counted every word of it.
+     */
+    private static final class Seen {
+
+        /**
+         * The text.
+         */
+        private final CharBuffer text;
+
+        /**
+         * Splits the text into tags.
+         */
+        private final Tokenizer tokenizer = new Tokenizer();
+
+        /**
+         * The counter.
+         */
+        private final WordCounter counter = new WordCounter();
+
+        /**
+         * Lowercases the tags into {@code counter}.
+         */
+        private final Normalizer normalizer = new Normalizer(this.counter);
+
+        /**
+         * Counts {@code text} once.
+         *
+         * @param text
+         *            The text
+         */
+        Seen(CharBuffer text) {
+            this.text = text;
+            this.tokenizer.tokenize(text, this.normalizer);
+        }
+    }
+
+    /**
+     * Reads up to {@code chars} characters of {@code file} and counts them
+     * once, for {@link #countSeen(Object)}.
+     *
+     * @param file
+     *            The file to read
+     * @param chars
+     *            Most characters to read
+     * @return The text and its warm counter
+     * @throws IOException
+     *             If the file cannot be read
+     */
+    public static Object seen(Path file, int chars) throws IOException {
+        CharBuffer text = CharBuffer.allocate(chars);
+        try (BufferedReader in = Files.newBufferedReader(file,
+                StandardCharsets.UTF_8)) {
+            while (text.hasRemaining() && in.read(text) >= 0) {
+                continue;
+            }
+        }
+        text.flip();
+        return new Seen(text);
+    }
+
+    /**
+     * Counts the text of {@code seen} again. Every word is already in the
+     * counter, so this is the steady state of the counting loop.
+     *
+     * @param seen
+     *            The result of {@link #seen(Path, int)}
+     */
+    public static void countSeen(Object seen) {
+        Seen s = (Seen) seen;
+        s.tokenizer.tokenize(s.text, s.normalizer);
+    }
+
+    /**
+     * Indexes the document frequencies of the first {@code documents}
+     * documents of {@code file}, each {@code linesPerDocument} lines long,
+     * on one thread, and saves the index in {@code index}.
+     *
+     * @param file
+     *            The file to read
+     * @param documents
+     *            Number of documents to index
+     * @param linesPerDocument
+     *            Lines in each document
+     * @param index
+     *            The file to write
+     * @return The index
+     * @throws IOException
+     *             If the file cannot be read or the index written
+     */
+    public static Object frequencies(Path file, int documents,
+            int linesPerDocument, Path index) throws IOException {
+        DocumentFrequencies.Builder builder = new DocumentFrequencies.Builder(
+                new Tokenizer());
+        try (BufferedReader in = Files.newBufferedReader(file,
+                StandardCharsets.UTF_8)) {
+            int[] left = new int[1];
+            LineSource document = () -> left[0]-- > 0 ? in.readLine() : null;
+            for (int d = 0; d < documents; d++) {
+                left[0] = linesPerDocument;
+                builder.add(document);
+            }
+        }
+        DocumentFrequencies.write(List.of(builder), index);
+        return DocumentFrequencies.open(index);
+    }
+
+    /**
+     * Counts the tags of the first {@code lines} lines of {@code file}.
+     *
+     * @param file
+     *            The file to read
+     * @param lines
+     *            Number of lines to count
+     * @return A map of every tag and its count
+     * @throws IOException
+     *             If the file cannot be read
+     */
+    public static Map<String, Integer> head(Path file, int lines)
+            throws IOException {
+        try (BufferedReader in = Files.newBufferedReader(file,
+                StandardCharsets.UTF_8)) {
+            int[] left = { lines };
+            return TCS2.mapGenerator(
+                    () -> left[0]-- > 0 ? in.readLine() : null);
+        }
+    }
+
+    /**
+     * Ranks the tags of one document by TF-IDF against {@code index}.
+     *
+     * @param counts
+     *            The tags of the document and their counts; not modified
+     * @param cloudSize
+     *            Number of tags to keep
+     * @param index
+     *            The result of {@link #frequencies}
+     * @return The cloud
+     */
+    public static Object rank(Map<String, Integer> counts, int cloudSize,
+            Object index) {
+        return CloudPipeline.reduce(counts, cloudSize,
+                (DocumentFrequencies) index);
+    }
+
+    /**
+     * Copies {@code counts}, since the later stages consume their input.
+     *
+     * @param counts
+     *            A map of tags and counts
+     * @return A copy of {@code counts}
+     */
+    public static Map<String, Integer> copy(Map<String, Integer> counts) {
+        return new HashMap<>(counts);
+    }
+
+    /**
+     * Reduces {@code counts} to its {@code cloudSize} most common tags.
+     *
+     * @param counts
+     *            A map of tags and counts; replaced by the reduced map
+     * @param cloudSize
+     *            Number of tags to keep
+     * @return {@code counts}
+     */
+    public static Map<String, Integer> reduce(Map<String, Integer> counts,
+            int cloudSize) {
+        TCS2.mapReducer(counts, cloudSize);
+        return counts;
+    }
+
+    /**
+     * Sorts {@code counts} alphabetically.
+     *
+     * @param counts
+     *            A map of tags and counts
+     * @return The tags in alphabetical order
+     */
+    public static List<Entry<String, Integer>> alphabetize(
+            Map<String, Integer> counts) {
+        return TCS2.alphabetize(counts);
+    }
+
+    /**
+     * Copies {@code sorted}, since rendering consumes it.
+     *
+     * @param sorted
+     *            Alphabetized tags
+     * @return A copy of {@code sorted}
+     */
+    public static List<Entry<String, Integer>> copy(
+            List<Entry<String, Integer>> sorted) {
+        return new LinkedList<>(sorted);
+    }
+
+    /**
+     * Lays out {@code sorted} for the SVG output.
+     *
+     * @param sorted
+     *            Alphabetized tags; not modified
+     * @param scale
+     *            Name of the font scale
+     * @return The layout
+     */
+    public static Object layout(List<Entry<String, Integer>> sorted,
+            String scale) {
+        int minCount = Integer.MAX_VALUE;
+        int maxCount = Integer.MIN_VALUE;
+        for (Entry<String, Integer> pair : sorted) {
+            minCount = Math.min(minCount, pair.getValue());
+            maxCount = Math.max(maxCount, pair.getValue());
+        }
+        return new CloudLayout(sorted, new FontScale(
+                FontScale.Mode.of(scale), minCount, maxCount));
+    }
+
+    /**
+     * Renders the HTML of {@code sorted} into {@code out}.
+     *
+     * @param sorted
+     *            Alphabetized tags; emptied
+     * @param out
+     *            Where to write the HTML
+     */
+    public static void render(List<Entry<String, Integer>> sorted,
+            Writer out) {
+        PrintWriter output = new PrintWriter(out);
+        TCS2.htmlHeader(output, "corpus", sorted.size());
+        TCS2.htmlBody(output, sorted);
+        TCS2.htmlFooter(output);
+        output.flush();
+    }
+}
@@ -0,0 +1,152 @@
+package wordclouds.bench;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Synthetic text whose word frequencies follow a Zipf distribution, the shape
+ * of natural language and of most log vocabularies. Corpora are generated once
+ * per size and cached in {@code java.io.tmpdir}.
+ *
+ * @author Ben Elleman
+ *
+ */
+public final class Corpus {
+
+    /**
+     * Private constructor so this utility class cannot be instantiated.
+     */
+    private Corpus() {
+    }
+
+    /**
+     * Number of distinct words in the vocabulary.
+     */
+    static final int VOCABULARY = 200_000;
+
+    /**
+     * Zipf exponent.
+     */
+    static final double EXPONENT = 1.0;
+
+    /**
+     * Seed, so every run benchmarks the same text.
+     */
+    static final long SEED = 2231;
+
+    /**
+     * Separators put between words, weighted towards spaces.
+     */
+    private static final String[] SEPARATORS = { " ", " ", " ", " ", " ",
+            ", ", ". ", "; ", " - ", " (", ") ", "/", ": ", "? " };
+
+    /**
+     * Returns a corpus of about {@code megabytes} MB, generating it if it is
+     * not cached yet.
+     *
+     * @param megabytes
+     *            Size of the corpus
+     * @return Path of the corpus
+     */
+    public static Path zipf(int megabytes) {
+        Path dir = Paths.get(System.getProperty("java.io.tmpdir"));
+        Path file = dir.resolve("wordclouds-zipf-" + megabytes + "mb.txt");
+        if (!Files.exists(file)) {
+            try {
+                Path partial = Files.createTempFile(dir, "wordclouds-zipf",
+                        ".part");
+                write(partial, (long) megabytes << 20);
+                Files.move(partial, file, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Writes {@code bytes} bytes of Zipf-distributed words to {@code file}.
+     *
+     * @param file
+     *            The file to write
+     * @param bytes
+     *            Number of bytes to write
+     * @throws IOException
+     *             If the file cannot be written
+     */
+    static void write(Path file, long bytes) throws IOException {
+        Random random = new Random(SEED);
+        String[] words = vocabulary(random);
+        double[] cdf = new double[VOCABULARY];
+        double sum = 0;
+        for (int rank = 0; rank < VOCABULARY; rank++) {
+            sum += 1 / Math.pow(rank + 1, EXPONENT);
+            cdf[rank] = sum;
+        }
+        try (BufferedWriter out = Files.newBufferedWriter(file,
+                StandardCharsets.UTF_8)) {
+            long written = 0;
+            int column = 0;
+            while (written < bytes) {
+                int rank = Arrays.binarySearch(cdf, random.nextDouble() * sum);
+                if (rank < 0) {
+                    rank = Math.min(-rank - 1, VOCABULARY - 1);
+                }
+                String word = words[rank];
+                String separator = SEPARATORS[random
+                        .nextInt(SEPARATORS.length)];
+                if (column > 72) {
+                    separator = "\n";
+                    column = 0;
+                } else {
+                    column += word.length() + separator.length();
+                }
+                out.write(word);
+                out.write(separator);
+                written += word.length() + separator.length();
+            }
+        }
+    }
+
+    /**
+     * Makes up {@code VOCABULARY} distinct words, shorter words first like a
+     * real vocabulary, some of them capitalized.
+     *
+     * @param random
+     *            Source of randomness
+     * @return The words, most frequent first
+     */
+    private static String[] vocabulary(Random random) {
+        String[] words = new String[VOCABULARY];
+        Set<String> seen = new HashSet<>();
+        StringBuilder b = new StringBuilder();
+        int i = 0;
+        while (i < VOCABULARY) {
+            int length = 2 + (int) Math.min(10, Math.log(i + 2) / Math.log(3))
+                    + random.nextInt(3);
+            b.setLength(0);
+            for (int j = 0; j < length; j++) {
+                b.append((char) ('a' + random.nextInt(26)));
+            }
+            if (random.nextInt(8) == 0) {
+                b.setCharAt(0, Character.toUpperCase(b.charAt(0)));
+            }
+            String word = b.toString();
+            if (seen.add(word.toLowerCase())) {
+                words[i] = word;
+                i++;
+            }
+        }
+        return words;
+    }
+}
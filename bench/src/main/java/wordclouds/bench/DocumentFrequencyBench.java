@@ -0,0 +1,195 @@
+package wordclouds.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the document-frequency index as the corpus grows: the time to
+ * build and save the index of {@code documents} short documents cut from a
+ * Zipf corpus, and the time to rank one document by TF-IDF against it. The
+ * build also reports a {@code docs} counter, which JMH prints as the time
+ * per document indexed.
+ *
+ * @author Ben Elleman
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms2g", "-Xmx2g" })
+@State(Scope.Benchmark)
+public class DocumentFrequencyBench {
+
+    /**
+     * {@code BenchStages.frequencies(Path, int, int, Path)}.
+     */
+    private static final MethodHandle FREQUENCIES = Hooks.find("BenchStages",
+            "frequencies", Object.class, Path.class, int.class, int.class,
+            Path.class);
+
+    /**
+     * {@code BenchStages.head(Path, int)}.
+     */
+    private static final MethodHandle HEAD = Hooks.find("BenchStages",
+            "head", Map.class, Path.class, int.class);
+
+    /**
+     * {@code BenchStages.rank(Map, int, Object)}.
+     */
+    private static final MethodHandle RANK = Hooks.find("BenchStages",
+            "rank", Object.class, Map.class, int.class, Object.class);
+
+    /**
+     * Average bytes per line of the Zipf corpus, rounded up.
+     */
+    private static final int LINE_BYTES = 80;
+
+    /**
+     * Number of documents in the corpus.
+     */
+    @Param({ "10000", "100000", "1000000" })
+    public int documents;
+
+    /**
+     * Lines in each document.
+     */
+    @Param({ "4" })
+    public int linesPerDocument;
+
+    /**
+     * Number of tags in the cloud.
+     */
+    @Param({ "100" })
+    public int cloudSize;
+
+    /**
+     * The corpus.
+     */
+    private Path corpus;
+
+    /**
+     * Where the build benchmark saves its index.
+     */
+    private Path built;
+
+    /**
+     * The index the documents are ranked against.
+     */
+    private Path saved;
+
+    /**
+     * The mapped index.
+     */
+    private Object index;
+
+    /**
+     * Tags of the document ranked.
+     */
+    private Object document;
+
+    /**
+     * Documents indexed, reported by JMH as the time per document.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Docs {
+
+        /**
+         * Documents indexed in this iteration.
+         */
+        public long docs;
+
+        /**
+         * Clears the counter.
+         */
+        @Setup(Level.Iteration)
+        public void clear() {
+            this.docs = 0;
+        }
+    }
+
+    /**
+     * Generates a corpus large enough for the documents, indexes it, and
+     * counts the document to rank.
+     *
+     * @throws Throwable
+     *             If the corpus cannot be read or the index written
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        long bytes = (long) this.documents * this.linesPerDocument
+                * LINE_BYTES;
+        this.corpus = Corpus.zipf((int) (bytes >> 20) + 1);
+        this.built = Files.createTempFile("wordclouds-df", ".table");
+        this.saved = Files.createTempFile("wordclouds-df", ".table");
+        this.index = (Object) FREQUENCIES.invokeExact((Object) this.corpus,
+                (Object) this.documents, (Object) this.linesPerDocument,
+                (Object) this.saved);
+        this.document = (Object) HEAD.invokeExact((Object) this.corpus,
+                (Object) this.linesPerDocument);
+    }
+
+    /**
+     * Removes the saved indexes.
+     *
+     * @throws Throwable
+     *             If they cannot be removed
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws Throwable {
+        Files.deleteIfExists(this.built);
+        Files.deleteIfExists(this.saved);
+    }
+
+    /**
+     * Builds and saves the index of the corpus.
+     *
+     * @param docs
+     *            Throughput counter
+     * @return The index
+     * @throws Throwable
+     *             If the corpus cannot be read or the index written
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public Object build(Docs docs) throws Throwable {
+        docs.docs += this.documents;
+        return (Object) FREQUENCIES.invokeExact((Object) this.corpus,
+                (Object) this.documents, (Object) this.linesPerDocument,
+                (Object) this.built);
+    }
+
+    /**
+     * Ranks one document by TF-IDF: one index lookup per distinct tag.
+     *
+     * @return The cloud
+     * @throws Throwable
+     *             Never
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Object rank() throws Throwable {
+        return (Object) RANK.invokeExact(this.document,
+                (Object) this.cloudSize, this.index);
+    }
+}
@@ -0,0 +1,46 @@
+package wordclouds.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Looks up the static methods of the default-package stage classes, which a
+ * named package cannot refer to directly.
+ *
+ * @author Ben Elleman
+ *
+ */
+final class Hooks {
+
+    /**
+     * Private constructor so this utility class cannot be instantiated.
+     */
+    private Hooks() {
+    }
+
+    /**
+     * Finds {@code owner.name}, adapted to take and return {@code Object}s.
+     *
+     * @param owner
+     *            Name of the default-package class
+     * @param name
+     *            Name of the static method
+     * @param returnType
+     *            Return type of the method
+     * @param parameterTypes
+     *            Parameter types of the method
+     * @return A handle to the method with generic types
+     */
+    static MethodHandle find(String owner, String name, Class<?> returnType,
+            Class<?>... parameterTypes) {
+        try {
+            Class<?> c = Class.forName(owner);
+            MethodHandle handle = MethodHandles.publicLookup().findStatic(c,
+                    name, MethodType.methodType(returnType, parameterTypes));
+            return handle.asType(handle.type().generic());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package wordclouds.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the spiral layout of the SVG output: the time to place the
+ * {@code cloudSize} most common tags of a Zipf corpus under each font scale.
+ * The logarithmic scale draws most tags large, so it fills the most cells.
+ *
+ * @author Ben Elleman
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms2g", "-Xmx2g" })
+@State(Scope.Benchmark)
+public class LayoutBench {
+
+    /**
+     * {@code BenchStages.count(Path)}.
+     */
+    private static final MethodHandle COUNT = Hooks.find("BenchStages",
+            "count", Map.class, Path.class);
+
+    /**
+     * {@code BenchStages.reduce(Map, int)}.
+     */
+    private static final MethodHandle REDUCE = Hooks.find("BenchStages",
+            "reduce", Map.class, Map.class, int.class);
+
+    /**
+     * {@code BenchStages.alphabetize(Map)}.
+     */
+    private static final MethodHandle ALPHABETIZE = Hooks.find("BenchStages",
+            "alphabetize", List.class, Map.class);
+
+    /**
+     * {@code BenchStages.layout(List, String)}.
+     */
+    private static final MethodHandle LAYOUT = Hooks.find("BenchStages",
+            "layout", Object.class, List.class, String.class);
+
+    /**
+     * Size of the corpus in MB, enough for every cloud size.
+     */
+    private static final int SIZE_MB = 16;
+
+    /**
+     * Number of tags in the cloud.
+     */
+    @Param({ "500", "5000" })
+    public int cloudSize;
+
+    /**
+     * Name of the font scale.
+     */
+    @Param({ "linear", "log" })
+    public String scale;
+
+    /**
+     * Alphabetized tags of the cloud.
+     */
+    private Object sorted;
+
+    /**
+     * Counts the corpus and keeps the tags of the cloud.
+     *
+     * @throws Throwable
+     *             If the corpus cannot be read
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        Object counts = (Object) COUNT
+                .invokeExact((Object) Corpus.zipf(SIZE_MB));
+        Object reduced = (Object) REDUCE.invokeExact(counts,
+                (Object) this.cloudSize);
+        this.sorted = (Object) ALPHABETIZE.invokeExact(reduced);
+    }
+
+    /**
+     * Lays out the cloud.
+     *
+     * @return The layout
+     * @throws Throwable
+     *             Never
+     */
+    @Benchmark
+    public Object layout() throws Throwable {
+        return (Object) LAYOUT.invokeExact(this.sorted, (Object) this.scale);
+    }
+}
@@ -0,0 +1,389 @@
+package wordclouds.bench;
+
+import java.io.Writer;
+import java.lang.invoke.MethodHandle;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks each stage of {@code TCS2} on Zipf corpora of several sizes. The
+ * input stages also report a {@code megabytes} counter, which JMH prints as
+ * MB/s; run with {@code -prof gc} for allocation rates.
+ *
+ * @author Ben Elleman
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms2g", "-Xmx2g" })
+@State(Scope.Benchmark)
+public class TCS2Bench {
+
+    /**
+     * {@code BenchStages.tokenize(Path)}.
+     */
+    private static final MethodHandle TOKENIZE = Hooks.find("BenchStages",
+            "tokenize", long.class, Path.class);
+
+    /**
+     * {@code BenchStages.tokenize(Path, String)}.
+     */
+    private static final MethodHandle TOKENIZE_WITH = Hooks.find(
+            "BenchStages", "tokenize", long.class, Path.class, String.class);
+
+    /**
+     * Tokenizer splitting on the default separators and every Unicode
+     * punctuation character, which needs the BMP table.
+     */
+    private static final String UNICODE_SEPARATORS = "default+punctuation";
+
+    /**
+     * {@code BenchStages.count(Path)}.
+     */
+    private static final MethodHandle COUNT = Hooks.find("BenchStages",
+            "count", Map.class, Path.class);
+
+    /**
+     * {@code BenchStages.countMapped(Path)}.
+     */
+    private static final MethodHandle COUNT_MAPPED = Hooks.find(
+            "BenchStages", "countMapped", Map.class, Path.class);
+
+    /**
+     * {@code BenchStages.countParallel(Path, int)}.
+     */
+    private static final MethodHandle COUNT_PARALLEL = Hooks.find(
+            "BenchStages", "countParallel", Map.class, Path.class,
+            int.class);
+
+    /**
+     * {@code BenchStages.seen(Path, int)}.
+     */
+    private static final MethodHandle SEEN = Hooks.find("BenchStages",
+            "seen", Object.class, Path.class, int.class);
+
+    /**
+     * {@code BenchStages.countSeen(Object)}.
+     */
+    private static final MethodHandle COUNT_SEEN = Hooks.find("BenchStages",
+            "countSeen", void.class, Object.class);
+
+    /**
+     * Characters of the corpus recounted by {@code countSeen}.
+     */
+    private static final int SEEN_CHARS = 1 << 20;
+
+    /**
+     * {@code BenchStages.copy(Map)}.
+     */
+    private static final MethodHandle COPY_MAP = Hooks.find("BenchStages",
+            "copy", Map.class, Map.class);
+
+    /**
+     * {@code BenchStages.reduce(Map, int)}.
+     */
+    private static final MethodHandle REDUCE = Hooks.find("BenchStages",
+            "reduce", Map.class, Map.class, int.class);
+
+    /**
+     * {@code BenchStages.alphabetize(Map)}.
+     */
+    private static final MethodHandle ALPHABETIZE = Hooks.find("BenchStages",
+            "alphabetize", List.class, Map.class);
+
+    /**
+     * {@code BenchStages.copy(List)}.
+     */
+    private static final MethodHandle COPY_LIST = Hooks.find("BenchStages",
+            "copy", List.class, List.class);
+
+    /**
+     * {@code BenchStages.render(List, Writer)}.
+     */
+    private static final MethodHandle RENDER = Hooks.find("BenchStages",
+            "render", void.class, List.class, Writer.class);
+
+    /**
+     * Size of the corpus in MB.
+     */
+    @Param({ "1", "16", "256", "1024" })
+    public int sizeMb;
+
+    /**
+     * Number of tags in the cloud.
+     */
+    @Param({ "100" })
+    public int cloudSize;
+
+    /**
+     * Threads for the parallel count.
+     */
+    @Param({ "4" })
+    public int workers;
+
+    /**
+     * The corpus.
+     */
+    private Path corpus;
+
+    /**
+     * Exact size of the corpus in MB.
+     */
+    private double megabytes;
+
+    /**
+     * Counts of the corpus.
+     */
+    private Object counts;
+
+    /**
+     * Reduced counts of the corpus.
+     */
+    private Object reduced;
+
+    /**
+     * Alphabetized reduced counts of the corpus.
+     */
+    private Object sorted;
+
+    /**
+     * The start of the corpus with a counter that has seen all of it.
+     */
+    private Object seen;
+
+    /**
+     * Bytes processed, reported by JMH as a rate.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+
+        /**
+         * MB of input processed in this iteration.
+         */
+        public double megabytes;
+
+        /**
+         * Clears the counter.
+         */
+        @Setup(Level.Iteration)
+        public void clear() {
+            this.megabytes = 0;
+        }
+    }
+
+    /**
+     * A fresh copy of the counts for every call to {@code reduce}, which
+     * consumes them.
+     */
+    @State(Scope.Thread)
+    public static class Fresh {
+
+        /**
+         * Copy of the counts.
+         */
+        private Object counts;
+
+        /**
+         * Copies the counts.
+         *
+         * @param bench
+         *            The benchmark holding the counts
+         * @throws Throwable
+         *             Never
+         */
+        @Setup(Level.Invocation)
+        public void copy(TCS2Bench bench) throws Throwable {
+            this.counts = (Object) COPY_MAP.invokeExact(bench.counts);
+        }
+    }
+
+    /**
+     * Generates the corpus and the inputs of the later stages.
+     *
+     * @throws Throwable
+     *             If the corpus cannot be read
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        this.corpus = Corpus.zipf(this.sizeMb);
+        this.megabytes = Files.size(this.corpus) / (double) (1 << 20);
+        this.counts = (Object) COUNT.invokeExact((Object) this.corpus);
+        this.reduced = (Object) REDUCE.invokeExact(
+                (Object) COPY_MAP.invokeExact(this.counts),
+                (Object) this.cloudSize);
+        this.sorted = (Object) ALPHABETIZE
+                .invokeExact((Object) COPY_MAP.invokeExact(this.reduced));
+        this.seen = (Object) SEEN.invokeExact((Object) this.corpus,
+                (Object) SEEN_CHARS);
+    }
+
+    /**
+     * Reads and tokenizes the corpus.
+     *
+     * @param bytes
+     *            Throughput counter
+     * @return The number of tags
+     * @throws Throwable
+     *             If the corpus cannot be read
+     */
+    @Benchmark
+    public Object tokenize(Bytes bytes) throws Throwable {
+        bytes.megabytes += this.megabytes;
+        return (Object) TOKENIZE.invokeExact((Object) this.corpus);
+    }
+
+    /**
+     * Reads and tokenizes the corpus, also splitting on Unicode punctuation.
+     *
+     * @param bytes
+     *            Throughput counter
+     * @return The number of tags
+     * @throws Throwable
+     *             If the corpus cannot be read
+     */
+    @Benchmark
+    public Object tokenizeUnicode(Bytes bytes) throws Throwable {
+        bytes.megabytes += this.megabytes;
+        return (Object) TOKENIZE_WITH.invokeExact((Object) this.corpus,
+                (Object) UNICODE_SEPARATORS);
+    }
+
+    /**
+     * Reads and tokenizes the corpus on Unicode word boundaries.
+     *
+     * @param bytes
+     *            Throughput counter
+     * @return The number of tags
+     * @throws Throwable
+     *             If the corpus cannot be read
+     */
+    @Benchmark
+    public Object tokenizeWords(Bytes bytes) throws Throwable {
+        bytes.megabytes += this.megabytes;
+        return (Object) TOKENIZE_WITH.invokeExact((Object) this.corpus,
+                (Object) "words");
+    }
+
+    /**
+     * Counts the corpus with {@code mapGenerator}.
+     *
+     * @param bytes
+     *            Throughput counter
+     * @return The counts
+     * @throws Throwable
+     *             If the corpus cannot be read
+     */
+    @Benchmark
+    public Object count(Bytes bytes) throws Throwable {
+        bytes.megabytes += this.megabytes;
+        return (Object) COUNT.invokeExact((Object) this.corpus);
+    }
+
+    /**
+     * Counts the corpus through a memory mapping.
+     *
+     * @param bytes
+     *            Throughput counter
+     * @return The counts
+     * @throws Throwable
+     *             If the corpus cannot be read
+     */
+    @Benchmark
+    public Object countMapped(Bytes bytes) throws Throwable {
+        bytes.megabytes += this.megabytes;
+        return (Object) COUNT_MAPPED.invokeExact((Object) this.corpus);
+    }
+
+    /**
+     * Counts the corpus on {@code workers} threads.
+     *
+     * @param bytes
+     *            Throughput counter
+     * @return The counts
+     * @throws Throwable
+     *             If the corpus cannot be read
+     */
+    @Benchmark
+    public Object countParallel(Bytes bytes) throws Throwable {
+        bytes.megabytes += this.megabytes;
+        return (Object) COUNT_PARALLEL.invokeExact((Object) this.corpus,
+                (Object) this.workers);
+    }
+
+    /**
+     * Counts 1M characters of words the counter has already seen: the steady
+     * state of {@code mapGenerator}, which should allocate nothing
+     * ({@code -prof gc} reports {@code gc.alloc.rate.norm} near 0 B/op).
+     *
+     * @return The warm counter state
+     * @throws Throwable
+     *             Never
+     */
+    @Benchmark
+    public Object countSeen() throws Throwable {
+        Object ignored = (Object) COUNT_SEEN.invokeExact(this.seen);
+        return this.seen;
+    }
+
+    /**
+     * Reduces the counts to the {@code cloudSize} most common tags.
+     *
+     * @param fresh
+     *            A copy of the counts
+     * @return The reduced counts
+     * @throws Throwable
+     *             Never
+     */
+    @Benchmark
+    public Object reduce(Fresh fresh) throws Throwable {
+        return (Object) REDUCE.invokeExact(fresh.counts,
+                (Object) this.cloudSize);
+    }
+
+    /**
+     * Sorts the reduced counts alphabetically.
+     *
+     * @return The sorted tags
+     * @throws Throwable
+     *             Never
+     */
+    @Benchmark
+    public Object alphabetize() throws Throwable {
+        return (Object) ALPHABETIZE.invokeExact(this.reduced);
+    }
+
+    /**
+     * Renders the sorted tags as HTML.
+     *
+     * @return The HTML writer
+     * @throws Throwable
+     *             Never
+     */
+    @Benchmark
+    public Object render() throws Throwable {
+        Writer out = Writer.nullWriter();
+        Object list = (Object) COPY_LIST.invokeExact(this.sorted);
+        Object ignored = (Object) RENDER.invokeExact(list, (Object) out);
+        return out;
+    }
+}